@@ -0,0 +1,32 @@
+package puc.paralela;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Executa os benchmarks JMH sempre com o profiler de GC, para que cada resultado
+ * traga a vazão e a taxa de alocação (gc.alloc.rate.norm = bytes por operação).
+ * Aceita os mesmos argumentos do runner do JMH, por exemplo um filtro por nome:
+ *
+ * <pre>
+ * java -jar Benchmarks/target/Benchmarks-1.0-SNAPSHOT-jar-with-dependencies.jar BordaBenchmark
+ * </pre>
+ *
+ * Com {@code --pipeline}, executa o pipeline completo num único processo ({@link EmbeddedPipeline}).
+ */
+public class Benchmarks {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "--pipeline".equals(args[0])) {
+            EmbeddedPipeline.run();
+            return;
+        }
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,73 @@
+package puc.paralela;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import puc.paralela.codec.Atividade;
+import puc.paralela.codec.Leitura;
+import puc.paralela.codec.WireFormat;
+
+/**
+ * Caminho do Nó de Borda para cada registro recebido do Gateway:
+ * decodificação, regras de anomalia ({@link Borda#enrich}) e codificação para o Nó Central.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BordaBenchmark {
+    private static final int MESSAGES = 4096;
+    private static final int TAGS = 1024;
+
+    @Param({"JSON", "BINARY"})
+    public WireFormat format;
+
+    private final Leitura leitura = new Leitura();
+    private byte[][] messages;
+    private int next;
+
+    @Setup
+    public void setup() {
+        messages = generateMessages(format, MESSAGES, TAGS, 42);
+    }
+
+    @Benchmark
+    public byte[] processAndForward() {
+        byte[] message = messages[next++ & (MESSAGES - 1)];
+        WireFormat.decode(message, 0, message.length, leitura);
+        Borda.enrich(leitura, System.currentTimeMillis());
+        return format.encode(leitura);
+    }
+
+    /**
+     * Leituras de temperatura normal (sem alertas, para não medir a escrita no console).
+     */
+    static byte[][] generateMessages(WireFormat format, int count, int tags, long seed) {
+        Random random = new Random(seed);
+        Leitura leitura = new Leitura();
+        byte[][] messages = new byte[count][];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            leitura.clear();
+            leitura.setBrincoId(String.format("BENCH%06d", i % tags));
+            leitura.setTimestamp(now + i);
+            leitura.setLocalizacao(-19.92 + random.nextDouble() * 0.0016 - 0.0008, -43.93 + random.nextDouble() * 0.0016 - 0.0008);
+            leitura.setTemperatura((float) (38.0 + random.nextDouble() * 0.5));
+            leitura.setAtividade(random.nextBoolean() ? Atividade.PASTANDO : Atividade.ANDANDO);
+            messages[i] = format.encode(leitura);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,39 @@
+package puc.paralela;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import puc.paralela.codec.Leitura;
+import puc.paralela.codec.WireFormat;
+
+/**
+ * Geração de uma leitura simulada pelo Brinco e sua serialização para o datagrama.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BrincoBenchmark {
+
+    @Param({"JSON", "BINARY"})
+    public WireFormat format;
+
+    private final Brinco brinco = new Brinco("BENCH000001");
+    private final Leitura leitura = new Leitura();
+
+    @Benchmark
+    public byte[] generateAndEncode() {
+        brinco.fillBrincoData(leitura);
+        return format.encode(leitura);
+    }
+}
@@ -0,0 +1,161 @@
+package puc.paralela;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import puc.paralela.codec.Atividade;
+import puc.paralela.codec.Leitura;
+
+/**
+ * Caminho do Nó Central para cada registro, como em Central.storeData: cercas
+ * virtuais ({@link GeofenceEngine}), gravação no armazenamento mapeado
+ * ({@link MappedReadingStore}), alertas ({@link AlertEngine}, entregues a um destino
+ * que descarta) e análises do rebanho ({@link HerdAnalytics}), com várias threads
+ * gravando ao mesmo tempo como as conexões dos Nós de Borda.
+ *
+ * O armazenamento é recriado num diretório temporário a cada iteração e apagado
+ * em seguida, para o disco não crescer durante a medição.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class CentralBenchmark {
+    private static final int TAGS = 4096;
+    private static final int READINGS_PER_TAG = 4;
+    private static final double PADDOCK_SIZE = 0.0005;
+
+    private static final GeofenceEngine.Listener QUIET = new GeofenceEngine.Listener() {
+        @Override
+        public void onEnter(Leitura leitura, Geofence fence) {
+        }
+
+        @Override
+        public void onLeave(Leitura leitura, Geofence fence) {
+        }
+
+        @Override
+        public void onOutsideFarm(Leitura leitura) {
+        }
+    };
+
+    /**
+     * Número de piquetes, dispostos em grade em torno da fazenda.
+     */
+    @Param({"1", "10000"})
+    public int fences;
+
+    private GeofenceEngine geofences;
+    private AlertDispatcher dispatcher;
+    private AlertEngine alerts;
+    private HerdAnalytics analytics;
+    private Leitura[] readings;
+    private Path dir;
+    private MappedReadingStore store;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        List<Geofence> list = new ArrayList<>();
+        int side = (int) Math.ceil(Math.sqrt(fences));
+        double originLat = -19.92 - side * PADDOCK_SIZE / 2;
+        double originLon = -43.93 - side * PADDOCK_SIZE / 2;
+        list.add(Geofence.rectangle(0, "Fazenda", "Fazenda", Geofence.Tipo.FAZENDA,
+                -19.92, -43.93, side * PADDOCK_SIZE / 2, side * PADDOCK_SIZE / 2));
+        for (int i = 0; i < fences; i++) {
+            double lat = originLat + (i / side + 0.5) * PADDOCK_SIZE;
+            double lon = originLon + (i % side + 0.5) * PADDOCK_SIZE;
+            list.add(Geofence.rectangle(list.size(), "P" + i, "Fazenda", Geofence.Tipo.PIQUETE,
+                    lat, lon, PADDOCK_SIZE / 2, PADDOCK_SIZE / 2));
+        }
+        geofences = new GeofenceEngine(list, 0);
+        dispatcher = new AlertDispatcher(List.of(batch -> { }), 10_000);
+        dispatcher.start();
+        alerts = new AlertEngine(dispatcher);
+        analytics = new HerdAnalytics(geofences);
+
+        // Cada brinco tem uma posição base e se move pouco entre leituras, como um animal pastando
+        Random random = new Random(42);
+        readings = new Leitura[TAGS * READINGS_PER_TAG];
+        long now = System.currentTimeMillis();
+        for (int tag = 0; tag < TAGS; tag++) {
+            double lat = originLat + random.nextDouble() * side * PADDOCK_SIZE;
+            double lon = originLon + random.nextDouble() * side * PADDOCK_SIZE;
+            for (int r = 0; r < READINGS_PER_TAG; r++) {
+                Leitura leitura = new Leitura();
+                leitura.setBrincoId(String.format("BENCH%06d", tag));
+                leitura.setTimestamp(now + r);
+                leitura.setLocalizacao(lat + random.nextGaussian() * 0.00002, lon + random.nextGaussian() * 0.00002);
+                leitura.setTemperatura((float) (38.0 + random.nextDouble() * 0.5));
+                leitura.setAtividade(Atividade.PASTANDO);
+                readings[r * TAGS + tag] = leitura;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        dispatcher.close(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    @Setup(Level.Iteration)
+    public void openStore() throws IOException {
+        dir = Files.createTempDirectory("bench-central");
+        store = new MappedReadingStore(dir, 1 << 20, 0, TAGS * 2);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeStore() throws IOException {
+        store.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        final Leitura leitura = new Leitura();
+        int next;
+    }
+
+    @Benchmark
+    public boolean geofence(Cursor cursor) {
+        return geofences.update(readings[cursor.next++ % readings.length], QUIET);
+    }
+
+    @Benchmark
+    public void storeAndGeofence(Cursor cursor) {
+        Leitura leitura = cursor.leitura;
+        leitura.copyFrom(readings[cursor.next++ % readings.length]);
+        if (leitura.hasFlag(Leitura.FLAG_LOCALIZACAO)) {
+            leitura.setFlag(Leitura.FLAG_FORA_DA_FAZENDA, geofences.update(leitura, QUIET));
+        }
+        store.append(leitura);
+        alerts.update(leitura);
+        analytics.update(leitura, geofences.areaOf(leitura.getBrincoId()));
+    }
+}
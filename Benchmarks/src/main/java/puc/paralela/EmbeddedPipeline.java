@@ -0,0 +1,144 @@
+package puc.paralela;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import puc.paralela.codec.WireFormat;
+import puc.paralela.comum.LatencyHistogram;
+import puc.paralela.comum.Log;
+import puc.paralela.comum.MemoryLink;
+import puc.paralela.comum.Metrics;
+
+/**
+ * Pipeline completo (frota de brincos, Gateway, Nó de Borda e Nó Central) num único
+ * processo, com os nós ligados por {@link MemoryLink}s em vez de UDP e TCP. Mede a
+ * vazão e as latências do processamento dos nós sem a rede, o kernel e a troca de
+ * processos, e serve de base para comparar com a mesma carga em processos separados.
+ *
+ * <pre>
+ * java -Dembutido.brincos=1000 -Dbrinco.frota.taxa=20000 \
+ *      -jar Benchmarks/target/Benchmarks-1.0-SNAPSHOT-jar-with-dependencies.jar --pipeline
+ * </pre>
+ *
+ * Configuração (propriedades de sistema), além das dos próprios nós:
+ * <ul>
+ * <li>embutido.brincos: brincos da frota (padrão 1000); a taxa vem de brinco.frota.taxa (padrão 10000 leituras/s);</li>
+ * <li>embutido.aquecimento.segundos / embutido.segundos: aquecimento e medição (padrão 5 e 20);</li>
+ * <li>embutido.anel: mensagens em cada enlace em memória (padrão 8192);</li>
+ * <li>embutido.formato: formato das mensagens ("json" ou "binary", padrão json) nos enlaces.</li>
+ * </ul>
+ *
+ * O Nó Central grava num diretório temporário (removido no fim) a menos que
+ * -Dcentral.storage.dir seja informado, e os alertas não vão para o console. As
+ * métricas dos três nós ficam num único registro; as latências entre nós usam os
+ * timestamps em ms das leituras, então valores abaixo de 1 ms aparecem como 0.
+ */
+final class EmbeddedPipeline {
+    private static final int PROGRESS_SECONDS = 5;
+    private static final String[] LATENCIES = {"latencia_brinco_ate_gateway_ms", "latencia_gateway_ate_borda_ms",
+            "latencia_borda_ate_central_ms", "latencia_fim_a_fim_ms", "processamento_borda_us", "armazenamento_us"};
+
+    private EmbeddedPipeline() {
+    }
+
+    static void run() throws Exception {
+        // As propriedades são lidas na inicialização das classes dos nós, então vêm antes de tudo
+        Path storage = null;
+        if (System.getProperty("central.storage.dir") == null) {
+            storage = Files.createTempDirectory("pipeline-embutido");
+            System.setProperty("central.storage.dir", storage.toString());
+        }
+        defaultProperty("central.alertas.console", "false");
+        defaultProperty("brinco.frota.taxa", "10000");
+        defaultProperty("metricas.porta", "0");
+
+        int brincos = Integer.getInteger("embutido.brincos", 1000);
+        long warmupSeconds = Long.getLong("embutido.aquecimento.segundos", 5);
+        long seconds = Math.max(1, Long.getLong("embutido.segundos", 20));
+        int ring = Integer.getInteger("embutido.anel", 8192);
+        WireFormat format = WireFormat.fromProperty("embutido.formato");
+
+        MemoryLink brincoToGateway = new MemoryLink("brinco_gateway", ring);
+        MemoryLink gatewayToBorda = new MemoryLink("gateway_borda", ring);
+        MemoryLink bordaToCentral = new MemoryLink("borda_central", ring);
+
+        Metrics.start("Pipeline embutido", 0);
+        if (!Central.startEmbedded(bordaToCentral)) {
+            return;
+        }
+        Borda.startEmbedded(gatewayToBorda, bordaToCentral);
+        Gateway.startEmbedded(brincoToGateway, gatewayToBorda);
+
+        BrincoFrota frota = new BrincoFrota(brincos, brincoToGateway, format);
+        Thread fleet = new Thread(() -> {
+            try {
+                frota.run();
+            } catch (IOException e) {
+                Log.error("Erro na frota do pipeline embutido: {}", e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "frota-embutida");
+        fleet.setDaemon(true);
+        fleet.start();
+
+        Log.info("Pipeline embutido: {} brincos, formato {}, enlaces de {} mensagens; aquecendo por {} s.",
+                brincos, format.name().toLowerCase(), ring, warmupSeconds);
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+        for (String name : LATENCIES) {
+            Metrics.histogram(name).reset();
+        }
+
+        long[] start = {frota.sentCount(), brincoToGateway.deliveredCount(), gatewayToBorda.deliveredCount(),
+                bordaToCentral.deliveredCount()};
+        long startNanos = System.nanoTime();
+        long remaining = seconds;
+        while (remaining > 0) {
+            long step = Math.min(PROGRESS_SECONDS, remaining);
+            TimeUnit.SECONDS.sleep(step);
+            remaining -= step;
+            Log.info("Pipeline embutido: {} s medidos, {} leituras armazenadas.",
+                    seconds - remaining, bordaToCentral.deliveredCount() - start[3]);
+        }
+        double elapsed = (System.nanoTime() - startNanos) / 1e9;
+        long[] end = {frota.sentCount(), brincoToGateway.deliveredCount(), gatewayToBorda.deliveredCount(),
+                bordaToCentral.deliveredCount()};
+
+        StringBuilder report = new StringBuilder(String.format("%nPipeline embutido: %.1f s medidos%n", elapsed));
+        String[] stages = {"enviadas pela frota", "recebidas pelo Gateway", "processadas pelo Nó de Borda",
+                "armazenadas pelo Nó Central"};
+        for (int i = 0; i < stages.length; i++) {
+            long count = end[i] - start[i];
+            report.append(String.format("  %-30s %10d  (%.0f leituras/s)%n", stages[i], count, count / elapsed));
+        }
+        report.append(String.format("  %-30s %10s %10s %10s %10s%n", "latência", "p50", "p99", "máx", "amostras"));
+        for (String name : LATENCIES) {
+            LatencyHistogram histogram = Metrics.histogram(name);
+            report.append(String.format("  %-30s %10d %10d %10d %10d%n", name,
+                    histogram.percentile(50), histogram.percentile(99), histogram.max(), histogram.count()));
+        }
+        Log.info("{}", report);
+
+        if (storage != null) {
+            deleteRecursively(storage);
+        }
+        System.exit(0);
+    }
+
+    private static void defaultProperty(String name, String value) {
+        if (System.getProperty(name) == null) {
+            System.setProperty(name, value);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            Log.warn("Não foi possível remover {}: {}", dir, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package puc.paralela;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import puc.paralela.codec.WireFormat;
+import puc.paralela.comum.OverloadQueue;
+
+/**
+ * Fila do Gateway sob disputa: quatro threads receptoras copiam o datagrama e o
+ * enfileiram (como o receptor UDP), enquanto o despachante retira lotes com drainTo.
+ * As operações não bloqueiam, para que o fim de cada iteração nunca deixe uma thread presa;
+ * offer() devolve false quando a fila está cheia e o resultado é consumido pelo JMH.
+ * O parâmetro {@code fila} compara a ArrayBlockingQueue original com a {@link OverloadQueue}
+ * (mesma capacidade convertida em bytes, descartando as mais antigas) e com a coalescência por brinco.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GatewayQueueBenchmark {
+
+    @Param({"100", "4096"})
+    public int capacity;
+
+    @Param({"array", "descartar-antigas", "coalescer"})
+    public String fila;
+
+    private BlockingQueue<byte[]> queue;
+    private OverloadQueue overloadQueue;
+    private byte[] datagram;
+    private int length;
+
+    @Setup
+    public void setup() {
+        byte[] message = BordaBenchmark.generateMessages(WireFormat.JSON, 1, 1, 42)[0];
+        datagram = Arrays.copyOf(message, 1024); // Buffer de recepção maior que a mensagem
+        length = message.length;
+        if ("array".equals(fila)) {
+            queue = new ArrayBlockingQueue<>(capacity);
+        } else {
+            overloadQueue = new OverloadQueue("benchmark", (long) capacity * length,
+                    OverloadQueue.Policy.valueOf(fila.toUpperCase().replace('-', '_')));
+            queue = overloadQueue;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Batch {
+        final List<byte[]> items = new ArrayList<>(256);
+    }
+
+    @State(Scope.Thread)
+    public static class Tags {
+        long next; // Cada thread recebe leituras de 1000 brincos, em rodízio
+    }
+
+    @Benchmark
+    @Group("fila")
+    @GroupThreads(4)
+    public boolean enqueue(Tags tags) throws InterruptedException {
+        byte[] copy = Arrays.copyOf(datagram, length);
+        if (overloadQueue == null) {
+            return queue.offer(copy);
+        }
+        return overloadQueue.enqueue(copy, 1 + tags.next++ % 1000, false);
+    }
+
+    @Benchmark
+    @Group("fila")
+    @GroupThreads(1)
+    public int drain(Batch batch) {
+        int drained = queue.drainTo(batch.items, 256);
+        batch.items.clear();
+        return drained;
+    }
+}
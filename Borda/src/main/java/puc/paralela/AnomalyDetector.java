@@ -0,0 +1,304 @@
+package puc.paralela;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import puc.paralela.comum.Metrics;
+import puc.paralela.codec.Atividade;
+import puc.paralela.codec.Leitura;
+
+/**
+ * Detecção incremental de anomalias por animal no Nó de Borda.
+ *
+ * Para cada brinco é mantido um {@link TagState} com estatísticas atualizadas em
+ * O(1) por leitura: média e variância móveis exponenciais (EWMA) da temperatura,
+ * uma média rápida para detectar derivas, a taxa de troca de atividade e os
+ * instantes da última leitura e do início do repouso atual. Os estados ficam
+ * numa tabela dividida em shards, cada um com a sua trava, para que as threads
+ * de conexão com os Gateways raramente disputem a mesma trava.
+ *
+ * Regras (configuráveis por propriedades de sistema):
+ * <ul>
+ * <li>febre por z-score: temperatura acima de média + Z desvios da linha de base do animal
+ *     (e acima de um piso absoluto); até haver amostras suficientes vale o limite fixo;</li>
+ * <li>deriva: média rápida acima da linha de base por mais que um limite, pegando febres
+ *     que sobem devagar;</li>
+ * <li>inatividade prolongada: descansando sem interrupção por mais que um tempo limite;</li>
+ * <li>agitação: taxa de troca de atividade acima de um limite (desativada por padrão);</li>
+ * <li>brinco ausente: sem leituras há mais que um tempo limite (verificado periodicamente).</li>
+ * </ul>
+ *
+ * O estado de um brinco já informado como ausente é descartado depois de um tempo maior
+ * sem leituras ({@code -Dborda.estado.expiracao.horas}), para que brincos retirados do
+ * rebanho não fiquem na memória para sempre; se o brinco voltar, a linha de base recomeça.
+ */
+class AnomalyDetector {
+    static final int ALERTA_FEBRE = 1;
+    static final int ALERTA_DERIVA = 1 << 1;
+    static final int ALERTA_INATIVIDADE = 1 << 2;
+    static final int ALERTA_AGITACAO = 1 << 3;
+
+    private final double alpha = Double.parseDouble(System.getProperty("borda.febre.alpha", "0.05"));
+    private final double fastAlpha = Double.parseDouble(System.getProperty("borda.deriva.alpha", "0.3"));
+    private final double zLimit = Double.parseDouble(System.getProperty("borda.febre.z", "3.0"));
+    private final double feverFloor = Double.parseDouble(System.getProperty("borda.febre.piso", "39.0"));
+    private final double feverFixedLimit = Double.parseDouble(System.getProperty("borda.febre.limite", "39.5"));
+    private final int minSamples = Integer.getInteger("borda.febre.min.amostras", 20);
+    private final double driftLimit = Double.parseDouble(System.getProperty("borda.deriva.limite", "0.8"));
+    private final long inactivityMs = TimeUnit.MINUTES.toMillis(Long.getLong("borda.inatividade.minutos", 120L));
+    private final double agitationLimit = Double.parseDouble(System.getProperty("borda.agitacao.taxa", "0"));
+    private final long missingMs = TimeUnit.MINUTES.toMillis(Long.getLong("borda.ausencia.minutos", 30L));
+    // 0 desativa; nunca expira antes de a ausência ser informada
+    private final long expiryMs = TimeUnit.HOURS.toMillis(Long.getLong("borda.estado.expiracao.horas", 24L));
+    private final LongAdder expired = Metrics.counter("brincos_expirados");
+
+    private final Shard[] shards;
+    private final int shardMask;
+
+    AnomalyDetector() {
+        int wanted = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+        int count = Integer.highestOneBit(wanted - 1) << 1;
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard();
+        }
+        shardMask = count - 1;
+    }
+
+    /**
+     * Atualiza o estado do brinco com a leitura e avalia as regras.
+     * @param arrivalMs Instante de chegada da leitura na borda.
+     * @return combinação dos bits ALERTA_* disparados por esta leitura.
+     */
+    int evaluate(Leitura leitura, long arrivalMs) {
+        long key = leitura.brincoKey();
+        Shard shard = shards[(int) mix(key) & shardMask];
+        synchronized (shard) {
+            TagState state = shard.get(key);
+            if (state == null) {
+                state = shard.put(key, new TagState(leitura.getBrincoId()));
+            }
+            return update(state, leitura, arrivalMs);
+        }
+    }
+
+    private int update(TagState s, Leitura leitura, long arrivalMs) {
+        int alerts = 0;
+        double x = leitura.getTemperatura();
+        long timestamp = leitura.getTimestamp();
+        Atividade atividade = leitura.getAtividade();
+        if (s.lastSeenMs == 0) {
+            s.fastMean = x;
+        }
+
+        // Temperatura: z-score contra a linha de base do próprio animal
+        boolean anomalous;
+        if (s.samples < minSamples) {
+            anomalous = x > feverFixedLimit;
+        } else {
+            double std = Math.sqrt(Math.max(s.variance, 1e-4));
+            s.lastZ = (x - s.mean) / std;
+            anomalous = x > feverFloor && s.lastZ > zLimit;
+        }
+        if (anomalous) {
+            alerts |= ALERTA_FEBRE;
+        } else {
+            // Leituras anômalas não entram na linha de base, para que uma febre persistente continue sendo detectada
+            if (s.samples == 0) {
+                s.mean = x;
+            } else {
+                double diff = x - s.mean;
+                double incr = alpha * diff;
+                s.mean += incr;
+                s.variance = (1 - alpha) * (s.variance + diff * incr);
+            }
+            s.samples++;
+        }
+        s.fastMean += fastAlpha * (x - s.fastMean);
+        if (s.samples >= minSamples && s.fastMean - s.mean > driftLimit && x > feverFloor - driftLimit) {
+            alerts |= ALERTA_DERIVA;
+        }
+
+        // Atividade: taxa de trocas e duração do repouso
+        if (s.lastAtividade != null) {
+            s.transitionRate += alpha * ((atividade != s.lastAtividade ? 1.0 : 0.0) - s.transitionRate);
+        }
+        if (atividade == Atividade.DESCANSANDO) {
+            if (s.restingSinceMs == 0) {
+                s.restingSinceMs = timestamp;
+            } else if (timestamp - s.restingSinceMs > inactivityMs) {
+                alerts |= ALERTA_INATIVIDADE;
+            }
+        } else {
+            s.restingSinceMs = 0;
+        }
+        if (agitationLimit > 0 && s.samples >= minSamples && s.transitionRate > agitationLimit) {
+            alerts |= ALERTA_AGITACAO;
+        }
+        s.lastAtividade = atividade;
+
+        s.lastSeenMs = arrivalMs;
+        s.missingReported = false;
+        return alerts;
+    }
+
+    /**
+     * Brincos sem leituras há mais que o tempo limite. Cada ausência é informada uma única vez,
+     * até o brinco voltar a enviar dados. Na mesma passada, descarta os estados expirados.
+     */
+    List<String> collectMissing(long nowMs) {
+        List<String> missing = new ArrayList<>();
+        Predicate<TagState> isExpired = s -> expiryMs > 0 && s.missingReported && nowMs - s.lastSeenMs > expiryMs;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                int[] expiring = new int[1];
+                shard.forEach(s -> {
+                    if (!s.missingReported && nowMs - s.lastSeenMs > missingMs) {
+                        s.missingReported = true;
+                        missing.add(s.brincoId);
+                    } else if (isExpired.test(s)) {
+                        expiring[0]++;
+                    }
+                });
+                if (expiring[0] > 0) {
+                    expired.add(shard.removeIf(isExpired));
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Quantidade de brincos com estado na memória.
+     */
+    int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.size;
+            }
+        }
+        return size;
+    }
+
+    long missingTimeoutMs() {
+        return missingMs;
+    }
+
+    /**
+     * Estado de um brinco. Acessado só com a trava do shard.
+     */
+    static final class TagState {
+        final String brincoId;
+        long samples;
+        double mean;
+        double variance;
+        double fastMean;
+        double lastZ;
+        double transitionRate;
+        Atividade lastAtividade;
+        long restingSinceMs;
+        long lastSeenMs;
+        boolean missingReported;
+
+        TagState(String brincoId) {
+            this.brincoId = brincoId;
+        }
+    }
+
+    /**
+     * Tabela hash de endereçamento aberto com chave long primitiva (sem boxing).
+     */
+    private static final class Shard {
+        private long[] keys = new long[16];
+        private TagState[] values = new TagState[16];
+        private int size;
+
+        TagState get(long key) {
+            int mask = keys.length - 1;
+            for (int i = (int) mix(key) >>> 8 & mask; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        TagState put(long key, TagState value) {
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            insert(key, value);
+            size++;
+            return value;
+        }
+
+        private void insert(long key, TagState value) {
+            int mask = keys.length - 1;
+            int i = (int) mix(key) >>> 8 & mask;
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            TagState[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new TagState[oldValues.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    insert(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        /**
+         * Remove os estados que satisfazem o filtro, reinserindo os demais numa tabela nova
+         * (o endereçamento aberto não permite simplesmente esvaziar a posição).
+         * @return quantos estados foram removidos.
+         */
+        int removeIf(Predicate<TagState> filter) {
+            long[] oldKeys = keys;
+            TagState[] oldValues = values;
+            int kept = 0;
+            for (TagState value : oldValues) {
+                if (value != null && !filter.test(value)) {
+                    kept++;
+                }
+            }
+            // A tabela encolhe junto, mantendo a mesma ocupação máxima de put()
+            int capacity = Math.max(16, Integer.highestOneBit(kept * 2) << 1);
+            keys = new long[capacity];
+            values = new TagState[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null && !filter.test(oldValues[i])) {
+                    insert(oldKeys[i], oldValues[i]);
+                }
+            }
+            int removed = size - kept;
+            size = kept;
+            return removed;
+        }
+
+        void forEach(Consumer<TagState> action) {
+            for (TagState value : values) {
+                if (value != null) {
+                    action.accept(value);
+                }
+            }
+        }
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -1,152 +1,281 @@
 package puc.paralela;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import org.json.JSONObject;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import puc.paralela.codec.Leitura;
+import puc.paralela.codec.WireFormat;
+import puc.paralela.comum.InboundConnection;
+import puc.paralela.comum.LatencyHistogram;
+import puc.paralela.comum.Log;
+import puc.paralela.comum.MemoryLink;
+import puc.paralela.comum.Metrics;
+import puc.paralela.comum.NioInboundServer;
+import puc.paralela.comum.OverloadQueue;
+import puc.paralela.comum.Transport;
+import puc.paralela.comum.UpstreamConnection;
 
 public class Borda {
      private static final int BORDA_NODE_TCP_PORT = 12346; // Porta local do Nó de Borda
 
-    private static String CENTRAL_NODE_IP;   // Definido via argumento de linha de comando
-    private static int CENTRAL_NODE_TCP_PORT; // Definido via argumento de linha de comando
 
-    private static ExecutorService clientHandlerPool = Executors.newFixedThreadPool(5);
-    private static ArrayBlockingQueue<String> dataQueueToCentral = new ArrayBlockingQueue<>(100);
+    // Cada Gateway mantém a conexão aberta e ocupa uma thread do pool enquanto estiver conectado,
+    // então o pool não tem limite de threads; o limite é o de conexões (borda.tcp.max.conexoes)
+    private static ExecutorService clientHandlerPool = Executors.newCachedThreadPool();
+    // Servidor para os Gateways: "nio" (seletores, milhares de conexões; o padrão) ou "blocking" (uma thread do pool por conexão)
+    private static final String TCP_MODE = System.getProperty("borda.tcp.mode", "nio");
+    private static final int MAX_CONNECTIONS = Integer.getInteger("borda.tcp.max.conexoes", 10_000);
+    private static final long IDLE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(Long.getLong("borda.tcp.ocioso.segundos", 300));
+    private static final AtomicInteger OPEN_CONNECTIONS = new AtomicInteger();
+    // Fila e despachante de cada Nó Central; ver startCentralRouting()
+    private static CentralRouter CENTRALS;
+    // Alertas que vão para a faixa prioritária da fila
+    static final int PRIORITY_FLAGS = Leitura.FLAG_ALERTA_FEBRE | Leitura.FLAG_FORA_DA_FAZENDA | Leitura.FLAG_ALERTA_INATIVIDADE;
+
+    // Formato usado no enlace com o Nó Central ("json" ou "binary"); a entrada aceita os dois
+    private static final WireFormat CENTRAL_LINK_FORMAT = WireFormat.fromProperty("borda.link.format");
+    // Estatísticas por brinco usadas na detecção de anomalias
+    private static final AnomalyDetector DETECTOR = new AnomalyDetector();
+    // Leitura reaproveitada por cada thread de conexão, para não alocar uma por mensagem
+    private static final ThreadLocal<Leitura> LEITURA_LOCAL = ThreadLocal.withInitial(Leitura::new);
+
+    private static final int METRICS_PORT = 12350; // Endpoint local de métricas (-Dmetricas.porta)
+    private static final LatencyHistogram GATEWAY_TO_BORDA_MS = Metrics.histogram("latencia_gateway_ate_borda_ms");
+    private static final LatencyHistogram BRINCO_TO_BORDA_MS = Metrics.histogram("latencia_brinco_ate_borda_ms");
+    private static final LatencyHistogram PROCESSING_US = Metrics.histogram("processamento_borda_us");
+    private static final LongAdder INVALID_RECORDS = Metrics.counter("registros_invalidos");
+    // Mensagens por leitura (-Dlog.leituras.por.segundo); os alertas têm limite próprio para não serem abafados
+    private static final Log.Limiter READING_LOG = Log.limiter();
+    private static final Log.Limiter ALERT_LOG = Log.limiter();
 
     public static void main(String[] args) {
-        if (args.length < 2) {
-            System.out.println("Uso: java -jar Borda-1.0-SNAPSHOT-jar-with-dependencies.jar <IP_NOCENTRAL> <PORTA_NOCENTRAL>");
+        String centraisFile = System.getProperty("borda.centrais");
+        if (args.length < 2 && centraisFile == null) {
+            Log.info("Uso: java -jar Borda-1.0-SNAPSHOT-jar-with-dependencies.jar <IP_NOCENTRAL> <PORTA_NOCENTRAL> (ou -Dborda.centrais=<arquivo com um host:porta por linha>)");
             return;
         }
 
-        CENTRAL_NODE_IP = args[0];
-        CENTRAL_NODE_TCP_PORT = Integer.parseInt(args[1]);
-
+        Metrics.start("Nó de Borda", METRICS_PORT);
+        if (!startCentralRouting(args, centraisFile)) {
+            return;
+        }
         startBordaServer();
-        startCentralNodeDispatcher();
+        startMissingTagMonitor();
         try {
             Thread.currentThread().join();
         } catch (InterruptedException e) {
-            System.err.println("Nó de Borda main thread interrupted.");
+            Log.error("Nó de Borda main thread interrupted.");
             Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Modo embutido (ver EmbeddedPipeline, no módulo Benchmarks): as leituras chegam do
+     * Gateway e seguem para um único Nó Central pelos enlaces em memória.
+     */
+    static void startEmbedded(MemoryLink fromGateway, Transport toCentral) throws InterruptedException {
+        CENTRALS = newCentralRouter(false);
+        CENTRALS.setTransports(node -> toCentral);
+        CENTRALS.reload(List.of("memoria"));
+        fromGateway.startReceiver(Borda::processAndForwardData);
+        startMissingTagMonitor();
+    }
+
     private static void startBordaServer() {
+        if (!"blocking".equalsIgnoreCase(TCP_MODE)) {
+            startNioBordaServer();
+            return;
+        }
+        Metrics.gauge("conexoes_abertas", OPEN_CONNECTIONS::get);
+        LongAdder refused = Metrics.counter("conexoes_recusadas");
         new Thread(() -> {
             try (ServerSocket serverSocket = new ServerSocket(BORDA_NODE_TCP_PORT)) {
-                System.out.println("Nó de Borda ouvindo em TCP Porta " + BORDA_NODE_TCP_PORT + " para Gateways.");
-                System.out.println("Conectando-se ao Nó Central em " + CENTRAL_NODE_IP + ":" + CENTRAL_NODE_TCP_PORT);
+                Log.info("Nó de Borda ouvindo em TCP Porta {} para Gateways (até {} conexões).", BORDA_NODE_TCP_PORT, MAX_CONNECTIONS);
                 while (true) {
                     Socket clientSocket = serverSocket.accept();
+                    if (OPEN_CONNECTIONS.get() >= MAX_CONNECTIONS) {
+                        refused.increment();
+                        Log.warn("Nó de Borda: conexão de {} recusada; limite de {} conexões atingido.",
+                                clientSocket.getInetAddress().getHostAddress(), MAX_CONNECTIONS);
+                        clientSocket.close();
+                        continue;
+                    }
+                    OPEN_CONNECTIONS.incrementAndGet();
                     clientHandlerPool.submit(() -> handleGatewayConnection(clientSocket));
                 }
             } catch (IOException e) {
-                System.err.println("Erro no servidor do Nó de Borda: " + e.getMessage());
-                e.printStackTrace();
+                Log.error("Erro no servidor do Nó de Borda: {}", e.getMessage(), e);
             } finally {
                 clientHandlerPool.shutdown();
             }
         }).start();
     }
 
+    private static void startNioBordaServer() {
+        NioInboundServer server = new NioInboundServer("Nó de Borda", "Gateway", BORDA_NODE_TCP_PORT,
+                Integer.getInteger("borda.tcp.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("borda.tcp.max.conexoes", 10_000),
+                TimeUnit.SECONDS.toMillis(Long.getLong("borda.tcp.ocioso.segundos", 300)),
+                Borda::processAndForwardData);
+        try {
+            server.start();
+        } catch (IOException e) {
+            Log.error("Erro ao iniciar o servidor (nio) do Nó de Borda: {}", e.getMessage(), e);
+        }
+    }
+
     private static void handleGatewayConnection(Socket clientSocket) {
         String clientAddress = clientSocket.getInetAddress().getHostAddress();
-        System.out.println("Nó de Borda: Conexão recebida do Gateway " + clientAddress);
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()))) {
-            String line;
-            while ((line = in.readLine()) != null) {
-                processAndForwardData(line);
-            }
+        Log.info("Nó de Borda: Conexão recebida do Gateway {}", clientAddress);
+        try {
+            // Sem tráfego por IDLE_TIMEOUT_MS a leitura falha e a conexão é encerrada; o Gateway reconecta no envio seguinte
+            clientSocket.setSoTimeout((int) Math.min(IDLE_TIMEOUT_MS, Integer.MAX_VALUE));
+            // Cada lote é confirmado ao Gateway depois que todas as suas leituras foram enfileiradas para o Nó Central
+            InboundConnection.pump(clientSocket.getInputStream(), clientSocket.getOutputStream(), Borda::processAndForwardData,
+                    clientAddress);
+        } catch (SocketTimeoutException e) {
+            Metrics.counter("conexoes_ociosas_encerradas").increment();
+            Log.info("Nó de Borda: Conexão com o Gateway {} sem tráfego por {} s; encerrando.", clientAddress, IDLE_TIMEOUT_MS / 1000);
         } catch (IOException e) {
-            System.err.println("Erro ao lidar com a conexão do Gateway " + clientAddress + ": " + e.getMessage());
+            Log.error("Erro ao lidar com a conexão do Gateway {}: {}", clientAddress, e.getMessage());
         } finally {
+            OPEN_CONNECTIONS.decrementAndGet();
             try {
                 clientSocket.close();
             } catch (IOException e) {
-                System.err.println("Erro ao fechar o socket do Gateway: " + e.getMessage());
+                Log.error("Erro ao fechar o socket do Gateway: {}", e.getMessage());
             }
-            System.out.println("Nó de Borda: Conexão com o Gateway " + clientAddress + " fechada.");
+            Log.info("Nó de Borda: Conexão com o Gateway {} fechada.", clientAddress);
         }
     }
 
-    private static void processAndForwardData(String dataString) {
+    private static void processAndForwardData(byte[] buf, int off, int len) {
+        Leitura data = LEITURA_LOCAL.get();
         try {
-            JSONObject data = new JSONObject(dataString);
-            String brincoId = data.optString("brinco_id", "N/A");
-            String temperaturaStr = data.optString("temperatura", "0.0");
-            double temperatura = Double.parseDouble(temperaturaStr.replace(',', '.'));
-
-            boolean alertaFebre = false;
-            if (temperatura > 39.5) {
-                System.out.println("ALERTA DO NÓ DE BORDA! Brinco " + brincoId + ": Temperatura alta (" + temperatura + "°C).");
-                alertaFebre = true;
+            long start = System.nanoTime();
+            WireFormat.decode(buf, off, len, data);
+            long now = System.currentTimeMillis();
+            enrich(data, now);
+            byte[] encoded = CENTRAL_LINK_FORMAT.encode(data);
+            PROCESSING_US.record((System.nanoTime() - start) / 1000);
+            BRINCO_TO_BORDA_MS.record(now - data.getTimestamp());
+            if (data.getProcessedAtGatewayMs() != 0) {
+                GATEWAY_TO_BORDA_MS.record(now - data.getProcessedAtGatewayMs());
             }
-            data.put("alerta_febre", alertaFebre);
-            data.put("processed_at_borda_ms", System.currentTimeMillis());
 
-            dataQueueToCentral.put(data.toString());
-            System.out.println("Nó de Borda processou e enfileirou dados do brinco " + brincoId + " para o Nó Central.");
+            boolean queued = CENTRALS.route(encoded, data.brincoKey(), data.hasFlag(PRIORITY_FLAGS));
+            if (READING_LOG.allow()) {
+                Log.info(queued ? "Nó de Borda processou e enfileirou dados do brinco {} para o Nó Central."
+                        : "Nó de Borda descartou dados do brinco {}: fila cheia.", data.getBrincoId());
+            }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            System.err.println("Processamento e encaminhamento interrompidos.");
+            Log.error("Processamento e encaminhamento interrompidos.");
         } catch (Exception e) {
-            System.err.println("Erro ao processar dados no Nó de Borda: " + e.getMessage() + ". Dados: " + dataString);
+            INVALID_RECORDS.increment();
+            Log.error("Erro ao processar dados no Nó de Borda: {}. Dados: {}",
+                    e.getMessage(), new String(buf, off, len, StandardCharsets.UTF_8));
         }
     }
 
-    private static void startCentralNodeDispatcher() {
-        new Thread(() -> {
+    /**
+     * Avalia as regras de anomalia para a leitura já decodificada e grava os alertas nas flags.
+     * @param now Instante de chegada da leitura no Nó de Borda.
+     */
+    static void enrich(Leitura data, long now) {
+        float temperatura = data.getTemperatura();
+
+        int alertas = DETECTOR.evaluate(data, now);
+        if ((alertas & AnomalyDetector.ALERTA_FEBRE) != 0 && ALERT_LOG.allow()) {
+            Log.info("ALERTA DO NÓ DE BORDA! Brinco {}: Temperatura alta ({}°C).", data.getBrincoId(), temperatura);
+        }
+        if ((alertas & AnomalyDetector.ALERTA_DERIVA) != 0 && ALERT_LOG.allow()) {
+            Log.info("ALERTA DO NÓ DE BORDA! Brinco {}: Temperatura subindo acima do normal do animal ({}°C).",
+                    data.getBrincoId(), temperatura);
+        }
+        if ((alertas & AnomalyDetector.ALERTA_INATIVIDADE) != 0 && ALERT_LOG.allow()) {
+            Log.info("ALERTA DO NÓ DE BORDA! Brinco {}: Inatividade prolongada.", data.getBrincoId());
+        }
+        if ((alertas & AnomalyDetector.ALERTA_AGITACAO) != 0 && ALERT_LOG.allow()) {
+            Log.info("ALERTA DO NÓ DE BORDA! Brinco {}: Troca de atividade acima do normal.", data.getBrincoId());
+        }
+        data.setFlag(Leitura.FLAG_ALERTA_FEBRE, (alertas & AnomalyDetector.ALERTA_FEBRE) != 0);
+        data.setFlag(Leitura.FLAG_ALERTA_DERIVA, (alertas & AnomalyDetector.ALERTA_DERIVA) != 0);
+        data.setFlag(Leitura.FLAG_ALERTA_INATIVIDADE, (alertas & AnomalyDetector.ALERTA_INATIVIDADE) != 0);
+        data.setProcessedAtBordaMs(now);
+    }
+
+    /**
+     * Verifica periodicamente os brincos que pararam de enviar leituras.
+     */
+    private static void startMissingTagMonitor() {
+        Metrics.gauge("brincos_monitorados", DETECTOR::size);
+        Thread monitor = new Thread(() -> {
+            long interval = Math.max(1000, Math.min(60_000, DETECTOR.missingTimeoutMs() / 2));
             while (true) {
                 try {
-                    String dataToSend = dataQueueToCentral.take();
-                    sendDataToCentralNode(dataToSend);
+                    TimeUnit.MILLISECONDS.sleep(interval);
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
-                    System.err.println("Despachante para Nó Central interrompido.");
                     break;
-                } catch (Exception e) {
-                    System.err.println("Erro no despachante para Nó Central: " + e.getMessage());
+                }
+                for (String brincoId : DETECTOR.collectMissing(System.currentTimeMillis())) {
+                    Log.info("ALERTA DO NÓ DE BORDA! Brinco {}: Sem leituras há mais de {} minutos.",
+                            brincoId, TimeUnit.MILLISECONDS.toMinutes(DETECTOR.missingTimeoutMs()));
                 }
             }
-        }).start();
+        }, "monitor-ausencia");
+        monitor.setDaemon(true);
+        monitor.start();
     }
 
-    private static void sendDataToCentralNode(String data) {
-        int maxRetries = 5;
-        int currentRetry = 0;
-        boolean sent = false;
-
-        while (!sent && currentRetry < maxRetries) {
-            try (Socket centralSocket = new Socket(CENTRAL_NODE_IP, CENTRAL_NODE_TCP_PORT)) {
-                centralSocket.setSoTimeout(5000);
-                OutputStream os = centralSocket.getOutputStream();
-                os.write((data + "\n").getBytes());
-                os.flush();
-                System.out.println("Nó de Borda enviou dados para o Nó Central (via " + CENTRAL_NODE_IP + ":" + CENTRAL_NODE_TCP_PORT + "): " + data);
-                sent = true;
-            } catch (IOException e) {
-                currentRetry++;
-                System.err.println("Erro ao conectar ou enviar para o Nó Central (retentativa " + currentRetry + "/" + maxRetries + "): " + e.getMessage());
-                try {
-                    TimeUnit.SECONDS.sleep(2 * currentRetry);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    System.err.println("Retentativa para Nó Central interrompida.");
-                    break;
-                }
+    /**
+     * Configura o encaminhamento para os Nós Centrais: os da lista em -Dborda.centrais (relida
+     * quando o arquivo muda) ou o único informado na linha de comando.
+     * @return false se a configuração não pôde ser lida.
+     */
+    private static boolean startCentralRouting(String[] args, String centraisFile) {
+        CENTRALS = newCentralRouter(centraisFile != null);
+        try {
+            if (centraisFile == null) {
+                CENTRALS.reload(List.of(args[0] + ":" + Integer.parseInt(args[1])));
+                return true;
             }
+            Path file = Path.of(centraisFile);
+            CENTRALS.reload(CentralRouter.readNodes(file));
+            if (CENTRALS.size() == 0) {
+                Log.error("Nenhum Nó Central em {}.", file);
+                return false;
+            }
+            CENTRALS.watch(file, TimeUnit.SECONDS.toMillis(Long.getLong("borda.centrais.recarga.segundos", 5)));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.error("Erro ao configurar os Nós Centrais: {}", e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
-        if (!sent) {
-            System.err.println("Falha ao enviar dados para o Nó Central após " + maxRetries + " retentativas: " + data);
-        }
+    }
+
+    private static CentralRouter newCentralRouter(boolean sharded) {
+        // Cada fila é limitada em bytes; por padrão descarta as leituras comuns mais antigas quando enche
+        // (-Dborda.fila.politica). Bloquear seguraria o ACK do lote além do prazo de leitura do Gateway,
+        // que reenviaria o lote já enfileirado em parte (leituras duplicadas no Nó Central), e no modo nio
+        // pararia todas as conexões do seletor.
+        return new CentralRouter(CENTRAL_LINK_FORMAT,
+                Integer.getInteger("borda.batch.max", UpstreamConnection.DEFAULT_MAX_BATCH),
+                Long.getLong("borda.fila.bytes", 1024 * 1024),
+                OverloadQueue.Policy.fromProperty("borda.fila.politica", OverloadQueue.Policy.DESCARTAR_ANTIGAS),
+                sharded);
     }
 }
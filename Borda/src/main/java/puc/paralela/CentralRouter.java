@@ -0,0 +1,298 @@
+package puc.paralela;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import puc.paralela.codec.Leitura;
+import puc.paralela.codec.WireFormat;
+import puc.paralela.comum.Log;
+import puc.paralela.comum.Metrics;
+import puc.paralela.comum.OverloadQueue;
+import puc.paralela.comum.Transport;
+import puc.paralela.comum.UpstreamConnection;
+
+/**
+ * Encaminha as leituras do Nó de Borda para um ou mais Nós Centrais. Com vários
+ * Nós Centrais, cada brinco é atribuído a um deles por um {@link ConsistentHashRing};
+ * cada Nó Central tem a sua fila, o seu despachante e a sua conexão, então todas as
+ * leituras de um brinco seguem, em ordem, pelo mesmo caminho.
+ *
+ * A lista de Nós Centrais vem de um arquivo (-Dborda.centrais, uma linha "host:porta"
+ * por nó, # para comentários), relido quando é modificado. Ao remover um nó, as
+ * leituras ainda na fila dele são redistribuídas para os novos donos; as que estiverem
+ * no spool dele ficam no disco e são reenviadas se o nó voltar à lista.
+ *
+ * A troca do anel é feita com a trava de escrita, que só dura a troca; encerrar os
+ * despachantes dos nós removidos e redistribuir as suas filas é feito depois, sem
+ * parar o encaminhamento. Por isso, durante uma troca, leituras antigas de um brinco
+ * que mudou de dono podem chegar ao novo Nó Central depois das mais novas.
+ *
+ * O encaminhamento só escolhe o nó com a trava de leitura e enfileira depois de soltá-la:
+ * com a política BLOQUEAR o enfileiramento pode esperar indefinidamente pela fila de um
+ * Nó Central fora do ar, e uma troca esperando a trava de escrita pararia as demais
+ * leituras. Uma leitura que entra na fila de um nó já removido é redistribuída por
+ * quem a enfileirou.
+ */
+class CentralRouter {
+
+    private static final class Shard {
+        final String node;
+        final String destino;
+        final OverloadQueue queue;
+        final Thread dispatcher;
+        // O despachante terminou e a fila vai ser (ou foi) redistribuída; o que entrar nela depois
+        // é redistribuído por quem enfileirou
+        volatile boolean closed;
+
+        Shard(String node, String destino, OverloadQueue queue, Thread dispatcher) {
+            this.node = node;
+            this.destino = destino;
+            this.queue = queue;
+            this.dispatcher = dispatcher;
+        }
+    }
+
+    private static final long JOIN_WARNING_MS = TimeUnit.SECONDS.toMillis(15);
+
+    private final WireFormat format;
+    private final int maxBatchSize;
+    private final long queueBytes;
+    private final OverloadQueue.Policy queuePolicy;
+    private final boolean sharded;
+    private final int virtualNodes = Integer.getInteger("borda.centrais.vnos", 128);
+    private Function<String, Transport> transports; // null: conexões TCP ("host:porta")
+
+    // Leitores: threads que enfileiram leituras. Escritor: a troca da lista de nós.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private ConsistentHashRing ring;
+    private Map<String, Shard> shards = new HashMap<>();
+    // Uma recarga de cada vez: um nó removido e readicionado só volta depois que o despachante antigo
+    // terminou e fechou o spool
+    private final Object reloadLock = new Object();
+
+    private final LongAdder redistributed = Metrics.counter("centrais_redistribuidos");
+
+    /**
+     * @param sharded false para um único Nó Central informado na linha de comando, com os nomes
+     *                de métricas e de spool de antes ("Nó Central").
+     */
+    CentralRouter(WireFormat format, int maxBatchSize, long queueBytes, OverloadQueue.Policy queuePolicy, boolean sharded) {
+        this.format = format;
+        this.maxBatchSize = maxBatchSize;
+        this.queueBytes = queueBytes;
+        this.queuePolicy = queuePolicy;
+        this.sharded = sharded;
+        Metrics.gauge("centrais", this::size);
+    }
+
+    /**
+     * Troca as conexões TCP por outro transporte (o enlace em memória do modo embutido),
+     * escolhido pelo nome do nó. Deve ser chamado antes do primeiro {@link #reload}.
+     */
+    void setTransports(Function<String, Transport> transports) {
+        this.transports = transports;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return shards.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Enfileira a leitura para o Nó Central responsável pelo brinco.
+     * @return false se a política da fila descartou a leitura.
+     */
+    boolean route(byte[] record, long key, boolean priority) throws InterruptedException {
+        Shard shard;
+        lock.readLock().lockInterruptibly();
+        try {
+            shard = shards.get(ring.owner(key));
+        } finally {
+            lock.readLock().unlock();
+        }
+        boolean queued = shard.queue.enqueue(record, key, priority);
+        if (shard.closed) {
+            // O nó foi removido e a sua fila pode já ter sido redistribuída pela troca
+            redistribute(shard);
+        }
+        return queued;
+    }
+
+    /**
+     * Troca a lista de Nós Centrais ("host:porta"), criando os despachantes dos nós novos
+     * e encerrando os dos removidos. Uma lista vazia é ignorada.
+     */
+    void reload(List<String> nodes) throws InterruptedException {
+        if (nodes.isEmpty()) {
+            Log.warn("Nó de Borda: lista de Nós Centrais vazia; mantendo a atual.");
+            return;
+        }
+        synchronized (reloadLock) {
+            swap(nodes);
+        }
+    }
+
+    private void swap(List<String> nodes) throws InterruptedException {
+        List<String> added = new ArrayList<>();
+        List<Shard> removed = new ArrayList<>();
+        lock.writeLock().lockInterruptibly();
+        try {
+            Map<String, Shard> next = new HashMap<>();
+            for (String node : nodes) {
+                Shard shard = shards.get(node);
+                if (shard == null) {
+                    shard = startShard(node);
+                    added.add(node);
+                }
+                next.put(node, shard);
+            }
+            for (Shard shard : shards.values()) {
+                if (!next.containsKey(shard.node)) {
+                    removed.add(shard);
+                }
+            }
+            shards = next;
+            ring = ConsistentHashRing.of(nodes, virtualNodes);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // Depois da troca nenhuma leitura nova entra nas filas dos nós removidos
+        for (Shard shard : removed) {
+            shard.dispatcher.interrupt();
+        }
+        for (Shard shard : removed) {
+            shard.dispatcher.join(JOIN_WARNING_MS);
+            while (shard.dispatcher.isAlive()) {
+                Log.warn("Nó de Borda: esperando o despachante do Nó Central {} terminar.", shard.node);
+                shard.dispatcher.join(JOIN_WARNING_MS);
+            }
+            shard.closed = true;
+            redistribute(shard);
+            if (sharded) {
+                String slug = Metrics.slug(shard.destino);
+                Metrics.removeGauges("fila_" + slug + "_");
+                Metrics.removeGauges("envio_" + slug + "_");
+                Metrics.removeGauges("spool_" + slug + "_");
+            }
+        }
+        Log.info("Nó de Borda: encaminhando para {} Nó(s) Central(is) {}{}{}.", nodes.size(), nodes,
+                added.isEmpty() ? "" : "; adicionados: " + added,
+                removed.isEmpty() ? "" : "; removidos: " + removed.stream().map(s -> s.node).toList());
+    }
+
+    private Shard startShard(String node) {
+        String destino = sharded ? "Nó Central " + node : "Nó Central";
+        OverloadQueue queue = new OverloadQueue(destino, queueBytes, queuePolicy);
+        if (transports != null) {
+            return new Shard(node, destino, queue, transports.apply(node).startDispatcher(queue));
+        }
+        int colon = node.lastIndexOf(':');
+        String host = node.substring(0, colon);
+        int port = Integer.parseInt(node.substring(colon + 1));
+        UpstreamConnection connection = new UpstreamConnection("Nó de Borda", destino, host, port, maxBatchSize, format);
+        connection.configureSpool("borda");
+        connection.configureBatching("borda");
+        return new Shard(node, destino, queue, connection.startDispatcher(queue));
+    }
+
+    /**
+     * Reenfileira para os novos donos as leituras que ficaram na fila de um nó removido.
+     * Chamado pela troca, sem a trava de escrita, e por {@link #route} quando a leitura
+     * entrou na fila depois disso.
+     */
+    private void redistribute(Shard shard) throws InterruptedException {
+        List<byte[]> left = new ArrayList<>();
+        shard.queue.drainTo(left);
+        Leitura scratch = new Leitura();
+        for (byte[] record : left) {
+            long key = OverloadQueue.NO_KEY;
+            boolean priority = false;
+            try {
+                WireFormat.decode(record, 0, record.length, scratch);
+                key = scratch.brincoKey();
+                priority = scratch.hasFlag(Borda.PRIORITY_FLAGS);
+            } catch (RuntimeException e) {
+                // Segue sem chave; o Nó Central vai rejeitá-la como antes
+            }
+            route(record, key, priority);
+        }
+        redistributed.add(left.size());
+        if (!left.isEmpty()) {
+            Log.info("Nó de Borda: {} leituras da fila do Nó Central {} redistribuídas.", left.size(), shard.node);
+        }
+    }
+
+    /**
+     * Lê a lista de Nós Centrais: uma linha "host:porta" por nó; linhas vazias e comentários (#) são ignorados.
+     */
+    static List<String> readNodes(Path file) throws IOException {
+        LinkedHashSet<String> nodes = new LinkedHashSet<>();
+        for (String line : Files.readAllLines(file)) {
+            int comment = line.indexOf('#');
+            String node = (comment >= 0 ? line.substring(0, comment) : line).trim();
+            if (node.isEmpty()) {
+                continue;
+            }
+            int colon = node.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IOException("Nó Central inválido em " + file + ": " + node);
+            }
+            try {
+                Integer.parseInt(node.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IOException("Porta inválida em " + file + ": " + node);
+            }
+            nodes.add(node);
+        }
+        return new ArrayList<>(nodes);
+    }
+
+    /**
+     * Inicia uma thread que relê o arquivo quando a data de modificação muda.
+     */
+    void watch(Path file, long intervalMs) {
+        Thread watcher = new Thread(() -> {
+            FileTime seen = lastModified(file);
+            while (true) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(intervalMs);
+                    FileTime current = lastModified(file);
+                    if (current == null || current.equals(seen)) {
+                        continue;
+                    }
+                    seen = current;
+                    reload(readNodes(file));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (IOException | RuntimeException e) {
+                    Log.error("Erro ao recarregar os Nós Centrais de {}: {}", file, e.getMessage());
+                }
+            }
+        }, "recarga-centrais");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package puc.paralela;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Anel de hash consistente que distribui os brincos entre os Nós Centrais. Cada nó
+ * ocupa {@code virtualNodes} pontos do anel, e um brinco pertence ao primeiro ponto
+ * depois do hash da sua chave; assim, ao adicionar ou remover um nó, só mudam de dono
+ * os brincos dos trechos do anel que ele ganhou ou perdeu (cerca de 1/N deles).
+ *
+ * Imutável: uma mudança na lista de nós cria um anel novo.
+ */
+final class ConsistentHashRing {
+    private final String[] nodes;
+    private final long[] points;  // Posições no anel, em ordem crescente
+    private final int[] owners;   // Índice em nodes do dono de cada posição
+
+    private ConsistentHashRing(String[] nodes, long[] points, int[] owners) {
+        this.nodes = nodes;
+        this.points = points;
+        this.owners = owners;
+    }
+
+    static ConsistentHashRing of(List<String> nodes, int virtualNodes) {
+        Map<Long, Integer> ring = new TreeMap<>();
+        for (int n = 0; n < nodes.size(); n++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                // Numa colisão (improvável) o ponto fica com o primeiro nó, o que não depende da ordem de chegada dos demais
+                ring.putIfAbsent(mix(fnv(nodes.get(n) + "#" + v)), n);
+            }
+        }
+        long[] points = new long[ring.size()];
+        int[] owners = new int[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> entry : ring.entrySet()) {
+            points[i] = entry.getKey();
+            owners[i++] = entry.getValue();
+        }
+        return new ConsistentHashRing(nodes.toArray(new String[0]), points, owners);
+    }
+
+    /**
+     * Nó responsável pela chave ({@code Leitura.brincoKey()}).
+     */
+    String owner(long key) {
+        long hash = mix(key);
+        int lo = 0;
+        int hi = points.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (points[mid] < hash) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return nodes[owners[lo == points.length ? 0 : lo]];
+    }
+
+    private static long fnv(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Finalizador do SplitMix64: espalha chaves parecidas (como ids sequenciais) pelo anel.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
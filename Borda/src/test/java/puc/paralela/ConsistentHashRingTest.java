@@ -0,0 +1,93 @@
+package puc.paralela;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import puc.paralela.codec.Leitura;
+
+public class ConsistentHashRingTest {
+    private static final int VIRTUAL_NODES = 128;
+    private static final int KEYS = 30_000;
+    private static final long[] BRINCOS = brincoKeys();
+
+    private static long[] brincoKeys() {
+        Leitura leitura = new Leitura();
+        long[] keys = new long[KEYS];
+        for (int n = 0; n < KEYS; n++) {
+            leitura.setBrincoId(String.format("BRINCO-%05d", n));
+            keys[n] = leitura.brincoKey();
+        }
+        return keys;
+    }
+
+    private static ConsistentHashRing ring(String... nodes) {
+        return ConsistentHashRing.of(Arrays.asList(nodes), VIRTUAL_NODES);
+    }
+
+    private static String[] owners(ConsistentHashRing ring) {
+        String[] owners = new String[KEYS];
+        for (int n = 0; n < KEYS; n++) {
+            owners[n] = ring.owner(BRINCOS[n]);
+        }
+        return owners;
+    }
+
+    private static Map<String, Integer> counts(String[] owners) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String owner : owners) {
+            counts.merge(owner, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    @Test
+    public void spreadsTagsAcrossNodes() {
+        Map<String, Integer> counts = counts(owners(ring("central-a:12345", "central-b:12345", "central-c:12345")));
+        assertEquals(3, counts.size());
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            double share = entry.getValue() / (double) KEYS;
+            assertTrue(entry.getKey() + " com " + share, share > 0.25 && share < 0.42);
+        }
+    }
+
+    @Test
+    public void addingANodeOnlyMovesTagsToIt() {
+        String[] before = owners(ring("central-a:12345", "central-b:12345", "central-c:12345"));
+        String[] after = owners(ring("central-a:12345", "central-b:12345", "central-c:12345", "central-d:12345"));
+        int moved = 0;
+        for (int n = 0; n < KEYS; n++) {
+            if (!before[n].equals(after[n])) {
+                assertEquals("central-d:12345", after[n]);
+                moved++;
+            }
+        }
+        // Cerca de 1/4 dos brincos passa para o nó novo
+        double share = moved / (double) KEYS;
+        assertTrue("movidos " + share, share > 0.15 && share < 0.35);
+    }
+
+    @Test
+    public void removingANodeOnlyMovesItsTags() {
+        String[] before = owners(ring("central-a:12345", "central-b:12345", "central-c:12345"));
+        String[] after = owners(ring("central-a:12345", "central-c:12345"));
+        for (int n = 0; n < KEYS; n++) {
+            if (before[n].equals("central-b:12345")) {
+                assertTrue(after[n], List.of("central-a:12345", "central-c:12345").contains(after[n]));
+            } else {
+                assertEquals(before[n], after[n]);
+            }
+        }
+    }
+
+    @Test
+    public void singleNodeOwnsEveryTag() {
+        ConsistentHashRing ring = ring("central-a:12345");
+        assertEquals(KEYS, (int) counts(owners(ring)).get("central-a:12345"));
+        assertEquals("central-a:12345", ring.owner(Long.MAX_VALUE)); // Depois do último ponto, volta ao primeiro
+    }
+}
@@ -4,39 +4,61 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
-import org.json.JSONObject;
+import puc.paralela.codec.Atividade;
+import puc.paralela.codec.BinaryCodec;
+import puc.paralela.codec.Leitura;
+import puc.paralela.codec.WireFormat;
+import puc.paralela.comum.Log;
 
 class Brinco{
     private static String GATEWAY_IP;      // Definido via argumento de linha de comando
     private static int GATEWAY_PORT;     // Definido via argumento de linha de comando
 
+    // Formato dos datagramas enviados ao Gateway ("json" ou "binary")
+    private static final WireFormat FORMAT = WireFormat.fromProperty("brinco.format");
+    private static final Log.Limiter SEND_LOG = Log.limiter(); // Mensagens por envio (-Dlog.leituras.por.segundo)
+
     private String brincoId;
     private Random random = new Random();
 
     // Constantes de limite da fazenda (replicadas do Nó Central para lógica de geração)
     // Usadas para calcular coordenadas que garantam que o brinco esteja fora ou dentro
-    private static final double FARM_CENTER_LAT = -19.92;
-    private static final double FARM_CENTER_LON = -43.93;
-    private static final double MAX_LAT_DEVIATION = 0.0008; // Desvio máximo em latitude (graus)
-    private static final double MAX_LON_DEVIATION = 0.0008; // Desvio máximo em longitude (graus)
+    static final double FARM_CENTER_LAT = -19.92;
+    static final double FARM_CENTER_LON = -43.93;
+    static final double MAX_LAT_DEVIATION = 0.0008; // Desvio máximo em latitude (graus)
+    static final double MAX_LON_DEVIATION = 0.0008; // Desvio máximo em longitude (graus)
 
     public Brinco(String id) {
         this.brincoId = id;
     }
 
-    private JSONObject generateBrincoData() {
+    private Leitura generateBrincoData() {
+        Leitura data = new Leitura();
+        if (fillBrincoData(data) && SEND_LOG.allow()) {
+            Log.info("Brinco {} (SIMULANDO FUGA): Gerando coordenadas FORA da fazenda.", brincoId);
+        }
+        return data;
+    }
+
+    /**
+     * Preenche a leitura com dados simulados.
+     * @return true se foi gerada uma localização fora da fazenda.
+     */
+    boolean fillBrincoData(Leitura data) {
         double latitude;
         double longitude;
         
         // 10% de chance de gerar uma localização fora da fazenda para teste
-        if (random.nextDouble() < 0.10) { 
+        boolean fuga = random.nextDouble() < 0.10;
+        if (fuga) { 
             // Gera uma localização claramente fora dos limites
             latitude = FARM_CENTER_LAT + (random.nextBoolean() ? 1 : -1) * (MAX_LAT_DEVIATION + 0.0005 + random.nextDouble() * 0.001);
             longitude = FARM_CENTER_LON + (random.nextBoolean() ? 1 : -1) * (MAX_LON_DEVIATION + 0.0005 + random.nextDouble() * 0.001);
-            System.out.println("Brinco " + brincoId + " (SIMULANDO FUGA): Gerando coordenadas FORA da fazenda.");
         } else {
             // Gera uma localização dentro dos limites normais de variação, mas garantindo que seja dentro da fazenda
             latitude = FARM_CENTER_LAT + (random.nextDouble() * (2 * MAX_LAT_DEVIATION) - MAX_LAT_DEVIATION);
@@ -44,56 +66,78 @@ class Brinco{
         }
 
         double temperatura = 38.0 + (random.nextDouble() * 2.0 - 1.0);
-        String[] atividades = {"pastando", "descansando", "andando", "correndo"};
-        String atividade = atividades[random.nextInt(atividades.length)];
+        Atividade[] atividades = {Atividade.PASTANDO, Atividade.DESCANSANDO, Atividade.ANDANDO, Atividade.CORRENDO};
+        Atividade atividade = atividades[random.nextInt(atividades.length)];
 
-        JSONObject data = new JSONObject();
-        data.put("brinco_id", this.brincoId);
-        data.put("timestamp", System.currentTimeMillis());
+        data.clear();
+        data.setBrincoId(this.brincoId);
+        data.setTimestamp(System.currentTimeMillis());
+        data.setLocalizacao(latitude, longitude);
+        data.setTemperatura((float) temperatura);
+        data.setAtividade(atividade);
         
-        JSONObject localizacao = new JSONObject();
-        localizacao.put("lat", latitude);
-        localizacao.put("lon", longitude);
-        data.put("localizacao", localizacao);
-        
-        data.put("temperatura", String.format("%.2f", temperatura));
-        data.put("atividade", atividade);
-        
-        return data;
+        return fuga;
     }
 
-    private void sendDataToGateway(JSONObject data) {
+    private void sendDataToGateway(Leitura data) {
         try (DatagramSocket socket = new DatagramSocket()) {
             InetAddress address = InetAddress.getByName(GATEWAY_IP);
-            byte[] buffer = data.toString().getBytes();
+            byte[] buffer = FORMAT.encode(data);
             DatagramPacket packet = new DatagramPacket(buffer, buffer.length, address, GATEWAY_PORT);
             socket.send(packet);
-            System.out.println("Brinco " + brincoId + " enviou dados para o gateway: " + data.toString());
+            if (Log.isEnabled(Log.Level.DEBUG)) {
+                String conteudo = FORMAT == WireFormat.JSON ? new String(buffer, StandardCharsets.UTF_8) : "(binário, " + buffer.length + " bytes)";
+                Log.debug("Brinco {} enviou dados para o gateway: {}", brincoId, conteudo);
+            } else if (SEND_LOG.allow()) {
+                Log.info("Brinco {} enviou {} bytes para o gateway.", brincoId, buffer.length);
+            }
         } catch (IOException e) {
-            System.err.println("Erro ao enviar dados do brinco " + brincoId + " para " + GATEWAY_IP + ":" + GATEWAY_PORT + ": " + e.getMessage());
+            Log.error("Erro ao enviar dados do brinco {} para {}:{}: {}", brincoId, GATEWAY_IP, GATEWAY_PORT, e.getMessage());
         }
     }
 
     public static void main(String[] args) {
-        if (args.length < 3) {
-            System.out.println("Uso: java -jar Brinco-1.0-SNAPSHOT-jar-with-dependencies.jar <ID_BRINCO> <IP_GATEWAY> <PORTA_GATEWAY>");
+        if (args.length < 3 || ("--frota".equals(args[0]) && args.length < 4)) {
+            Log.info("Uso: java -jar Brinco-1.0-SNAPSHOT-jar-with-dependencies.jar <ID_BRINCO> <IP_GATEWAY> <PORTA_GATEWAY>");
+            Log.info("     java -jar Brinco-1.0-SNAPSHOT-jar-with-dependencies.jar --frota <NUM_BRINCOS> <IP_GATEWAY> <PORTA_GATEWAY>");
+            return;
+        }
+        if ("--frota".equals(args[0])) {
+            try {
+                new BrincoFrota(Integer.parseInt(args[1]), new InetSocketAddress(args[2], Integer.parseInt(args[3])), FORMAT).run();
+            } catch (IllegalArgumentException e) {
+                Log.error("Configuração da frota inválida: {}", e.getMessage());
+            } catch (IOException e) {
+                Log.error("Erro na simulação da frota: {}", e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Log.info("Simulação da frota interrompida.");
+            }
             return;
         }
         String id = args[0];
+        if (FORMAT == WireFormat.BINARY) {
+            try {
+                BinaryCodec.checkBrincoId(id);
+            } catch (IllegalArgumentException e) {
+                Log.error("Id de brinco inválido para -Dbrinco.format=binary: {}", e.getMessage());
+                return;
+            }
+        }
         GATEWAY_IP = args[1];
         GATEWAY_PORT = Integer.parseInt(args[2]);
 
         Brinco brinco = new Brinco(id);
-        System.out.println("Simulando Brinco " + id + ". Conectando-se ao Gateway em " + GATEWAY_IP + ":" + GATEWAY_PORT + ". Pressione Ctrl+C para parar.");
+        Log.info("Simulando Brinco {}. Conectando-se ao Gateway em {}:{}. Pressione Ctrl+C para parar.", id, GATEWAY_IP, GATEWAY_PORT);
 
         while (true) {
-            JSONObject data = brinco.generateBrincoData();
+            Leitura data = brinco.generateBrincoData();
             brinco.sendDataToGateway(data);
             try {
                 TimeUnit.SECONDS.sleep(brinco.random.nextInt(10) + 5);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
-                System.out.println("Simulação do brinco " + id + " interrompida.");
+                Log.info("Simulação do brinco {} interrompida.", id);
                 break;
             }
         }
@@ -0,0 +1,326 @@
+package puc.paralela;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import puc.paralela.codec.Atividade;
+import puc.paralela.codec.BinaryCodec;
+import puc.paralela.codec.Leitura;
+import puc.paralela.codec.WireFormat;
+import puc.paralela.comum.Log;
+import puc.paralela.comum.MemoryLink;
+
+/**
+ * Modo frota do simulador: muitos brincos num único processo, para gerar carga
+ * realista no Gateway.
+ *
+ * Os brincos são divididos entre algumas threads; cada thread tem o seu
+ * DatagramChannel e uma roda de temporização (timing wheel) com ticks de 10 ms,
+ * onde cada brinco fica agendado para o próximo envio. O estado de cada brinco
+ * são só posições em arrays primitivos, então 100 mil brincos cabem folgados no heap.
+ * No modo embutido (EmbeddedPipeline, no módulo Benchmarks) as leituras vão para um
+ * {@link MemoryLink} em vez do socket.
+ *
+ * O gerador de números de cada brinco é derivado da semente e do índice do
+ * brinco, de forma que a mesma semente produz as mesmas leituras e os mesmos
+ * intervalos, independentemente do número de threads.
+ *
+ * Configuração (propriedades de sistema):
+ * <ul>
+ * <li>brinco.frota.threads: threads de envio, cada uma com o seu socket (padrão 4);</li>
+ * <li>brinco.frota.intervalo.min / .max: intervalo entre envios de cada brinco, em ms (padrão 5000 a 15000);</li>
+ * <li>brinco.frota.taxa: taxa total desejada em leituras/s; se informada, substitui os intervalos.
+ *     Cada brinco envia no máximo uma leitura por tick, então a taxa fica limitada a 100 leituras/s por brinco;</li>
+ * <li>brinco.frota.rajada.periodo / .duracao / .fator: a cada período (s), durante a duração (s),
+ *     a roda avança fator vezes mais rápido, dividindo os intervalos de todos os brincos já
+ *     agendados (padrão sem rajadas);</li>
+ * <li>brinco.frota.fuga / brinco.frota.febre: fração das leituras fora da fazenda (padrão 0.10) e com febre (padrão 0);</li>
+ * <li>brinco.frota.semente: semente dos geradores (padrão 42);</li>
+ * <li>brinco.frota.prefixo: prefixo dos ids dos brincos (padrão "FROTA"). No formato binário o id
+ *     (prefixo e número) precisa caber em {@value BinaryCodec#MAX_BRINCO_ID_BYTES} bytes.</li>
+ * </ul>
+ */
+class BrincoFrota {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int WHEEL_BITS = 12; // 4096 ticks = ~41 s por volta
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int REPORT_SECONDS = 5;
+
+    private static final Atividade[] ATIVIDADES = {Atividade.PASTANDO, Atividade.DESCANSANDO, Atividade.ANDANDO, Atividade.CORRENDO};
+
+    private final int count;
+    private final InetSocketAddress gateway;
+    private final MemoryLink link; // Modo embutido; null: UDP para o gateway
+    private final WireFormat format;
+    private final int threads = Integer.getInteger("brinco.frota.threads", 4);
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final long burstPeriodMs = TimeUnit.SECONDS.toMillis(Long.getLong("brinco.frota.rajada.periodo", 0L));
+    private final long burstDurationMs = TimeUnit.SECONDS.toMillis(Long.getLong("brinco.frota.rajada.duracao", 0L));
+    private final double burstFactor = Double.parseDouble(System.getProperty("brinco.frota.rajada.fator", "1"));
+    private final double escapeRatio = Double.parseDouble(System.getProperty("brinco.frota.fuga", "0.10"));
+    private final double feverRatio = Double.parseDouble(System.getProperty("brinco.frota.febre", "0"));
+    private final long seed = Long.getLong("brinco.frota.semente", 42L);
+    private final String prefix = System.getProperty("brinco.frota.prefixo", "FROTA");
+
+    // Estado por brinco; cada thread só acessa as posições dos seus brincos
+    private final int[] rounds; // Voltas da roda que faltam para o próximo envio
+    private final long[] rng;
+    private final String[] ids;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile long startMs;
+
+    BrincoFrota(int count, InetSocketAddress gateway, WireFormat format) {
+        this(count, gateway, null, format);
+    }
+
+    BrincoFrota(int count, MemoryLink link, WireFormat format) {
+        this(count, null, link, format);
+    }
+
+    /**
+     * @throws IllegalArgumentException se o número de brincos for inválido ou, no formato
+     *         binário, se os ids não couberem no frame.
+     */
+    private BrincoFrota(int count, InetSocketAddress gateway, MemoryLink link, WireFormat format) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Número de brincos inválido: " + count);
+        }
+        this.count = count;
+        this.gateway = gateway;
+        this.link = link;
+        this.format = format;
+        this.rounds = new int[count];
+        this.rng = new long[count];
+        this.ids = new String[count];
+        if (format == WireFormat.BINARY) {
+            // O maior id da frota é o do último brinco
+            BinaryCodec.checkBrincoId(id(count - 1));
+        }
+        double rate = Double.parseDouble(System.getProperty("brinco.frota.taxa", "0"));
+        if (rate > 0) {
+            // Intervalo médio que leva à taxa total pedida, com variação de ±50%
+            long mean = Math.max(1, Math.round(count * 1000.0 / rate));
+            minIntervalMs = Math.max(1, mean / 2);
+            maxIntervalMs = Math.max(minIntervalMs, mean + mean / 2);
+        } else {
+            minIntervalMs = Math.max(1, Long.getLong("brinco.frota.intervalo.min", 5000L));
+            maxIntervalMs = Math.max(minIntervalMs, Long.getLong("brinco.frota.intervalo.max", 15000L));
+        }
+        long maxRate = count * (TimeUnit.SECONDS.toNanos(1) / TICK_NANOS);
+        if (rate > maxRate) {
+            Log.warn("brinco.frota.taxa de {} leituras/s acima do máximo de {} leituras/s para {} brincos (um envio por brinco a cada tick de {} ms).",
+                    Math.round(rate), maxRate, count, TimeUnit.NANOSECONDS.toMillis(TICK_NANOS));
+        }
+    }
+
+    private String id(int tag) {
+        return String.format("%s%06d", prefix, tag);
+    }
+
+    void run() throws IOException, InterruptedException {
+        int workers = Math.max(1, Math.min(threads, count));
+        double expectedRate = count * 1000.0 / ((minIntervalMs + maxIntervalMs) / 2.0);
+        Log.info("Frota de {} brincos enviando para {} com {} thread(s); taxa esperada ~{} leituras/s (fora de rajadas). Semente {}.",
+                count, link != null ? "o Gateway embutido" : gateway, workers, Math.round(expectedRate), seed);
+        startMs = System.currentTimeMillis();
+        Thread[] started = new Thread[workers];
+        for (int w = 0; w < workers; w++) {
+            Worker worker = new Worker(w, workers);
+            started[w] = new Thread(worker, "frota-" + w);
+            started[w].start();
+        }
+        startReporter();
+        for (Thread thread : started) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Leituras enviadas até agora.
+     */
+    long sentCount() {
+        return sent.sum();
+    }
+
+    private void startReporter() {
+        Thread reporter = new Thread(() -> {
+            long lastSent = 0;
+            long lastNanos = System.nanoTime();
+            while (true) {
+                try {
+                    TimeUnit.SECONDS.sleep(REPORT_SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long total = sent.sum();
+                long now = System.nanoTime();
+                double rate = (total - lastSent) * 1e9 / (now - lastNanos);
+                Log.info("Frota: {} leituras/s nos últimos {} s{} (total {}, falhas {})",
+                        Math.round(rate), REPORT_SECONDS, inBurst(System.currentTimeMillis()) ? " [rajada]" : "", total, failed.sum());
+                lastSent = total;
+                lastNanos = now;
+            }
+        }, "frota-relatorio");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    private boolean inBurst(long nowMs) {
+        return burstPeriodMs > 0 && burstFactor > 1 && (nowMs - startMs) % burstPeriodMs < burstDurationMs;
+    }
+
+    /**
+     * Thread de envio responsável pelos brincos index % workers == w.
+     */
+    private final class Worker implements Runnable {
+        private final int first;
+        private final int step;
+        private final int[][] slots = new int[WHEEL_SIZE][];
+        private final int[] slotSizes = new int[WHEEL_SIZE];
+        private final Leitura leitura = new Leitura();
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BinaryCodec.FRAME_SIZE);
+        private int[] spare = new int[16];
+        private long tick;
+
+        Worker(int first, int step) {
+            this.first = first;
+            this.step = step;
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                slots[i] = new int[16];
+            }
+        }
+
+        @Override
+        public void run() {
+            try (DatagramChannel channel = link != null ? null : DatagramChannel.open()) {
+                if (channel != null) {
+                    channel.connect(gateway);
+                }
+                for (int tag = first; tag < count; tag += step) {
+                    rng[tag] = seed ^ (tag * 0x9E3779B97F4A7C15L);
+                    ids[tag] = id(tag);
+                    // Primeiro envio espalhado ao longo de um intervalo, para não começar em rajada
+                    schedule(tag, 1 + (long) (nextDouble(tag) * maxIntervalMs / 10));
+                }
+                // A roda anda em ticks virtuais: fora de rajadas, um por tick real; durante uma
+                // rajada, burstFactor por tick real, então todo brinco agendado envia antes
+                long startNanos = System.nanoTime();
+                long realTick = 0;
+                double target = 0;
+                while (!Thread.currentThread().isInterrupted()) {
+                    long now = (System.nanoTime() - startNanos) / TICK_NANOS;
+                    if (now > realTick) {
+                        target += (now - realTick) * (inBurst(System.currentTimeMillis()) ? burstFactor : 1);
+                        realTick = now;
+                    }
+                    while (tick <= target) {
+                        processSlot(channel, (int) (tick & WHEEL_MASK));
+                        tick++;
+                    }
+                    LockSupport.parkNanos(startNanos + (realTick + 1) * TICK_NANOS - System.nanoTime());
+                }
+            } catch (IOException e) {
+                Log.error("Erro no envio da frota (thread {}): {}", first, e.getMessage());
+            }
+        }
+
+        private void processSlot(DatagramChannel channel, int slot) {
+            // A lista do slot é trocada por uma vazia; reagendamentos para o mesmo slot entram na nova lista
+            int[] due = slots[slot];
+            int size = slotSizes[slot];
+            slots[slot] = spare;
+            slotSizes[slot] = 0;
+            for (int i = 0; i < size; i++) {
+                int tag = due[i];
+                if (rounds[tag] > 0) {
+                    rounds[tag]--;
+                    add(slot, tag);
+                    continue;
+                }
+                send(channel, tag);
+                long interval = minIntervalMs + (long) (nextDouble(tag) * (maxIntervalMs - minIntervalMs));
+                schedule(tag, Math.max(1, interval / 10));
+            }
+            spare = due;
+        }
+
+        private void schedule(int tag, long delayTicks) {
+            rounds[tag] = (int) ((delayTicks - 1) >>> WHEEL_BITS);
+            add((int) ((tick + delayTicks) & WHEEL_MASK), tag);
+        }
+
+        private void add(int slot, int tag) {
+            int size = slotSizes[slot];
+            if (size == slots[slot].length) {
+                slots[slot] = Arrays.copyOf(slots[slot], size * 2);
+            }
+            slots[slot][size] = tag;
+            slotSizes[slot] = size + 1;
+        }
+
+        private void send(DatagramChannel channel, int tag) {
+            fill(tag);
+            try {
+                buffer.clear();
+                if (link != null) {
+                    link.send(format.encode(leitura));
+                } else if (format == WireFormat.BINARY) {
+                    BinaryCodec.encode(leitura, buffer);
+                    buffer.flip();
+                    channel.write(buffer);
+                } else {
+                    channel.write(ByteBuffer.wrap(format.encode(leitura)));
+                }
+                sent.increment();
+            } catch (IOException e) {
+                failed.increment(); // Ex.: ICMP port unreachable enquanto o Gateway não está no ar
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void fill(int tag) {
+            double latitude;
+            double longitude;
+            if (nextDouble(tag) < escapeRatio) {
+                latitude = Brinco.FARM_CENTER_LAT + (nextDouble(tag) < 0.5 ? 1 : -1) * (Brinco.MAX_LAT_DEVIATION + 0.0005 + nextDouble(tag) * 0.001);
+                longitude = Brinco.FARM_CENTER_LON + (nextDouble(tag) < 0.5 ? 1 : -1) * (Brinco.MAX_LON_DEVIATION + 0.0005 + nextDouble(tag) * 0.001);
+            } else {
+                latitude = Brinco.FARM_CENTER_LAT + (nextDouble(tag) * (2 * Brinco.MAX_LAT_DEVIATION) - Brinco.MAX_LAT_DEVIATION);
+                longitude = Brinco.FARM_CENTER_LON + (nextDouble(tag) * (2 * Brinco.MAX_LON_DEVIATION) - Brinco.MAX_LON_DEVIATION);
+            }
+            double temperatura = nextDouble(tag) < feverRatio
+                    ? 40.0 + nextDouble(tag)
+                    : 38.0 + (nextDouble(tag) * 2.0 - 1.0);
+
+            leitura.clear();
+            leitura.setBrincoId(ids[tag]);
+            leitura.setTimestamp(System.currentTimeMillis());
+            leitura.setLocalizacao(latitude, longitude);
+            leitura.setTemperatura((float) temperatura);
+            leitura.setAtividade(ATIVIDADES[(int) (nextDouble(tag) * ATIVIDADES.length)]);
+        }
+
+        /**
+         * SplitMix64 com o estado do brinco guardado num long, sem um objeto Random por brinco.
+         */
+        private double nextDouble(int tag) {
+            long z = (rng[tag] += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z ^= z >>> 31;
+            return (z >>> 11) * 0x1.0p-53;
+        }
+    }
+}
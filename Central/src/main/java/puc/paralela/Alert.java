@@ -0,0 +1,93 @@
+package puc.paralela;
+
+import java.util.Locale;
+import org.json.JSONObject;
+import puc.paralela.codec.Leitura;
+
+/**
+ * Um evento de alerta gerado pelo {@link AlertEngine}: a mudança de estado de um
+ * alerta de um brinco, com os dados da leitura que a provocou. Imutável, para poder
+ * ser entregue por outra thread depois que a leitura já foi reaproveitada.
+ */
+final class Alert {
+
+    enum Tipo {
+        FEBRE("febre"),
+        FORA_DA_FAZENDA("fora_da_fazenda"),
+        INATIVIDADE("inatividade");
+
+        final String nome;
+
+        Tipo(String nome) {
+            this.nome = nome;
+        }
+    }
+
+    enum Severidade {
+        AVISO, ALTA, CRITICA
+    }
+
+    enum Estado {
+        DISPARADO,  // A condição passou a valer
+        MANTIDO,    // Lembrete de alerta ainda ativo, ou agravamento da severidade
+        ENCERRADO   // A condição deixou de valer pelo número de leituras configurado
+    }
+
+    final Tipo tipo;
+    final Severidade severidade;
+    final Estado estado;
+    final String brincoId;
+    final long timestamp;
+    final long disparadoEm; // Timestamp da leitura que disparou o alerta
+    final float temperatura;
+    final double lat;
+    final double lon;
+
+    Alert(Tipo tipo, Severidade severidade, Estado estado, Leitura leitura, long disparadoEm) {
+        this.tipo = tipo;
+        this.severidade = severidade;
+        this.estado = estado;
+        this.brincoId = leitura.getBrincoId();
+        this.timestamp = leitura.getTimestamp();
+        this.disparadoEm = disparadoEm;
+        this.temperatura = leitura.getTemperaturaMax();
+        this.lat = leitura.getLat();
+        this.lon = leitura.getLon();
+    }
+
+    /**
+     * Representação em uma linha de JSON, usada pelos destinos de arquivo, socket e webhook.
+     */
+    JSONObject toJson() {
+        return new JSONObject()
+                .put("tipo", tipo.nome)
+                .put("severidade", severidade.name().toLowerCase(Locale.ROOT))
+                .put("estado", estado.name().toLowerCase(Locale.ROOT))
+                .put("brinco_id", brincoId)
+                .put("timestamp", timestamp)
+                .put("disparado_em", disparadoEm)
+                .put("temperatura", temperatura)
+                .put("localizacao", new JSONObject().put("lat", lat).put("lon", lon));
+    }
+
+    /**
+     * Mensagem para o console do Nó Central.
+     */
+    String describe() {
+        if (estado == Estado.ENCERRADO) {
+            return "Nó Central: alerta de " + tipo.nome.replace('_', ' ') + " do brinco " + brincoId + " encerrado após "
+                    + (timestamp - disparadoEm) / 1000 + " s.";
+        }
+        String prefix = "Nó Central: !!! ALERTA " + severidade + " !!! ";
+        String suffix = estado == Estado.MANTIDO ? " (ativo há " + (timestamp - disparadoEm) / 1000 + " s)" : "";
+        switch (tipo) {
+            case FEBRE:
+                return prefix + "Febre no brinco " + brincoId + " (Temp: " + String.format("%.2f", temperatura) + "°C)" + suffix;
+            case FORA_DA_FAZENDA:
+                return prefix + "O brinco " + brincoId + " está FORA da fazenda! Localização: ("
+                        + String.format("%.6f", lat) + ", " + String.format("%.6f", lon) + ")" + suffix;
+            default:
+                return prefix + "Inatividade prolongada do brinco " + brincoId + suffix;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package puc.paralela;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import puc.paralela.comum.Log;
+import puc.paralela.comum.Metrics;
+
+/**
+ * Entrega os alertas aos destinos ({@link AlertSink}) numa thread própria. A fila
+ * é limitada ({@code central.alertas.fila}) e {@link #publish} nunca bloqueia:
+ * com a fila cheia o alerta é descartado e contado, para que um destino lento ou
+ * fora do ar não atrase o armazenamento das leituras.
+ *
+ * Os alertas são entregues em lotes, na ordem em que foram publicados; a falha de
+ * um destino não impede a entrega aos demais, e o lote que falhou não é reenviado.
+ * As entregas são contadas por destino: com dois destinos, cada alerta entregue a
+ * ambos conta duas vezes em alertas_entregues.
+ */
+final class AlertDispatcher {
+    private static final int MAX_BATCH = 256;
+
+    private final List<AlertSink> sinks;
+    private final BlockingQueue<Alert> queue;
+    private final Thread worker;
+
+    private final LongAdder delivered = Metrics.counter("alertas_entregues");
+    private final LongAdder dropped = Metrics.counter("alertas_descartados");
+    private final LongAdder failures = Metrics.counter("alertas_falhas_entrega");
+
+    AlertDispatcher(List<AlertSink> sinks, int capacity) {
+        this.sinks = sinks;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.worker = new Thread(this::run, "entrega-alertas");
+        this.worker.setDaemon(true);
+        Metrics.gauge("alertas_fila", queue::size);
+    }
+
+    void start() {
+        worker.start();
+    }
+
+    /**
+     * Enfileira o alerta para entrega, sem bloquear.
+     */
+    void publish(Alert alert) {
+        if (!queue.offer(alert)) {
+            dropped.increment();
+        }
+    }
+
+    private void run() {
+        List<Alert> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            deliver(batch);
+            batch.clear();
+        }
+        // Encerrando: entrega o que ficou na fila
+        queue.drainTo(batch);
+        if (!batch.isEmpty()) {
+            deliver(batch);
+        }
+    }
+
+    private void deliver(List<Alert> batch) {
+        for (AlertSink sink : sinks) {
+            try {
+                sink.deliver(batch);
+                delivered.add(batch.size());
+            } catch (Exception e) {
+                failures.increment();
+                Log.error("Erro ao entregar {} alerta(s) para {}: {}", batch.size(), sink, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Entrega os alertas pendentes (esperando até {@code timeoutMs}) e fecha os destinos.
+     */
+    void close(long timeoutMs) {
+        worker.interrupt();
+        try {
+            worker.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (AlertSink sink : sinks) {
+            sink.close();
+        }
+    }
+
+    /**
+     * Cria o despachante com os destinos configurados (ver {@link AlertSink#open()}).
+     * @throws IllegalArgumentException se a configuração de algum destino for inválida.
+     */
+    static AlertDispatcher open() {
+        List<AlertSink> sinks = AlertSink.open();
+        AlertDispatcher dispatcher = new AlertDispatcher(sinks, Integer.getInteger("central.alertas.fila", 10_000));
+        Log.info("Nó Central: alertas entregues para {}.", sinks);
+        return dispatcher;
+    }
+}
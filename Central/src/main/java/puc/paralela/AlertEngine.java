@@ -0,0 +1,156 @@
+package puc.paralela;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import puc.paralela.codec.Leitura;
+import puc.paralela.comum.Metrics;
+
+/**
+ * Máquinas de estado dos alertas de cada brinco. Em vez de um aviso por leitura
+ * com alerta, cada tipo de alerta ({@link Alert.Tipo}) de cada brinco passa por
+ * três estados, e só as mudanças são publicadas:
+ *
+ * <ul>
+ * <li>disparo: depois de {@code central.alertas.disparo.leituras} leituras seguidas com a condição;</li>
+ * <li>manutenção: enquanto a condição vale, um lembrete a cada {@code central.alertas.lembrete.segundos}
+ *     ou quando a severidade aumenta; as demais leituras são suprimidas;</li>
+ * <li>encerramento: depois de {@code central.alertas.encerramento.leituras} leituras seguidas sem a
+ *     condição. Para a febre há histerese também na temperatura: o alerta dispara com a flag do
+ *     Nó de Borda, mas só conta como normal abaixo de {@code central.alertas.febre.normal}.</li>
+ * </ul>
+ *
+ * Depois de encerrado, o mesmo alerta só volta a disparar após {@code central.alertas.espera.segundos}.
+ * Os tempos são os timestamps das leituras, então leituras antigas reenviadas (de um spool) não
+ * mudam o estado. Os eventos vão para o {@link AlertDispatcher}, sem bloquear o armazenamento.
+ */
+final class AlertEngine {
+
+    /**
+     * Estado de um tipo de alerta de um brinco.
+     */
+    private static final class Condition {
+        boolean active;
+        Alert.Severidade severidade;
+        long raisedAt;
+        long notifiedAt;
+        long clearedAt = Long.MIN_VALUE / 2;
+        int positives;
+        int negatives;
+    }
+
+    /**
+     * Alertas de um brinco; acessado com a trava do próprio objeto.
+     */
+    private static final class TagAlerts {
+        final Condition[] conditions = new Condition[Alert.Tipo.values().length];
+        long lastTimestamp = Long.MIN_VALUE;
+
+        TagAlerts() {
+            for (int i = 0; i < conditions.length; i++) {
+                conditions[i] = new Condition();
+            }
+        }
+    }
+
+    private final AlertDispatcher dispatcher;
+    private final ConcurrentHashMap<String, TagAlerts> tags = new ConcurrentHashMap<>();
+
+    private final int raiseReadings = Math.max(1, Integer.getInteger("central.alertas.disparo.leituras", 1));
+    private final int clearReadings = Math.max(1, Integer.getInteger("central.alertas.encerramento.leituras", 3));
+    private final long reminderMs = TimeUnit.SECONDS.toMillis(Long.getLong("central.alertas.lembrete.segundos", 600));
+    private final long cooldownMs = TimeUnit.SECONDS.toMillis(Long.getLong("central.alertas.espera.segundos", 60));
+    private final float feverNormal = Float.parseFloat(System.getProperty("central.alertas.febre.normal", "39.0"));
+    private final float feverCritical = Float.parseFloat(System.getProperty("central.alertas.febre.critica", "41.0"));
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder raised = Metrics.counter("alertas_disparados");
+    private final LongAdder cleared = Metrics.counter("alertas_encerrados");
+    private final LongAdder suppressed = Metrics.counter("alertas_suprimidos");
+
+    AlertEngine(AlertDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        Metrics.gauge("alertas_ativos", active::get);
+    }
+
+    /**
+     * Atualiza os alertas do brinco com a leitura já enriquecida (flags do Nó de Borda e de cerca).
+     */
+    void update(Leitura leitura) {
+        boolean fever = leitura.hasFlag(Leitura.FLAG_ALERTA_FEBRE);
+        boolean outside = leitura.hasFlag(Leitura.FLAG_FORA_DA_FAZENDA);
+        boolean inactive = leitura.hasFlag(Leitura.FLAG_ALERTA_INATIVIDADE);
+        String brincoId = leitura.getBrincoId();
+        // Brincos sem nenhum alerta até agora não ocupam memória
+        TagAlerts state = fever || outside || inactive ? tags.computeIfAbsent(brincoId, id -> new TagAlerts()) : tags.get(brincoId);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            long timestamp = leitura.getTimestamp();
+            if (timestamp < state.lastTimestamp) {
+                return;
+            }
+            state.lastTimestamp = timestamp;
+            float temperatura = leitura.getTemperaturaMax();
+            step(state, Alert.Tipo.FEBRE, leitura, fever, !fever && temperatura < feverNormal,
+                    temperatura >= feverCritical ? Alert.Severidade.CRITICA : Alert.Severidade.ALTA);
+            // Sem localização a cerca não é avaliada: a leitura não diz nada sobre a posição
+            if (leitura.hasFlag(Leitura.FLAG_LOCALIZACAO)) {
+                step(state, Alert.Tipo.FORA_DA_FAZENDA, leitura, outside, !outside, Alert.Severidade.ALTA);
+            }
+            step(state, Alert.Tipo.INATIVIDADE, leitura, inactive, !inactive, Alert.Severidade.AVISO);
+        }
+    }
+
+    /**
+     * @param present A condição do alerta vale nesta leitura.
+     * @param normal A condição deixou de valer (fora da faixa de histerese).
+     */
+    private void step(TagAlerts state, Alert.Tipo tipo, Leitura leitura, boolean present, boolean normal,
+                      Alert.Severidade severidade) {
+        Condition c = state.conditions[tipo.ordinal()];
+        long timestamp = leitura.getTimestamp();
+        if (!c.active) {
+            if (!present) {
+                c.positives = 0;
+                return;
+            }
+            c.positives++;
+            if (c.positives < raiseReadings || timestamp - c.clearedAt < cooldownMs) {
+                suppressed.increment();
+                return;
+            }
+            c.active = true;
+            c.severidade = severidade;
+            c.raisedAt = timestamp;
+            c.notifiedAt = timestamp;
+            c.negatives = 0;
+            active.incrementAndGet();
+            raised.increment();
+            dispatcher.publish(new Alert(tipo, severidade, Alert.Estado.DISPARADO, leitura, timestamp));
+        } else if (present) {
+            c.negatives = 0;
+            if (severidade.compareTo(c.severidade) > 0 || timestamp - c.notifiedAt >= reminderMs) {
+                c.severidade = severidade.compareTo(c.severidade) > 0 ? severidade : c.severidade;
+                c.notifiedAt = timestamp;
+                dispatcher.publish(new Alert(tipo, c.severidade, Alert.Estado.MANTIDO, leitura, c.raisedAt));
+            } else {
+                suppressed.increment();
+            }
+        } else if (normal) {
+            if (++c.negatives < clearReadings) {
+                return;
+            }
+            c.active = false;
+            c.positives = 0;
+            c.clearedAt = timestamp;
+            active.decrementAndGet();
+            cleared.increment();
+            dispatcher.publish(new Alert(tipo, c.severidade, Alert.Estado.ENCERRADO, leitura, c.raisedAt));
+        } else {
+            c.negatives = 0; // Entre o limite de disparo e o normal: o alerta continua ativo
+        }
+    }
+}
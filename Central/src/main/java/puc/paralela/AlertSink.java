@@ -0,0 +1,82 @@
+package puc.paralela;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import puc.paralela.comum.Log;
+
+/**
+ * Destino dos alertas do Nó Central. Chamado só pela thread do {@link AlertDispatcher}.
+ *
+ * Os destinos são escolhidos por propriedades, e vários podem estar ativos ao mesmo tempo:
+ * <ul>
+ * <li>{@code -Dcentral.alertas.console} (padrão true): mensagens no console;</li>
+ * <li>{@code -Dcentral.alertas.arquivo=caminho}: uma linha JSON por alerta, ver {@link FileAlertSink};</li>
+ * <li>{@code -Dcentral.alertas.socket=host:porta}: linhas JSON numa conexão TCP, ver {@link SocketAlertSink};</li>
+ * <li>{@code -Dcentral.alertas.webhook=url}: POST de um array JSON por lote, ver {@link WebhookAlertSink}.</li>
+ * </ul>
+ */
+interface AlertSink {
+
+    /**
+     * Entrega um lote de alertas, na ordem em que foram gerados.
+     */
+    void deliver(List<Alert> alerts) throws IOException;
+
+    default void close() {
+    }
+
+    /**
+     * @throws IllegalArgumentException se o endereço do socket ou do webhook for inválido.
+     */
+    static List<AlertSink> open() {
+        List<AlertSink> sinks = new ArrayList<>();
+        if (Boolean.parseBoolean(System.getProperty("central.alertas.console", "true"))) {
+            sinks.add(new AlertSink() {
+                @Override
+                public void deliver(List<Alert> alerts) {
+                    for (Alert alert : alerts) {
+                        Log.info("{}", alert.describe());
+                    }
+                }
+
+                @Override
+                public String toString() {
+                    return "console";
+                }
+            });
+        }
+        String file = System.getProperty("central.alertas.arquivo");
+        if (file != null && !file.isBlank()) {
+            sinks.add(new FileAlertSink(Path.of(file)));
+        }
+        String socket = System.getProperty("central.alertas.socket");
+        if (socket != null && !socket.isBlank()) {
+            String address = socket.trim();
+            int colon = address.lastIndexOf(':');
+            int port = -1;
+            if (colon > 0) {
+                try {
+                    port = Integer.parseInt(address.substring(colon + 1));
+                } catch (NumberFormatException e) {
+                    // Tratado abaixo
+                }
+            }
+            if (port <= 0 || port > 65535) {
+                throw new IllegalArgumentException("Endereço inválido em -Dcentral.alertas.socket (esperado host:porta): " + socket);
+            }
+            sinks.add(new SocketAlertSink(address.substring(0, colon), port));
+        }
+        String webhook = System.getProperty("central.alertas.webhook");
+        if (webhook != null && !webhook.isBlank()) {
+            try {
+                sinks.add(new WebhookAlertSink(URI.create(webhook.trim())));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("URL inválida em -Dcentral.alertas.webhook: " + webhook, e);
+            }
+        }
+        return sinks;
+    }
+}
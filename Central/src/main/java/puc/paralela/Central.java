@@ -1,16 +1,23 @@
 package puc.paralela;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import org.json.JSONObject;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import puc.paralela.codec.Leitura;
+import puc.paralela.codec.WireFormat;
+import puc.paralela.comum.InboundConnection;
+import puc.paralela.comum.LatencyHistogram;
+import puc.paralela.comum.Log;
+import puc.paralela.comum.MemoryLink;
+import puc.paralela.comum.Metrics;
+import puc.paralela.comum.NioInboundServer;
 
 /**
  * O Nó Central recebe dados processados do Nó de Borda e os "armazena".
@@ -18,114 +25,256 @@ import org.json.JSONObject;
  **/
 
 public class Central {
-    private static final int CENTRAL_NODE_TCP_PORT = 12345;
+    private static final int CENTRAL_NODE_TCP_PORT = Integer.getInteger("central.tcp.port", 12345); // Vários Nós Centrais no mesmo host usam portas diferentes
+    private static final int METRICS_PORT = 12349; // Endpoint local de métricas (-Dmetricas.porta)
+    private static final int CENTRAL_QUERY_PORT = Integer.getInteger("central.query.port", 12348); // Consultas locais (HTTP); 0 desativa
 
-    private static final List<JSONObject> DATABASE = Collections.synchronizedList(new LinkedList<>());
+    private static ReadingStore DATABASE; // Aberto em main(), ver ReadingStore.open()
 
-    private static ExecutorService clientHandlerPool = Executors.newFixedThreadPool(5); // Pool para lidar com conexões de nó de borda
+    // Leitura reaproveitada por cada thread de conexão; o armazenamento guarda uma cópia
+    private static final ThreadLocal<Leitura> LEITURA_LOCAL = ThreadLocal.withInitial(Leitura::new);
+
+    // Pool para lidar com conexões de nó de borda. Cada Nó de Borda mantém a conexão aberta e ocupa uma
+    // thread enquanto estiver conectado, então o pool não tem limite de threads; o limite é o de conexões
+    private static ExecutorService clientHandlerPool = Executors.newCachedThreadPool();
+    // Servidor para os Nós de Borda: "nio" (seletores, milhares de conexões; o padrão) ou "blocking" (uma thread do pool por conexão)
+    private static final String TCP_MODE = System.getProperty("central.tcp.mode", "nio");
+    private static final int MAX_CONNECTIONS = Integer.getInteger("central.tcp.max.conexoes", 10_000);
+    private static final long IDLE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(Long.getLong("central.tcp.ocioso.segundos", 300));
+    private static final AtomicInteger OPEN_CONNECTIONS = new AtomicInteger();
 
     private static final double FARM_CENTER_LAT = -19.92;
     private static final double FARM_CENTER_LON = -43.93;
 
+    // Área usada quando nenhum arquivo de cercas é informado (-Dcentral.cercas).
     // Raio de desvio máximo em graus para simular uma área de 2 hectares.
     private static final double MAX_LAT_DEVIATION = 0.0008; // Desvio máximo em latitude (graus)
     private static final double MAX_LON_DEVIATION = 0.0008; // Desvio máximo em longitude (graus)
 
+    private static final LatencyHistogram BORDA_TO_CENTRAL_MS = Metrics.histogram("latencia_borda_ate_central_ms");
+    private static final LatencyHistogram END_TO_END_MS = Metrics.histogram("latencia_fim_a_fim_ms");
+    private static final LatencyHistogram STORAGE_US = Metrics.histogram("armazenamento_us");
+    private static final LongAdder INVALID_RECORDS = Metrics.counter("registros_invalidos");
+    private static final Log.Limiter STORE_LOG = Log.limiter(); // Mensagens por leitura (-Dlog.leituras.por.segundo)
+    private static final Log.Limiter FENCE_LOG = Log.limiter(); // Entradas e saídas de cercas, que podem vir a cada leitura
+    // Leituras representadas pelos resumos de janela do Gateway (-Dgateway.agregacao.ms)
+    private static final LongAdder SUMMARIZED_READINGS = Metrics.counter("leituras_resumidas");
+
+    private static GeofenceEngine GEOFENCES; // Carregado em main(), ver GeofenceEngine.load()
+    private static AlertEngine ALERTS; // Criado em main(), com os destinos de -Dcentral.alertas.*
+    private static HerdAnalytics ANALYTICS; // Criado em main(), com as cercas carregadas
+
+    private static final GeofenceEngine.Listener FENCE_EVENTS = new GeofenceEngine.Listener() {
+        @Override
+        public void onEnter(Leitura leitura, Geofence fence) {
+            if (FENCE_LOG.allow()) {
+                Log.info("Nó Central: Brinco {} entrou: {}.", leitura.getBrincoId(), fence);
+            }
+        }
+
+        @Override
+        public void onLeave(Leitura leitura, Geofence fence) {
+            if (FENCE_LOG.allow()) {
+                Log.info("Nó Central: Brinco {} saiu: {}.", leitura.getBrincoId(), fence);
+            }
+        }
+
+        @Override
+        public void onOutsideFarm(Leitura leitura) {
+            // O alerta de limite vem do AlertEngine, a partir da flag de fora da fazenda
+        }
+    };
+
     public static void main(String[] args) {
+        if (!initialize()) {
+            return;
+        }
+        Metrics.start("Nó Central", METRICS_PORT);
+        if (CENTRAL_QUERY_PORT > 0) {
+            try {
+                new QueryServer(DATABASE, ANALYTICS, CENTRAL_QUERY_PORT).start();
+            } catch (IOException e) {
+                Log.error("Erro ao iniciar o endpoint de consultas do Nó Central: {}", e.getMessage());
+            }
+        }
+
         startCentralServer();
         // O main thread pode esperar indefinidamente
         try {
             Thread.currentThread().join();
         } catch (InterruptedException e) {
-            System.err.println("Central main thread interrompida.");
+            Log.error("Central main thread interrompida.");
             Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Modo embutido (ver EmbeddedPipeline, no módulo Benchmarks): sem servidor TCP nem
+     * endpoint de consultas, as leituras chegam do Nó de Borda pelo enlace em memória.
+     * @return false se o armazenamento ou as cercas não puderam ser abertos.
+     */
+    static boolean startEmbedded(MemoryLink fromBorda) {
+        if (!initialize()) {
+            return false;
+        }
+        fromBorda.startReceiver(Central::storeData);
+        return true;
+    }
+
+    /**
+     * Carrega as cercas e abre o armazenamento, as análises e os alertas.
+     * @return false se não foi possível.
+     */
+    private static boolean initialize() {
+        try {
+            GEOFENCES = GeofenceEngine.load(FARM_CENTER_LAT, FARM_CENTER_LON, MAX_LAT_DEVIATION, MAX_LON_DEVIATION);
+        } catch (IOException | RuntimeException e) {
+            Log.error("Erro ao carregar as cercas virtuais do Nó Central: {}", e.getMessage());
+            return false;
+        }
+        Log.info("Nó Central: {} cerca(s) virtual(is) carregada(s).", GEOFENCES.size());
+        ANALYTICS = new HerdAnalytics(GEOFENCES);
+
+        try {
+            DATABASE = ReadingStore.open();
+        } catch (IOException e) {
+            Log.error("Erro ao abrir o armazenamento do Nó Central: {}", e.getMessage());
+            return false;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(DATABASE::close));
+
+        AlertDispatcher alertDispatcher;
+        try {
+            alertDispatcher = AlertDispatcher.open();
+        } catch (IllegalArgumentException e) {
+            Log.error("Erro na configuração dos alertas do Nó Central: {}", e.getMessage());
+            return false;
+        }
+        alertDispatcher.start();
+        ALERTS = new AlertEngine(alertDispatcher);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> alertDispatcher.close(TimeUnit.SECONDS.toMillis(5))));
+        return true;
+    }
+
     /**
      * Inicia o servidor TCP para receber dados dos Nós de Borda.
      */
     private static void startCentralServer() {
+        if (!"blocking".equalsIgnoreCase(TCP_MODE)) {
+            startNioCentralServer();
+            return;
+        }
+        Metrics.gauge("conexoes_abertas", OPEN_CONNECTIONS::get);
+        LongAdder refused = Metrics.counter("conexoes_recusadas");
         new Thread(() -> {
             try (ServerSocket serverSocket = new ServerSocket(CENTRAL_NODE_TCP_PORT)) {
-                System.out.println("Nó Central ouvindo em TCP Porta " + CENTRAL_NODE_TCP_PORT + " para Nós de Borda.");
+                Log.info("Nó Central ouvindo em TCP Porta {} para Nós de Borda (até {} conexões).", CENTRAL_NODE_TCP_PORT, MAX_CONNECTIONS);
                 while (true) {
                     Socket clientSocket = serverSocket.accept(); // Aceita uma nova conexão
+                    if (OPEN_CONNECTIONS.get() >= MAX_CONNECTIONS) {
+                        refused.increment();
+                        Log.warn("Nó Central: conexão de {} recusada; limite de {} conexões atingido.",
+                                clientSocket.getInetAddress().getHostAddress(), MAX_CONNECTIONS);
+                        clientSocket.close();
+                        continue;
+                    }
+                    OPEN_CONNECTIONS.incrementAndGet();
                     clientHandlerPool.submit(() -> handleBordaConnection(clientSocket));
                 }
             } catch (IOException e) {
-                System.err.println("Erro no servidor do Nó Central: " + e.getMessage());
-                e.printStackTrace();
+                Log.error("Erro no servidor do Nó Central: {}", e.getMessage(), e);
             } finally {
                 clientHandlerPool.shutdown();
             }
         }).start();
     }
 
+    /**
+     * Inicia o servidor não bloqueante para os Nós de Borda (o padrão; -Dcentral.tcp.mode=blocking usa uma thread por conexão).
+     */
+    private static void startNioCentralServer() {
+        NioInboundServer server = new NioInboundServer("Nó Central", "Nó de Borda", CENTRAL_NODE_TCP_PORT,
+                Integer.getInteger("central.tcp.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("central.tcp.max.conexoes", 10_000),
+                TimeUnit.SECONDS.toMillis(Long.getLong("central.tcp.ocioso.segundos", 300)),
+                Central::storeData);
+        try {
+            server.start();
+        } catch (IOException e) {
+            Log.error("Erro ao iniciar o servidor (nio) do Nó Central: {}", e.getMessage(), e);
+        }
+    }
+
     /**
      * Lida com a conexão de um Nó de Borda, recebendo e armazenando os dados.
      * @param clientSocket Socket do Nó de Borda conectado.
      */
     private static void handleBordaConnection(Socket clientSocket) {
         String clientAddress = clientSocket.getInetAddress().getHostAddress();
-        System.out.println("Nó Central: Conexão recebida do Nó de Borda " + clientAddress);
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()))) {
-            String line;
-            while ((line = in.readLine()) != null) {
-                storeData(line);
-            }
+        Log.info("Nó Central: Conexão recebida do Nó de Borda {}", clientAddress);
+        try {
+            // Sem tráfego por IDLE_TIMEOUT_MS a leitura falha e a conexão é encerrada; o Nó de Borda reconecta no envio seguinte
+            clientSocket.setSoTimeout((int) Math.min(IDLE_TIMEOUT_MS, Integer.MAX_VALUE));
+            // Cada lote é confirmado ao Nó de Borda depois que todos os seus registros foram armazenados
+            InboundConnection.pump(clientSocket.getInputStream(), clientSocket.getOutputStream(), Central::storeData,
+                    clientAddress);
+        } catch (SocketTimeoutException e) {
+            Metrics.counter("conexoes_ociosas_encerradas").increment();
+            Log.info("Nó Central: Conexão com o Nó de Borda {} sem tráfego por {} s; encerrando.", clientAddress, IDLE_TIMEOUT_MS / 1000);
         } catch (IOException e) {
-            System.err.println("Erro ao lidar com a conexão do Nó de Borda " + clientAddress + ": " + e.getMessage());
+            Log.error("Erro ao lidar com a conexão do Nó de Borda {}: {}", clientAddress, e.getMessage());
         } finally {
+            OPEN_CONNECTIONS.decrementAndGet();
             try {
                 clientSocket.close();
             } catch (IOException e) {
-                System.err.println("Erro ao fechar o socket do Nó de Borda: " + e.getMessage());
+                Log.error("Erro ao fechar o socket do Nó de Borda: {}", e.getMessage());
             }
-            System.out.println("Nó Central: Conexão com o Nó de Borda " + clientAddress + " fechada.");
+            Log.info("Nó Central: Conexão com o Nó de Borda {} fechada.", clientAddress);
         }
     }
 
     /**
-     * Armazena os dados recebidos no "banco de dados" em memória.
-     * @param dataString Dados JSON em formato String.
+     * Verifica os dados recebidos e os grava no armazenamento.
+     * @param buf Buffer com a mensagem recebida (JSON ou binário).
+     * @param off Início da mensagem no buffer.
+     * @param len Tamanho da mensagem.
      */
-    private static void storeData(String dataString) {
+    private static void storeData(byte[] buf, int off, int len) {
         try {
-            JSONObject data = new JSONObject(dataString);
-            DATABASE.add(data);
-            System.out.println("Nó Central: Dados do brinco " + data.optString("brinco_id", "N/A") + " armazenados. Total de registros: " + DATABASE.size());
-
-            JSONObject localizacao = data.optJSONObject("localizacao");
-            if (localizacao != null) {
-                double currentLat = localizacao.optDouble("lat");
-                double currentLon = localizacao.optDouble("lon");
-
-                // Verifica se o boi está fora dos limites definidos
-                boolean outsideFarm = false;
-                if (Math.abs(currentLat - FARM_CENTER_LAT) > MAX_LAT_DEVIATION ||
-                    Math.abs(currentLon - FARM_CENTER_LON) > MAX_LON_DEVIATION) {
-                    outsideFarm = true;
-                }
-
-                if (outsideFarm) {
-                    System.out.println("Nó Central: !!! ALERTA DE LIMITE !!! O brinco " + data.optString("brinco_id") +
-                                       " está FORA da fazenda! Localização: (" +
-                                       String.format("%.6f", currentLat) + ", " + String.format("%.6f", currentLon) + ")");
-                } else {
-                    System.out.println("Nó Central: Brinco " + data.optString("brinco_id") + " dentro dos limites da fazenda.");
-                }
-            } else {
-                System.out.println("Nó Central: Dados de localização ausentes ou inválidos para o brinco " + data.optString("brinco_id", "N/A"));
+            Leitura data = LEITURA_LOCAL.get();
+            WireFormat.decode(buf, off, len, data);
+            long now = System.currentTimeMillis();
+            END_TO_END_MS.record(now - data.getTimestamp());
+            if (data.getProcessedAtBordaMs() != 0) {
+                BORDA_TO_CENTRAL_MS.record(now - data.getProcessedAtBordaMs());
             }
 
+            if (data.hasFlag(Leitura.FLAG_LOCALIZACAO)) {
+                // Só as entradas e saídas de cercas são informadas, não cada leitura
+                data.setFlag(Leitura.FLAG_FORA_DA_FAZENDA, GEOFENCES.update(data, FENCE_EVENTS));
+            } else if (STORE_LOG.allow()) {
+                Log.warn("Nó Central: Dados de localização ausentes ou inválidos para o brinco {}", data.getBrincoId());
+            }
 
-            if (data.optBoolean("alerta_febre", false)) {
-                System.out.println("Nó Central: ALERTA DE FEBRE CONFIRMADO para " + data.optString("brinco_id") + " (Temp: " + data.optString("temperatura") + "°C)");
+            // Armazena depois da verificação de limites, para que a flag de fora da fazenda também seja gravada
+            long start = System.nanoTime();
+            DATABASE.append(data);
+            STORAGE_US.record((System.nanoTime() - start) / 1000);
+            if (data.isResumo()) {
+                SUMMARIZED_READINGS.add(data.getAmostras());
+            }
+            if (STORE_LOG.allow()) {
+                Log.info("Nó Central: Dados do brinco {} armazenados. Total de registros: {}", data.getBrincoId(), DATABASE.size());
             }
-            
+
+            // Só as mudanças de estado dos alertas são publicadas, por outra thread
+            ALERTS.update(data);
+            ANALYTICS.update(data, GEOFENCES.areaOf(data.getBrincoId()));
         } catch (Exception e) {
-            System.err.println("Erro ao armazenar dados no Nó Central: " + e.getMessage() + ". Dados: " + dataString);
+            INVALID_RECORDS.increment();
+            Log.error("Erro ao armazenar dados no Nó Central: {}. Dados: {}",
+                    e.getMessage(), new String(buf, off, len, StandardCharsets.UTF_8));
         }
     }
 }
@@ -0,0 +1,55 @@
+package puc.paralela;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import puc.paralela.comum.Log;
+
+/**
+ * Acrescenta os alertas a um arquivo, uma linha JSON por alerta ({@link Alert#toJson()}).
+ * O arquivo é aberto no primeiro lote e descarregado ao fim de cada lote.
+ */
+final class FileAlertSink implements AlertSink {
+    private final Path path;
+    private BufferedWriter writer;
+
+    FileAlertSink(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public void deliver(List<Alert> alerts) throws IOException {
+        if (writer == null) {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        for (Alert alert : alerts) {
+            writer.write(alert.toJson().toString());
+            writer.newLine();
+        }
+        writer.flush();
+    }
+
+    @Override
+    public void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.error("Erro ao fechar o arquivo de alertas {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "arquivo " + path;
+    }
+}
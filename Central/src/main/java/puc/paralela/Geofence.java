@@ -0,0 +1,99 @@
+package puc.paralela;
+
+/**
+ * Cerca virtual: um polígono (ou vários) com buracos opcionais, em graus.
+ *
+ * Os anéis são guardados como arrays de latitude e longitude, sem objetos por
+ * vértice. O teste de pertinência usa a regra par-ímpar sobre todos os anéis,
+ * então buracos (e partes de um MultiPolygon) não precisam de tratamento especial.
+ */
+final class Geofence {
+
+    enum Tipo {
+        FAZENDA, PIQUETE;
+
+        static Tipo fromNome(String nome) {
+            return "fazenda".equalsIgnoreCase(nome) ? FAZENDA : PIQUETE;
+        }
+    }
+
+    final int id;
+    final String nome;
+    final String fazenda;
+    final Tipo tipo;
+    final double minLat;
+    final double maxLat;
+    final double minLon;
+    final double maxLon;
+    private final double[][] lats;
+    private final double[][] lons;
+
+    /**
+     * @param lats Latitudes de cada anel (o primeiro vértice não precisa ser repetido no fim).
+     * @param lons Longitudes de cada anel, na mesma ordem.
+     */
+    Geofence(int id, String nome, String fazenda, Tipo tipo, double[][] lats, double[][] lons) {
+        if (lats.length == 0 || lats.length != lons.length) {
+            throw new IllegalArgumentException("Cerca " + nome + " sem anéis válidos");
+        }
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        for (int r = 0; r < lats.length; r++) {
+            if (lats[r].length < 3 || lats[r].length != lons[r].length) {
+                throw new IllegalArgumentException("Cerca " + nome + " com anel inválido");
+            }
+            for (int i = 0; i < lats[r].length; i++) {
+                minLat = Math.min(minLat, lats[r][i]);
+                maxLat = Math.max(maxLat, lats[r][i]);
+                minLon = Math.min(minLon, lons[r][i]);
+                maxLon = Math.max(maxLon, lons[r][i]);
+            }
+        }
+        this.id = id;
+        this.nome = nome;
+        this.fazenda = fazenda;
+        this.tipo = tipo;
+        this.lats = lats;
+        this.lons = lons;
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+    }
+
+    /**
+     * Cerca retangular em torno de um centro, como a verificação original do Nó Central.
+     */
+    static Geofence rectangle(int id, String nome, String fazenda, Tipo tipo,
+                              double centerLat, double centerLon, double latDeviation, double lonDeviation) {
+        double[][] lats = {{centerLat - latDeviation, centerLat - latDeviation, centerLat + latDeviation, centerLat + latDeviation}};
+        double[][] lons = {{centerLon - lonDeviation, centerLon + lonDeviation, centerLon + lonDeviation, centerLon - lonDeviation}};
+        return new Geofence(id, nome, fazenda, tipo, lats, lons);
+    }
+
+    boolean contains(double lat, double lon) {
+        if (lat < minLat || lat > maxLat || lon < minLon || lon > maxLon) {
+            return false;
+        }
+        boolean inside = false;
+        for (int r = 0; r < lats.length; r++) {
+            double[] ringLat = lats[r];
+            double[] ringLon = lons[r];
+            int n = ringLat.length;
+            for (int i = 0, j = n - 1; i < n; j = i++) {
+                if ((ringLat[i] > lat) != (ringLat[j] > lat)
+                        && lon < (ringLon[j] - ringLon[i]) * (lat - ringLat[i]) / (ringLat[j] - ringLat[i]) + ringLon[i]) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    @Override
+    public String toString() {
+        return tipo == Tipo.FAZENDA ? "fazenda '" + nome + "'" : "piquete '" + nome + "' (" + fazenda + ")";
+    }
+}
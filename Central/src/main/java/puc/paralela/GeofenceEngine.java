@@ -0,0 +1,259 @@
+package puc.paralela;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import puc.paralela.codec.Leitura;
+
+/**
+ * Cercas virtuais do Nó Central: localiza cada leitura nas cercas (fazendas e
+ * piquetes) através do {@link GeofenceIndex} e acompanha em quais cercas cada
+ * brinco está, avisando só quando ele entra ou sai de uma delas.
+ *
+ * As cercas são lidas de um arquivo GeoJSON indicado por -Dcentral.cercas
+ * (FeatureCollection com Polygon ou MultiPolygon; propriedades "nome",
+ * "fazenda" e "tipo" = "fazenda" ou "piquete"). Sem o arquivo é usada a área
+ * retangular original em torno do centro da fazenda.
+ */
+class GeofenceEngine {
+
+    /**
+     * Recebe as mudanças de cerca dos brincos. Chamado pela thread que processou a leitura.
+     */
+    interface Listener {
+        void onEnter(Leitura leitura, Geofence fence);
+
+        void onLeave(Leitura leitura, Geofence fence);
+
+        /**
+         * O brinco passou a estar fora de todas as fazendas (ou já apareceu fora delas).
+         */
+        void onOutsideFarm(Leitura leitura);
+    }
+
+    private static final int[] NONE = new int[0];
+
+    private final Geofence[] fences;
+    private final GeofenceIndex index;
+    private final boolean hasFarms;
+    // Cercas em que cada brinco está (ids em ordem crescente)
+    private final ConcurrentHashMap<String, int[]> membership = new ConcurrentHashMap<>();
+    private final ThreadLocal<int[]> scratch = ThreadLocal.withInitial(() -> new int[16]);
+
+    /**
+     * @param cellSize Lado da célula da grade em graus; 0 usa o tamanho mediano das cercas.
+     */
+    GeofenceEngine(List<Geofence> fences, double cellSize) {
+        this.fences = fences.toArray(new Geofence[0]);
+        for (int i = 0; i < this.fences.length; i++) {
+            if (this.fences[i].id != i) {
+                throw new IllegalArgumentException("Ids de cerca devem ser sequenciais a partir de 0");
+            }
+        }
+        this.index = new GeofenceIndex(fences, cellSize > 0 ? cellSize : typicalSize(fences));
+        this.hasFarms = fences.stream().anyMatch(f -> f.tipo == Geofence.Tipo.FAZENDA);
+    }
+
+    /**
+     * Tamanho mediano das cercas, usado como célula da grade quando nenhum é configurado:
+     * células bem maiores que as cercas fariam cada leitura testar centenas delas.
+     */
+    private static double typicalSize(List<Geofence> fences) {
+        if (fences.isEmpty()) {
+            return 0.01;
+        }
+        double[] sizes = new double[fences.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            Geofence fence = fences.get(i);
+            sizes[i] = Math.max(fence.maxLat - fence.minLat, fence.maxLon - fence.minLon);
+        }
+        Arrays.sort(sizes);
+        return Math.max(1e-5, sizes[sizes.length / 2]);
+    }
+
+    int size() {
+        return fences.length;
+    }
+
+    Geofence fence(int id) {
+        return fences[id];
+    }
+
+    /**
+     * Área do brinco nas análises do rebanho, conforme a última leitura localizada:
+     * o primeiro piquete em que ele está; sem piquete, a primeira cerca; -1 fora de todas.
+     */
+    int areaOf(String brincoId) {
+        int[] current = membership.get(brincoId);
+        return current == null ? -1 : area(current, current.length);
+    }
+
+    /**
+     * Área de um ponto, como em {@link #areaOf}, sem consultar nem alterar o estado dos brincos.
+     */
+    int locateArea(double lat, double lon) {
+        int count = collect(index.candidates(lat, lon), lat, lon, 0);
+        count = collect(index.largeFences(), lat, lon, count);
+        return area(scratch.get(), count);
+    }
+
+    private int area(int[] ids, int count) {
+        int area = -1;
+        for (int k = 0; k < count; k++) {
+            int id = ids[k];
+            boolean paddock = fences[id].tipo == Geofence.Tipo.PIQUETE;
+            if (area < 0 || (paddock && (fences[area].tipo != Geofence.Tipo.PIQUETE || id < area))
+                    || (!paddock && fences[area].tipo != Geofence.Tipo.PIQUETE && id < area)) {
+                area = id;
+            }
+        }
+        return area;
+    }
+
+    /**
+     * Localiza a leitura nas cercas e informa ao {@code listener} as entradas e saídas do brinco.
+     * @return true se a leitura está fora de todas as fazendas (ou de todas as cercas, se nenhuma for do tipo fazenda).
+     */
+    boolean update(Leitura leitura, Listener listener) {
+        double lat = leitura.getLat();
+        double lon = leitura.getLon();
+        int count = collect(index.candidates(lat, lon), lat, lon, 0);
+        count = collect(index.largeFences(), lat, lon, count);
+        int[] matches = scratch.get();
+        boolean insideFarm = false;
+        for (int k = 0; k < count; k++) {
+            insideFarm |= countsAsFarm(fences[matches[k]]);
+        }
+        Arrays.sort(matches, 0, count);
+
+        String brincoId = leitura.getBrincoId();
+        int[] previous = membership.get(brincoId);
+        if (previous != null && Arrays.equals(previous, 0, previous.length, matches, 0, count)) {
+            return !insideFarm; // Caso comum: nenhuma mudança, nada é alocado
+        }
+        int[] current = count == 0 ? NONE : Arrays.copyOf(matches, count);
+        // put() devolve exatamente o estado substituído, então leituras simultâneas do mesmo brinco não duplicam eventos
+        previous = membership.put(brincoId, current);
+        boolean wasInsideFarm = previous == null;
+        int[] before = previous == null ? NONE : previous;
+        int i = 0;
+        int j = 0;
+        while (i < before.length || j < current.length) {
+            if (j == current.length || (i < before.length && before[i] < current[j])) {
+                Geofence left = fences[before[i++]];
+                wasInsideFarm |= countsAsFarm(left);
+                listener.onLeave(leitura, left);
+            } else if (i == before.length || current[j] < before[i]) {
+                listener.onEnter(leitura, fences[current[j++]]);
+            } else {
+                wasInsideFarm |= countsAsFarm(fences[before[i]]);
+                i++;
+                j++;
+            }
+        }
+        if (wasInsideFarm && !insideFarm) {
+            listener.onOutsideFarm(leitura);
+        }
+        return !insideFarm;
+    }
+
+    /**
+     * Acrescenta ao buffer da thread as cercas do grupo que contêm o ponto.
+     * @return novo total de cercas no buffer.
+     */
+    private int collect(int[] group, double lat, double lon, int count) {
+        int[] matches = scratch.get();
+        for (int id : group) {
+            if (fences[id].contains(lat, lon)) {
+                if (count == matches.length) {
+                    matches = Arrays.copyOf(matches, count * 2);
+                    scratch.set(matches);
+                }
+                matches[count++] = id;
+            }
+        }
+        return count;
+    }
+
+    private boolean countsAsFarm(Geofence fence) {
+        return !hasFarms || fence.tipo == Geofence.Tipo.FAZENDA;
+    }
+
+    /**
+     * Carrega as cercas configuradas. Sem -Dcentral.cercas, usa o retângulo informado.
+     */
+    static GeofenceEngine load(double centerLat, double centerLon, double latDeviation, double lonDeviation) throws IOException {
+        double cellSize = Double.parseDouble(System.getProperty("central.cercas.celula", "0"));
+        String file = System.getProperty("central.cercas");
+        List<Geofence> fences = new ArrayList<>();
+        if (file == null || file.isBlank()) {
+            fences.add(Geofence.rectangle(0, "Fazenda", "Fazenda", Geofence.Tipo.FAZENDA,
+                    centerLat, centerLon, latDeviation, lonDeviation));
+        } else {
+            JSONObject collection = new JSONObject(Files.readString(Path.of(file), StandardCharsets.UTF_8));
+            JSONArray features = collection.getJSONArray("features");
+            for (int f = 0; f < features.length(); f++) {
+                fences.add(parseFeature(fences.size(), features.getJSONObject(f)));
+            }
+        }
+        return new GeofenceEngine(fences, cellSize);
+    }
+
+    private static Geofence parseFeature(int id, JSONObject feature) {
+        JSONObject properties = feature.optJSONObject("properties");
+        if (properties == null) {
+            properties = new JSONObject();
+        }
+        String nome = properties.optString("nome", "cerca-" + id);
+        Geofence.Tipo tipo = Geofence.Tipo.fromNome(properties.optString("tipo", "piquete"));
+        String fazenda = properties.optString("fazenda", tipo == Geofence.Tipo.FAZENDA ? nome : "");
+
+        JSONObject geometry = feature.getJSONObject("geometry");
+        JSONArray coordinates = geometry.getJSONArray("coordinates");
+        List<JSONArray> rings = new ArrayList<>();
+        switch (geometry.getString("type")) {
+            case "Polygon":
+                addRings(coordinates, rings);
+                break;
+            case "MultiPolygon":
+                for (int p = 0; p < coordinates.length(); p++) {
+                    addRings(coordinates.getJSONArray(p), rings);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Geometria não suportada na cerca " + nome + ": " + geometry.getString("type"));
+        }
+
+        double[][] lats = new double[rings.size()][];
+        double[][] lons = new double[rings.size()][];
+        for (int r = 0; r < rings.size(); r++) {
+            JSONArray ring = rings.get(r);
+            int n = ring.length();
+            // GeoJSON repete o primeiro vértice no fim do anel
+            if (n > 1 && ring.getJSONArray(0).similar(ring.getJSONArray(n - 1))) {
+                n--;
+            }
+            lats[r] = new double[n];
+            lons[r] = new double[n];
+            for (int i = 0; i < n; i++) {
+                JSONArray point = ring.getJSONArray(i); // [lon, lat]
+                lons[r][i] = point.getDouble(0);
+                lats[r][i] = point.getDouble(1);
+            }
+        }
+        return new Geofence(id, nome, fazenda, tipo, lats, lons);
+    }
+
+    private static void addRings(JSONArray polygon, List<JSONArray> rings) {
+        for (int r = 0; r < polygon.length(); r++) {
+            rings.add(polygon.getJSONArray(r));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package puc.paralela;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Índice espacial em grade uniforme para as cercas virtuais.
+ *
+ * Cada célula da grade guarda os ids das cercas cujo retângulo envolvente a
+ * toca, então uma leitura só é testada contra as poucas cercas da sua célula.
+ * O índice é imutável depois de construído: as consultas não usam travas nem
+ * alocam memória. As células ficam numa tabela hash de endereçamento aberto com
+ * chave long primitiva, já que a grade de várias fazendas é muito esparsa.
+ */
+final class GeofenceIndex {
+    private static final int[] EMPTY = new int[0];
+    // Cercas que cobririam células demais ficam numa lista testada em toda consulta
+    private static final long MAX_CELLS_PER_FENCE = 1 << 16;
+
+    private final double cellSize;
+    private final long[] keys;
+    private final int[][] cells;
+    private final boolean[] used;
+    private final int[] large;
+
+    GeofenceIndex(List<Geofence> fences, double cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("Tamanho de célula inválido: " + cellSize);
+        }
+        this.cellSize = cellSize;
+        Map<Long, int[]> building = new HashMap<>();
+        int[] largeFences = EMPTY;
+        for (Geofence fence : fences) {
+            long lat0 = cell(fence.minLat);
+            long lat1 = cell(fence.maxLat);
+            long lon0 = cell(fence.minLon);
+            long lon1 = cell(fence.maxLon);
+            if ((lat1 - lat0 + 1) * (lon1 - lon0 + 1) > MAX_CELLS_PER_FENCE) {
+                largeFences = append(largeFences, fence.id);
+                continue;
+            }
+            for (long la = lat0; la <= lat1; la++) {
+                for (long lo = lon0; lo <= lon1; lo++) {
+                    building.merge(key(la, lo), new int[]{fence.id}, GeofenceIndex::concat);
+                }
+            }
+        }
+        this.large = largeFences;
+
+        int capacity = Integer.highestOneBit(Math.max(16, building.size() * 2 - 1)) << 1;
+        keys = new long[capacity];
+        cells = new int[capacity][];
+        used = new boolean[capacity];
+        for (Map.Entry<Long, int[]> entry : building.entrySet()) {
+            int slot = slot(entry.getKey());
+            while (used[slot]) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            used[slot] = true;
+            keys[slot] = entry.getKey();
+            cells[slot] = entry.getValue();
+        }
+    }
+
+    /**
+     * Cercas candidatas para o ponto (ainda é preciso testar cada uma com {@link Geofence#contains}).
+     */
+    int[] candidates(double lat, double lon) {
+        long key = key(cell(lat), cell(lon));
+        int mask = keys.length - 1;
+        for (int slot = slot(key); used[slot]; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return cells[slot];
+            }
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Cercas grandes demais para a grade, testadas em toda consulta.
+     */
+    int[] largeFences() {
+        return large;
+    }
+
+    private long cell(double degrees) {
+        return (long) Math.floor(degrees / cellSize);
+    }
+
+    private static long key(long latCell, long lonCell) {
+        return (latCell << 32) ^ (lonCell & 0xffffffffL);
+    }
+
+    private int slot(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & (keys.length - 1);
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static int[] append(int[] a, int value) {
+        int[] result = Arrays.copyOf(a, a.length + 1);
+        result[a.length] = value;
+        return result;
+    }
+}
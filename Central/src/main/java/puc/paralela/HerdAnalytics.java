@@ -0,0 +1,317 @@
+package puc.paralela;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import org.json.JSONObject;
+import puc.paralela.codec.Atividade;
+import puc.paralela.codec.Leitura;
+import puc.paralela.comum.Metrics;
+
+/**
+ * Análises do rebanho mantidas a cada leitura armazenada, para que as consultas não
+ * precisem percorrer o armazenamento:
+ *
+ * <ul>
+ * <li>distribuição de temperatura e atividades do rebanho e de cada área (piquete ou fazenda);</li>
+ * <li>leituras por célula da grade do mapa de calor ({@code central.analise.celula}, em graus);</li>
+ * <li>distribuição por intervalo de tempo, num anel com os últimos {@code central.analise.intervalos}
+ *     intervalos de {@code central.analise.intervalo.minutos};</li>
+ * <li>contagem, temperatura e atividades de cada brinco.</li>
+ * </ul>
+ *
+ * Os contadores são {@link LongAdder}s, e as células do mapa de calor uma tabela
+ * atômica ({@link CellCounts}), então as threads que armazenam leituras não disputam travas; só o resumo de cada brinco usa a trava do próprio objeto. Uma
+ * consulta lê os contadores enquanto eles mudam, então os totais de um instantâneo
+ * podem diferir em algumas leituras entre si. Para períodos fora do anel, ou antes do
+ * último reinício, as consultas usam a varredura paralela do armazenamento ({@link HerdScan}).
+ */
+final class HerdAnalytics {
+
+    /**
+     * Versão concorrente de {@link HerdStats}.
+     */
+    private static final class Counters {
+        final LongAdder leituras = new LongAdder();
+        final DoubleAdder somaTemperatura = new DoubleAdder();
+        final LongAdder[] histograma = adders(HerdStats.BINS);
+        final LongAdder[] atividades = adders(Atividade.count());
+
+        private static LongAdder[] adders(int n) {
+            LongAdder[] adders = new LongAdder[n];
+            for (int i = 0; i < n; i++) {
+                adders[i] = new LongAdder();
+            }
+            return adders;
+        }
+
+        /**
+         * Acrescenta a leitura, com os resumos de janela tratados como em {@link HerdStats#add(Leitura)}.
+         */
+        void add(Leitura leitura) {
+            int amostras = leitura.getAmostras();
+            if (!leitura.isResumo() || amostras < 2) {
+                leituras.increment();
+                somaTemperatura.add(leitura.getTemperatura());
+                histograma[HerdStats.bin(leitura.getTemperatura())].increment();
+                atividades[leitura.getAtividade().ordinal()].increment();
+                return;
+            }
+            float min = leitura.getTemperaturaMin();
+            float max = leitura.getTemperaturaMax();
+            float outras = leitura.getTemperatura();
+            leituras.add(amostras);
+            somaTemperatura.add(min + max + (double) outras * (amostras - 2));
+            histograma[HerdStats.bin(min)].increment();
+            histograma[HerdStats.bin(max)].increment();
+            histograma[HerdStats.bin(outras)].add(amostras - 2);
+            for (Atividade atividade : Atividade.values()) {
+                atividades[atividade.ordinal()].add(leitura.getContagemAtividade(atividade));
+            }
+        }
+
+        void addTo(HerdStats stats) {
+            stats.leituras += leituras.sum();
+            stats.somaTemperatura += somaTemperatura.sum();
+            for (int i = 0; i < histograma.length; i++) {
+                stats.histograma[i] += histograma[i].sum();
+            }
+            for (int i = 0; i < atividades.length; i++) {
+                stats.atividades[i] += atividades[i].sum();
+            }
+        }
+
+        void reset() {
+            leituras.reset();
+            somaTemperatura.reset();
+            for (LongAdder adder : histograma) {
+                adder.reset();
+            }
+            for (LongAdder adder : atividades) {
+                adder.reset();
+            }
+        }
+    }
+
+    /**
+     * Leituras por célula do mapa de calor, com as chaves de {@link HerdReport#cellKey} sem
+     * boxing: tabela de endereçamento aberto e tamanho fixo (o dobro do limite de células),
+     * sem travas. Uma posição ocupada nunca muda de chave, então as buscas não precisam
+     * de trava e as células nunca são removidas.
+     */
+    private static final class CellCounts {
+        private static final long EMPTY = HerdReport.Cells.EMPTY;
+
+        private final AtomicLongArray keys;
+        private final AtomicLongArray counts;
+        private final AtomicInteger size = new AtomicInteger();
+        private final int maxCells;
+        private final int mask;
+
+        CellCounts(int maxCells) {
+            this.maxCells = Math.max(1, Math.min(maxCells, 1 << 29));
+            int capacity = Integer.highestOneBit(Math.max(2, 2 * this.maxCells - 1)) << 1;
+            this.keys = new AtomicLongArray(capacity);
+            this.counts = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                keys.set(i, EMPTY);
+            }
+        }
+
+        /**
+         * Soma as leituras na célula.
+         * @return false se a célula é nova e já há maxCells células.
+         */
+        boolean add(long key, long amount) {
+            int i = HerdReport.Cells.slot(key, mask);
+            while (true) {
+                long current = keys.get(i);
+                if (current == key) {
+                    counts.addAndGet(i, amount);
+                    return true;
+                }
+                if (current == EMPTY) {
+                    if (size.get() >= maxCells) {
+                        return false;
+                    }
+                    if (keys.compareAndSet(i, EMPTY, key)) {
+                        size.incrementAndGet();
+                        counts.addAndGet(i, amount);
+                        return true;
+                    }
+                    continue; // Outra thread ocupou a posição; confere a chave dela
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        int size() {
+            return size.get();
+        }
+
+        void addTo(HerdReport.Cells celulas) {
+            for (int i = 0; i <= mask; i++) {
+                long key = keys.get(i);
+                if (key != EMPTY) {
+                    celulas.add(key, counts.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Posição do anel de intervalos; reaproveitada quando chega uma leitura de um intervalo mais novo.
+     */
+    private static final class Bucket {
+        volatile long start = Long.MIN_VALUE;
+        final Counters counters = new Counters();
+    }
+
+    /**
+     * Resumo de um brinco; acessado com a trava do próprio objeto.
+     */
+    private static final class TagStats {
+        long leituras;
+        double somaTemperatura;
+        float ultimaTemperatura;
+        long ultimoTimestamp = Long.MIN_VALUE;
+        int area = -1;
+        final long[] atividades = new long[Atividade.count()];
+    }
+
+    private final GeofenceEngine geofences;
+    private final double cellSize = Double.parseDouble(System.getProperty("central.analise.celula", "0.0001"));
+    private final long bucketMs = TimeUnit.MINUTES.toMillis(Long.getLong("central.analise.intervalo.minutos", 60));
+    private final int maxCells = Integer.getInteger("central.analise.max.celulas", 100_000);
+
+    private final Counters rebanho = new Counters();
+    private final Counters[] areas; // Como em HerdReport.areas
+    private final CellCounts cells = new CellCounts(maxCells);
+    private final Bucket[] buckets;
+    private final ConcurrentHashMap<String, TagStats> tags = new ConcurrentHashMap<>();
+
+    // Leituras fora do mapa de calor por ele já ter central.analise.max.celulas células
+    private final LongAdder droppedCells = Metrics.counter("analise_celulas_descartadas");
+    // Leituras mais antigas que o anel de intervalos (ficam só nas demais análises)
+    private final LongAdder expired = Metrics.counter("analise_leituras_fora_dos_intervalos");
+
+    HerdAnalytics(GeofenceEngine geofences) {
+        this.geofences = geofences;
+        this.areas = new Counters[geofences.size() + 1];
+        for (int i = 0; i < areas.length; i++) {
+            areas[i] = new Counters();
+        }
+        this.buckets = new Bucket[Math.max(1, Integer.getInteger("central.analise.intervalos", 48))];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket();
+        }
+        Metrics.gauge("analise_brincos", tags::size);
+        Metrics.gauge("analise_celulas", cells::size);
+    }
+
+    /**
+     * Acrescenta a leitura já armazenada às análises.
+     * @param area Área do brinco ({@link GeofenceEngine#areaOf}); ignorada se a leitura não tiver localização.
+     */
+    void update(Leitura leitura, int area) {
+        boolean located = leitura.hasFlag(Leitura.FLAG_LOCALIZACAO);
+        rebanho.add(leitura);
+        if (located) {
+            areas[area < 0 ? areas.length - 1 : area].add(leitura);
+            addToCell(leitura);
+        }
+        addToBucket(leitura);
+
+        TagStats tag = tags.computeIfAbsent(leitura.getBrincoId(), id -> new TagStats());
+        synchronized (tag) {
+            int amostras = leitura.getAmostras();
+            tag.leituras += amostras;
+            tag.somaTemperatura += (double) leitura.getTemperatura() * amostras;
+            for (Atividade atividade : Atividade.values()) {
+                tag.atividades[atividade.ordinal()] += leitura.getContagemAtividade(atividade);
+            }
+            if (leitura.getTimestamp() >= tag.ultimoTimestamp) {
+                tag.ultimoTimestamp = leitura.getTimestamp();
+                tag.ultimaTemperatura = leitura.getTemperatura();
+                if (located) {
+                    tag.area = area;
+                }
+            }
+        }
+    }
+
+    private void addToCell(Leitura leitura) {
+        if (!cells.add(HerdReport.cellKey(leitura.getLat(), leitura.getLon(), cellSize), leitura.getAmostras())) {
+            droppedCells.add(leitura.getAmostras());
+        }
+    }
+
+    private void addToBucket(Leitura leitura) {
+        long start = Math.floorDiv(leitura.getTimestamp(), bucketMs) * bucketMs;
+        Bucket bucket = buckets[(int) Math.floorMod(start / bucketMs, (long) buckets.length)];
+        if (bucket.start != start) {
+            synchronized (bucket) {
+                if (bucket.start < start) {
+                    // Leituras de outras threads no intervalo anterior durante a troca podem cair no novo
+                    bucket.counters.reset();
+                    bucket.start = start;
+                } else if (bucket.start != start) {
+                    expired.add(leitura.getAmostras());
+                    return;
+                }
+            }
+        }
+        bucket.counters.add(leitura);
+    }
+
+    HerdReport newReport() {
+        return new HerdReport(geofences, cellSize, bucketMs);
+    }
+
+    /**
+     * Instantâneo das análises desde o início do nó.
+     */
+    HerdReport snapshot() {
+        HerdReport report = newReport();
+        rebanho.addTo(report.rebanho);
+        for (int i = 0; i < areas.length; i++) {
+            areas[i].addTo(report.area(i == areas.length - 1 ? -1 : i));
+        }
+        cells.addTo(report.celulas);
+        for (Bucket bucket : buckets) {
+            long start = bucket.start;
+            if (start != Long.MIN_VALUE) {
+                bucket.counters.addTo(report.interval(start));
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Resumo de um brinco, ou null se ele não tiver leituras desde o início do nó.
+     */
+    JSONObject tag(String brincoId) {
+        TagStats tag = tags.get(brincoId);
+        if (tag == null) {
+            return null;
+        }
+        JSONObject json = new JSONObject().put("brinco_id", brincoId);
+        synchronized (tag) {
+            JSONObject atividades = new JSONObject();
+            for (Atividade atividade : Atividade.values()) {
+                atividades.put(atividade.nome(), tag.atividades[atividade.ordinal()]);
+            }
+            json.put("leituras", tag.leituras)
+                    .put("temperatura_media", Math.round(tag.somaTemperatura / tag.leituras * 100) / 100.0)
+                    .put("ultima_temperatura", tag.ultimaTemperatura)
+                    .put("ultimo_timestamp", tag.ultimoTimestamp)
+                    .put("area", tag.area < 0 ? JSONObject.NULL : geofences.fence(tag.area).nome)
+                    .put("atividades", atividades);
+        }
+        return json;
+    }
+}
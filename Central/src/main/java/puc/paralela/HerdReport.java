@@ -0,0 +1,231 @@
+package puc.paralela;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import puc.paralela.codec.Atividade;
+import puc.paralela.codec.Leitura;
+
+/**
+ * Relatório do rebanho: a distribuição geral ({@link HerdStats}), por área (piquete
+ * ou fazenda, ver {@link GeofenceEngine#areaOf}), por célula da grade do mapa de
+ * calor e por intervalo de tempo.
+ *
+ * Produzido pelas análises incrementais ({@link HerdAnalytics#snapshot()}) e pelas
+ * varreduras do armazenamento ({@link ReadingStore#analyze}), com o mesmo formato.
+ * Não é thread-safe; relatórios parciais são combinados com {@link #merge}.
+ */
+final class HerdReport {
+    private final GeofenceEngine geofences;
+    private final double cellSize;
+    private final long bucketMs;
+
+    final HerdStats rebanho = new HerdStats();
+    final HerdStats[] areas; // Índice = id da cerca; a última posição é "fora das cercas"
+    final Cells celulas = new Cells(); // Chave de cellKey() -> leituras
+    final TreeMap<Long, HerdStats> intervalos = new TreeMap<>(); // Início do intervalo -> leituras nele
+
+    HerdReport(GeofenceEngine geofences, double cellSize, long bucketMs) {
+        this.geofences = geofences;
+        this.cellSize = cellSize;
+        this.bucketMs = bucketMs;
+        this.areas = new HerdStats[geofences.size() + 1];
+    }
+
+    /**
+     * Célula da grade do mapa de calor: índices de latitude e longitude num long.
+     */
+    static long cellKey(double lat, double lon, double cellSize) {
+        long row = (long) Math.floor(lat / cellSize);
+        long col = (long) Math.floor(lon / cellSize);
+        return row << 32 | (col & 0xffffffffL);
+    }
+
+    /**
+     * Acrescenta uma leitura lida das colunas do armazenamento, localizando-a nas cercas.
+     */
+    void add(long timestamp, boolean hasLocation, double lat, double lon, float temperatura, Atividade atividade) {
+        rebanho.add(temperatura, atividade);
+        interval(timestamp).add(temperatura, atividade);
+        if (hasLocation) {
+            area(geofences.locateArea(lat, lon)).add(temperatura, atividade);
+            celulas.add(cellKey(lat, lon, cellSize), 1);
+        }
+    }
+
+    /**
+     * Acrescenta uma leitura completa (incluindo resumos de janela), localizando-a nas cercas.
+     */
+    void add(Leitura leitura) {
+        rebanho.add(leitura);
+        interval(leitura.getTimestamp()).add(leitura);
+        if (leitura.hasFlag(Leitura.FLAG_LOCALIZACAO)) {
+            area(geofences.locateArea(leitura.getLat(), leitura.getLon())).add(leitura);
+            celulas.add(cellKey(leitura.getLat(), leitura.getLon(), cellSize), leitura.getAmostras());
+        }
+    }
+
+    /**
+     * Distribuição da área; -1 é "fora das cercas".
+     */
+    HerdStats area(int fenceId) {
+        int i = fenceId < 0 ? areas.length - 1 : fenceId;
+        HerdStats stats = areas[i];
+        if (stats == null) {
+            stats = areas[i] = new HerdStats();
+        }
+        return stats;
+    }
+
+    HerdStats interval(long timestamp) {
+        return intervalos.computeIfAbsent(Math.floorDiv(timestamp, bucketMs) * bucketMs, k -> new HerdStats());
+    }
+
+    HerdReport merge(HerdReport other) {
+        rebanho.merge(other.rebanho);
+        for (int i = 0; i < areas.length; i++) {
+            if (other.areas[i] != null) {
+                area(i == areas.length - 1 ? -1 : i).merge(other.areas[i]);
+            }
+        }
+        other.celulas.addTo(celulas);
+        other.intervalos.forEach((start, stats) -> interval(start).merge(stats));
+        return this;
+    }
+
+    /**
+     * @param maxCells Máximo de células do mapa de calor no resultado (as com mais leituras).
+     */
+    JSONObject toJson(int maxCells) {
+        JSONObject json = rebanho.toJson(true);
+
+        JSONArray areasJson = new JSONArray();
+        for (int i = 0; i < areas.length; i++) {
+            if (areas[i] == null || areas[i].leituras == 0) {
+                continue;
+            }
+            JSONObject area = areas[i].toJson(true);
+            if (i < areas.length - 1) {
+                Geofence fence = geofences.fence(i);
+                area.put("cerca", fence.nome).put("fazenda", fence.fazenda).put("tipo", fence.tipo.name().toLowerCase(Locale.ROOT));
+            } else {
+                area.put("cerca", JSONObject.NULL);
+            }
+            areasJson.put(area);
+        }
+        json.put("areas", areasJson);
+
+        List<long[]> cells = celulas.entries();
+        cells.sort((a, b) -> Long.compare(b[1], a[1]));
+        JSONArray cellsJson = new JSONArray();
+        for (long[] cell : cells.subList(0, Math.min(maxCells, cells.size()))) {
+            long key = cell[0];
+            // Centro da célula
+            cellsJson.put(new JSONObject()
+                    .put("lat", ((key >> 32) + 0.5) * cellSize)
+                    .put("lon", ((int) key + 0.5) * cellSize)
+                    .put("leituras", cell[1]));
+        }
+        json.put("mapa", new JSONObject().put("celula", cellSize).put("total_celulas", celulas.size()).put("celulas", cellsJson));
+
+        JSONArray intervals = new JSONArray();
+        intervalos.forEach((start, stats) -> intervals.put(stats.toJson(false).put("inicio", start)));
+        json.put("intervalo_ms", bucketMs).put("intervalos", intervals);
+        return json;
+    }
+
+    /**
+     * Leituras por célula numa tabela de endereçamento aberto com chaves long, sem um Long
+     * por leitura como num HashMap; cresce quando passa da metade. Não é thread-safe.
+     */
+    static final class Cells {
+        // Posição livre; cellKey só gera este valor para latitudes muito fora do globo
+        static final long EMPTY = Long.MIN_VALUE;
+
+        private long[] keys;
+        private long[] counts;
+        private int size;
+
+        Cells() {
+            keys = new long[64];
+            counts = new long[64];
+            Arrays.fill(keys, EMPTY);
+        }
+
+        void add(long key, long amount) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (keys[i] != key) {
+                if (keys[i] == EMPTY) {
+                    if (2 * (size + 1) > keys.length) {
+                        grow();
+                        add(key, amount);
+                        return;
+                    }
+                    keys[i] = key;
+                    size++;
+                    break;
+                }
+                i = (i + 1) & mask;
+            }
+            counts[i] += amount;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Soma estas células em {@code other}.
+         */
+        void addTo(Cells other) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    other.add(keys[i], counts[i]);
+                }
+            }
+        }
+
+        /**
+         * Pares {chave, leituras}, um por célula.
+         */
+        List<long[]> entries() {
+            List<long[]> entries = new ArrayList<>(size);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    entries.add(new long[] {keys[i], counts[i]});
+                }
+            }
+            return entries;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            counts = new long[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] != EMPTY) {
+                    int i = slot(oldKeys[j], mask);
+                    while (keys[i] != EMPTY) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    counts[i] = oldCounts[j];
+                }
+            }
+        }
+
+        static int slot(long key, int mask) {
+            long z = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return (int) ((z ^ (z >>> 31)) >>> 32) & mask;
+        }
+    }
+}
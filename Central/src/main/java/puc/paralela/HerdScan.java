@@ -0,0 +1,108 @@
+package puc.paralela;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+import puc.paralela.codec.Leitura;
+import puc.paralela.comum.LatencyHistogram;
+import puc.paralela.comum.Metrics;
+
+/**
+ * Varredura paralela (fork/join) dos segmentos do {@link MappedReadingStore} para os
+ * relatórios históricos do rebanho.
+ *
+ * Os segmentos que têm leituras no período são divididos em blocos de
+ * {@code central.analise.bloco} linhas; a tarefa divide a lista de blocos ao meio até
+ * chegar a um bloco, que é lido direto das colunas (sem montar uma {@link Leitura} por
+ * linha) num {@link HerdReport} próprio, e os relatórios parciais são combinados na volta.
+ * As tarefas rodam num pool de {@code central.analise.threads} threads (padrão: um por
+ * processador), separado do pool comum.
+ */
+final class HerdScan extends RecursiveTask<HerdReport> {
+    private static final int BLOCK_ROWS = Math.max(1024, Integer.getInteger("central.analise.bloco", 1 << 16));
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Integer.getInteger("central.analise.threads", Runtime.getRuntime().availableProcessors()));
+    private static final LatencyHistogram SCAN_MS = Metrics.histogram("analise_varredura_ms");
+
+    /**
+     * Linhas [from, to) de um segmento.
+     */
+    private static final class Block {
+        final StoreSegment segment;
+        final int from;
+        final int to;
+
+        Block(StoreSegment segment, int from, int to) {
+            this.segment = segment;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final List<Block> blocks;
+    private final int low;
+    private final int high;
+    private final long fromMs;
+    private final long toMs;
+    private final Supplier<HerdReport> factory;
+
+    private HerdScan(List<Block> blocks, int low, int high, long fromMs, long toMs, Supplier<HerdReport> factory) {
+        this.blocks = blocks;
+        this.low = low;
+        this.high = high;
+        this.fromMs = fromMs;
+        this.toMs = toMs;
+        this.factory = factory;
+    }
+
+    /**
+     * Agrega as leituras com timestamp em [fromMs, toMs] dos segmentos.
+     */
+    static HerdReport run(List<StoreSegment> segments, long fromMs, long toMs, Supplier<HerdReport> factory) {
+        long start = System.nanoTime();
+        List<Block> blocks = new ArrayList<>();
+        for (StoreSegment segment : segments) {
+            if (segment.maxTimestamp() < fromMs || segment.minTimestamp() > toMs) {
+                continue;
+            }
+            int count = segment.count(); // Linhas gravadas depois deste ponto ficam de fora
+            for (int row = 0; row < count; row += BLOCK_ROWS) {
+                blocks.add(new Block(segment, row, Math.min(count, row + BLOCK_ROWS)));
+            }
+        }
+        HerdReport report = blocks.isEmpty() ? factory.get()
+                : POOL.invoke(new HerdScan(blocks, 0, blocks.size(), fromMs, toMs, factory));
+        SCAN_MS.record((System.nanoTime() - start) / 1_000_000);
+        return report;
+    }
+
+    @Override
+    protected HerdReport compute() {
+        if (high - low == 1) {
+            return scan(blocks.get(low));
+        }
+        int mid = (low + high) >>> 1;
+        HerdScan left = new HerdScan(blocks, low, mid, fromMs, toMs, factory);
+        left.fork();
+        HerdReport right = new HerdScan(blocks, mid, high, fromMs, toMs, factory).compute();
+        return left.join().merge(right);
+    }
+
+    private HerdReport scan(Block block) {
+        HerdReport report = factory.get();
+        StoreSegment segment = block.segment;
+        for (int row = block.from; row < block.to; row++) {
+            if (!segment.isPresent(row)) {
+                continue;
+            }
+            long timestamp = segment.timestamp(row);
+            if (timestamp >= fromMs && timestamp <= toMs) {
+                report.add(timestamp, (segment.flags(row) & Leitura.FLAG_LOCALIZACAO) != 0,
+                        segment.lat(row), segment.lon(row), segment.temperatura(row), segment.atividade(row));
+            }
+        }
+        return report;
+    }
+}
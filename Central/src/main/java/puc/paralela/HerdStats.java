@@ -0,0 +1,132 @@
+package puc.paralela;
+
+import java.util.Locale;
+import org.json.JSONObject;
+import puc.paralela.codec.Atividade;
+import puc.paralela.codec.Leitura;
+
+/**
+ * Distribuição de temperatura e contagem de atividades de um conjunto de leituras.
+ *
+ * A temperatura é guardada num histograma de 0,1 °C entre 30,0 e 44,9 °C (valores
+ * fora da faixa vão para as pontas), então a média é exata e os percentis, mínimo e
+ * máximo têm a resolução do histograma. Não é thread-safe: cada thread de uma
+ * varredura acumula na sua instância e as instâncias são combinadas com {@link #merge}.
+ */
+final class HerdStats {
+    static final float MIN_TEMPERATURA = 30.0f;
+    static final int BINS = 150;
+
+    long leituras;
+    double somaTemperatura;
+    final long[] histograma = new long[BINS];
+    final long[] atividades = new long[Atividade.count()];
+
+    /**
+     * Faixa do histograma em que cai a temperatura.
+     */
+    static int bin(float temperatura) {
+        int bin = (int) Math.floor((temperatura - MIN_TEMPERATURA) * 10 + 1e-3);
+        return bin < 0 ? 0 : Math.min(bin, BINS - 1);
+    }
+
+    static float temperaturaDoBin(int bin) {
+        return MIN_TEMPERATURA + bin / 10f;
+    }
+
+    void add(float temperatura, Atividade atividade) {
+        leituras++;
+        somaTemperatura += temperatura;
+        histograma[bin(temperatura)]++;
+        atividades[atividade.ordinal()]++;
+    }
+
+    /**
+     * Acrescenta uma leitura. Um resumo de janela conta como todas as leituras que
+     * representa: a mínima e a máxima da janela uma vez cada, e a temperatura do resumo
+     * (a última da janela) para as demais.
+     */
+    void add(Leitura leitura) {
+        if (!leitura.isResumo() || leitura.getAmostras() < 2) {
+            add(leitura.getTemperatura(), leitura.getAtividade());
+            return;
+        }
+        int amostras = leitura.getAmostras();
+        float min = leitura.getTemperaturaMin();
+        float max = leitura.getTemperaturaMax();
+        float outras = leitura.getTemperatura();
+        leituras += amostras;
+        somaTemperatura += min + max + (double) outras * (amostras - 2);
+        histograma[bin(min)]++;
+        histograma[bin(max)]++;
+        histograma[bin(outras)] += amostras - 2;
+        for (Atividade atividade : Atividade.values()) {
+            atividades[atividade.ordinal()] += leitura.getContagemAtividade(atividade);
+        }
+    }
+
+    void merge(HerdStats other) {
+        leituras += other.leituras;
+        somaTemperatura += other.somaTemperatura;
+        for (int i = 0; i < BINS; i++) {
+            histograma[i] += other.histograma[i];
+        }
+        for (int i = 0; i < atividades.length; i++) {
+            atividades[i] += other.atividades[i];
+        }
+    }
+
+    /**
+     * Temperatura abaixo da qual está a fração {@code q} das leituras, com resolução de 0,1 °C.
+     */
+    float percentil(double q) {
+        long total = 0;
+        for (long n : histograma) {
+            total += n;
+        }
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < BINS; i++) {
+            seen += histograma[i];
+            if (seen >= Math.max(1, rank)) {
+                return temperaturaDoBin(i);
+            }
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * @param histogram Se inclui o histograma (só as faixas com leituras, "38.5": n).
+     */
+    JSONObject toJson(boolean histogram) {
+        JSONObject json = new JSONObject().put("leituras", leituras);
+        JSONObject atividadesJson = new JSONObject();
+        for (Atividade atividade : Atividade.values()) {
+            atividadesJson.put(atividade.nome(), atividades[atividade.ordinal()]);
+        }
+        if (leituras > 0) {
+            JSONObject temperatura = new JSONObject()
+                    .put("media", round(somaTemperatura / leituras))
+                    .put("min", round(percentil(0)))
+                    .put("p50", round(percentil(0.5)))
+                    .put("p90", round(percentil(0.9)))
+                    .put("p99", round(percentil(0.99)))
+                    .put("max", round(percentil(1)));
+            if (histogram) {
+                JSONObject bins = new JSONObject();
+                for (int i = 0; i < BINS; i++) {
+                    if (histograma[i] > 0) {
+                        bins.put(String.format(Locale.ROOT, "%.1f", temperaturaDoBin(i)), histograma[i]);
+                    }
+                }
+                temperatura.put("histograma", bins);
+            }
+            json.put("temperatura", temperatura);
+        }
+        return json.put("atividades", atividadesJson);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,90 @@
+package puc.paralela;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Índice do estado mais recente de cada brinco. Para cada índice do
+ * {@link TagDictionary} guarda duas posições (ver {@link StoreSegment#location}):
+ * a da última leitura gravada, início do encadeamento usado no histórico, e a da
+ * leitura com o maior timestamp, que pode ser outra quando as leituras chegam fora
+ * de ordem. Fica num arquivo mapeado em memória, de forma que sobrevive a reinícios
+ * sem reprocessar os segmentos.
+ *
+ * Atualizações usam getAndSet e compareAndSet atômicos e leituras são voláteis, sem travas.
+ */
+final class LatestIndex {
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int capacity;
+
+    LatestIndex(Path path, int capacity) throws IOException {
+        this.capacity = capacity;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // As posições mais novas ficam depois das últimas gravadas
+        this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * 16);
+    }
+
+    /**
+     * Registra a nova posição da última leitura gravada do brinco.
+     * @return a posição anterior (0 se for a primeira leitura do brinco).
+     */
+    long getAndSet(int brincoIndex, long location) {
+        checkIndex(brincoIndex);
+        return (long) LONGS.getAndSet(map, brincoIndex * 8, location);
+    }
+
+    /**
+     * Posição da última leitura gravada do brinco, ou 0 se não houver nenhuma.
+     */
+    long get(int brincoIndex) {
+        if (brincoIndex < 0 || brincoIndex >= capacity) {
+            return 0;
+        }
+        return (long) LONGS.getVolatile(map, brincoIndex * 8);
+    }
+
+    /**
+     * Posição da leitura do brinco com o maior timestamp, ou 0 se ainda não registrada.
+     */
+    long newest(int brincoIndex) {
+        if (brincoIndex < 0 || brincoIndex >= capacity) {
+            return 0;
+        }
+        return (long) LONGS.getVolatile(map, newestOffset(brincoIndex));
+    }
+
+    /**
+     * Troca a posição da leitura mais nova do brinco se ela ainda for {@code expected}.
+     */
+    boolean compareAndSetNewest(int brincoIndex, long expected, long location) {
+        checkIndex(brincoIndex);
+        return LONGS.compareAndSet(map, newestOffset(brincoIndex), expected, location);
+    }
+
+    private int newestOffset(int brincoIndex) {
+        return (capacity + brincoIndex) * 8;
+    }
+
+    private void checkIndex(int brincoIndex) {
+        if (brincoIndex >= capacity) {
+            throw new IllegalStateException("Limite de " + capacity + " brincos do índice atingido (ajuste -Dcentral.storage.max.brincos)");
+        }
+    }
+
+    void force() {
+        map.force();
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,324 @@
+package puc.paralela;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import puc.paralela.codec.Leitura;
+import puc.paralela.comum.Log;
+
+/**
+ * Armazenamento só de acréscimo em segmentos mapeados em memória ({@link StoreSegment}).
+ *
+ * As leituras ficam fora do heap: o heap guarda apenas a lista de segmentos e o
+ * dicionário de brincos, independentemente de quantas leituras são mantidas.
+ * Na inicialização os segmentos existentes são apenas mapeados de novo, sem
+ * reprocessar as leituras. Quando o segmento ativo enche, um novo é criado; os
+ * segmentos cujas leituras são mais antigas que a retenção configurada são apagados.
+ *
+ * Consultas por brinco usam o {@link LatestIndex} (posição da última leitura de
+ * cada brinco) e o encadeamento das leituras do mesmo brinco nos segmentos,
+ * visitando só as leituras do animal consultado.
+ */
+class MappedReadingStore implements ReadingStore {
+    private static final String SEGMENT_PREFIX = "segmento-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final long MAINTENANCE_INTERVAL_SECONDS = 5;
+    // Tolerância para leituras que chegam fora de ordem ao percorrer o histórico de um brinco
+    private static final long OUT_OF_ORDER_SLACK_MS = 60_000;
+    private static final int MAX_SPINS_FOR_PENDING_ROW = 10_000;
+
+    private final Path dir;
+    private final int segmentRecords;
+    private final long retentionMs; // 0 = sem limite
+    private final TagDictionary tags;
+    private final LatestIndex latestIndex;
+    private final CopyOnWriteArrayList<StoreSegment> segments = new CopyOnWriteArrayList<>();
+    private final Thread maintenance;
+    private volatile StoreSegment active;
+
+    MappedReadingStore(Path dir, int segmentRecords, long retentionMs, int maxBrincos) throws IOException {
+        if (segmentRecords <= 0 || segmentRecords > StoreSegment.MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacidade de segmento inválida: " + segmentRecords);
+        }
+        this.dir = dir;
+        this.segmentRecords = segmentRecords;
+        this.retentionMs = retentionMs;
+        Files.createDirectories(dir);
+        this.tags = new TagDictionary(dir.resolve("brincos.dict"));
+        this.latestIndex = new LatestIndex(dir.resolve("ultimas.idx"), maxBrincos);
+        recover();
+
+        maintenance = new Thread(this::maintenanceLoop, "manutencao-armazenamento");
+        maintenance.setDaemon(true);
+        maintenance.start();
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(MappedReadingStore::sequenceOf));
+        for (Path file : files) {
+            segments.add(StoreSegment.open(file, sequenceOf(file)));
+        }
+        if (segments.isEmpty() || segments.get(segments.size() - 1).isFull()) {
+            long next = segments.isEmpty() ? 1 : segments.get(segments.size() - 1).sequence + 1;
+            segments.add(StoreSegment.create(segmentPath(next), next, segmentRecords));
+        }
+        active = segments.get(segments.size() - 1);
+        Log.info("Nó Central: armazenamento em {} com {} segmento(s), {} leituras e {} brincos recuperados.",
+                dir.toAbsolutePath(), segments.size(), size(), tags.size());
+    }
+
+    @Override
+    public void append(Leitura leitura) {
+        int brincoIndex = tags.indexOf(leitura.getBrincoId());
+        while (true) {
+            StoreSegment segment = active;
+            int row = segment.reserve();
+            if (row >= 0) {
+                long location = StoreSegment.location(segment.sequence, row);
+                long previous = latestIndex.getAndSet(brincoIndex, location);
+                segment.write(row, leitura, brincoIndex, previous);
+                advanceNewest(brincoIndex, location, leitura.getTimestamp());
+                return;
+            }
+            roll(segment);
+        }
+    }
+
+    /**
+     * Aponta a leitura mais nova do brinco para a linha recém-gravada, a menos que a
+     * atual tenha um timestamp maior (a leitura chegou fora de ordem). A linha atual
+     * já está completa, pois só é registrada depois de gravada.
+     */
+    private void advanceNewest(int brincoIndex, long location, long timestamp) {
+        while (true) {
+            long current = latestIndex.newest(brincoIndex);
+            StoreSegment segment = segmentAt(current);
+            if (segment != null && segment.timestamp(StoreSegment.rowOf(current)) > timestamp) {
+                return;
+            }
+            if (latestIndex.compareAndSetNewest(brincoIndex, current, location)) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void roll(StoreSegment full) {
+        if (active != full) {
+            return; // Outra thread já criou o próximo segmento
+        }
+        full.persistHeader();
+        long next = full.sequence + 1;
+        try {
+            StoreSegment segment = StoreSegment.create(segmentPath(next), next, segmentRecords);
+            segments.add(segment);
+            active = segment;
+        } catch (IOException e) {
+            throw new IllegalStateException("Erro ao criar o segmento " + next + ": " + e.getMessage(), e);
+        }
+        Log.info("Nó Central: segmento {} completo; gravando no segmento {}.", full.sequence, next);
+    }
+
+    @Override
+    public long size() {
+        long total = 0;
+        for (StoreSegment segment : segments) {
+            total += segment.count();
+        }
+        return total;
+    }
+
+    @Override
+    public void scan(long fromMs, long toMs, Consumer<Leitura> visitor) {
+        Leitura leitura = new Leitura();
+        for (StoreSegment segment : segments) {
+            if (segment.maxTimestamp() < fromMs || segment.minTimestamp() > toMs) {
+                continue;
+            }
+            int count = segment.count();
+            for (int row = 0; row < count; row++) {
+                if (!segment.isPresent(row)) {
+                    continue;
+                }
+                long timestamp = segment.timestamp(row);
+                if (timestamp >= fromMs && timestamp <= toMs) {
+                    segment.read(row, leitura, tags);
+                    visitor.accept(leitura);
+                }
+            }
+        }
+    }
+
+    /**
+     * Varredura paralela dos segmentos, ver {@link HerdScan}. Os resumos de janela contam
+     * como uma leitura, pois a quantidade de amostras não é gravada nos segmentos.
+     */
+    @Override
+    public HerdReport analyze(long fromMs, long toMs, Supplier<HerdReport> factory) {
+        return HerdScan.run(segments, fromMs, toMs, factory);
+    }
+
+    @Override
+    public boolean latest(String brincoId, Leitura into) {
+        int brincoIndex = tags.find(brincoId);
+        long location = latestIndex.newest(brincoIndex);
+        StoreSegment segment = segmentAt(location);
+        if (segment == null || !awaitRow(segment, StoreSegment.rowOf(location))) {
+            return false;
+        }
+        segment.read(StoreSegment.rowOf(location), into, tags);
+        return true;
+    }
+
+    @Override
+    public void history(String brincoId, long fromMs, long toMs, Consumer<Leitura> visitor) {
+        Leitura leitura = new Leitura();
+        long location = latestIndex.get(tags.find(brincoId));
+        while (location != 0) {
+            StoreSegment segment = segmentAt(location);
+            int row = StoreSegment.rowOf(location);
+            if (segment == null || !awaitRow(segment, row)) {
+                return; // Segmento removido pela retenção ou linha perdida numa queda
+            }
+            long timestamp = segment.timestamp(row);
+            if (timestamp < fromMs - OUT_OF_ORDER_SLACK_MS) {
+                return;
+            }
+            if (timestamp >= fromMs && timestamp <= toMs) {
+                segment.read(row, leitura, tags);
+                visitor.accept(leitura);
+            }
+            location = segment.previousLocation(row);
+        }
+    }
+
+    /**
+     * Segmento que contém a posição, ou null se ele não existir (mais).
+     */
+    private StoreSegment segmentAt(long location) {
+        if (location == 0) {
+            return null;
+        }
+        long sequence = StoreSegment.sequenceOf(location);
+        List<StoreSegment> current = segments;
+        int low = 0;
+        int high = current.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            StoreSegment segment;
+            try {
+                segment = current.get(mid);
+            } catch (IndexOutOfBoundsException e) {
+                return null; // Segmento removido durante a busca
+            }
+            if (segment.sequence < sequence) {
+                low = mid + 1;
+            } else if (segment.sequence > sequence) {
+                high = mid - 1;
+            } else {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Uma linha apontada pelo índice pode ainda estar sendo gravada por outra
+     * thread; espera alguns instantes até ela ficar completa.
+     */
+    private static boolean awaitRow(StoreSegment segment, int row) {
+        for (int i = 0; i < MAX_SPINS_FOR_PENDING_ROW; i++) {
+            if (segment.isPresent(row)) {
+                return true;
+            }
+            Thread.onSpinWait();
+        }
+        return false;
+    }
+
+    /**
+     * Segmentos atuais, do mais antigo para o mais novo.
+     */
+    List<StoreSegment> segments() {
+        return segments;
+    }
+
+    TagDictionary tags() {
+        return tags;
+    }
+
+    private void maintenanceLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                TimeUnit.SECONDS.sleep(MAINTENANCE_INTERVAL_SECONDS);
+                flush();
+                applyRetention();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                Log.error("Erro na manutenção do armazenamento do Nó Central: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        StoreSegment segment = active;
+        segment.persistHeader();
+        segment.force();
+        latestIndex.force();
+        tags.force();
+    }
+
+    private void applyRetention() throws IOException {
+        if (retentionMs <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - retentionMs;
+        for (StoreSegment segment : segments) {
+            if (segment != active && segment.maxTimestamp() < cutoff) {
+                segments.remove(segment);
+                segment.close();
+                Files.deleteIfExists(segment.path);
+                Log.info("Nó Central: segmento {} removido pela política de retenção.", segment.sequence);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        maintenance.interrupt();
+        try {
+            for (StoreSegment segment : segments) {
+                segment.persistHeader();
+                segment.force();
+                segment.close();
+            }
+            latestIndex.force();
+            latestIndex.close();
+            tags.force();
+            tags.close();
+        } catch (IOException e) {
+            Log.error("Erro ao fechar o armazenamento do Nó Central: {}", e.getMessage());
+        }
+    }
+
+    private Path segmentPath(long sequence) {
+        return dir.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,64 @@
+package puc.paralela;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.function.Consumer;
+import puc.paralela.codec.Leitura;
+
+/**
+ * Armazenamento original do Nó Central: uma lista em memória protegida por uma
+ * trava global, sem persistência. As consultas por brinco percorrem a lista
+ * inteira; para volumes reais use o {@link MappedReadingStore}.
+ */
+class MemoryReadingStore implements ReadingStore {
+    private final LinkedList<Leitura> database = new LinkedList<>();
+
+    @Override
+    public synchronized void append(Leitura leitura) {
+        Leitura copy = new Leitura();
+        copy.copyFrom(leitura);
+        database.add(copy);
+    }
+
+    @Override
+    public synchronized long size() {
+        return database.size();
+    }
+
+    @Override
+    public synchronized void scan(long fromMs, long toMs, Consumer<Leitura> visitor) {
+        for (Leitura leitura : database) {
+            if (leitura.getTimestamp() >= fromMs && leitura.getTimestamp() <= toMs) {
+                visitor.accept(leitura);
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean latest(String brincoId, Leitura into) {
+        Iterator<Leitura> it = database.descendingIterator();
+        while (it.hasNext()) {
+            Leitura leitura = it.next();
+            if (leitura.getBrincoId().equals(brincoId)) {
+                into.copyFrom(leitura);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void history(String brincoId, long fromMs, long toMs, Consumer<Leitura> visitor) {
+        Iterator<Leitura> it = database.descendingIterator();
+        while (it.hasNext()) {
+            Leitura leitura = it.next();
+            if (leitura.getBrincoId().equals(brincoId) && leitura.getTimestamp() >= fromMs && leitura.getTimestamp() <= toMs) {
+                visitor.accept(leitura);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
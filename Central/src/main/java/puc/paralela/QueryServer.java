@@ -0,0 +1,194 @@
+package puc.paralela;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import puc.paralela.codec.Leitura;
+import puc.paralela.comum.Log;
+
+/**
+ * Endpoint HTTP local (somente 127.0.0.1) para consultas às leituras armazenadas:
+ *
+ * <pre>
+ * GET /brincos/{id}                         última leitura do brinco
+ * GET /brincos/{id}/historico?horas=24      leituras das últimas N horas (mais novas primeiro)
+ * GET /brincos/{id}/historico?de=ms&ate=ms  leituras num intervalo de timestamps
+ * GET /analises/rebanho                     análises mantidas a cada leitura desde o início do nó
+ * GET /analises/brincos/{id}                resumo de um brinco desde o início do nó
+ * GET /analises/historico?horas=24          varredura paralela do armazenamento nas últimas N horas
+ * GET /analises/historico?de=ms&ate=ms      ... ou num intervalo de timestamps
+ * </pre>
+ *
+ * Os relatórios do rebanho ({@link HerdReport}) aceitam ?celulas=N, o máximo de células do
+ * mapa de calor no resultado (padrão 500). O tempo gasto na consulta ao armazenamento (ou às
+ * análises) é devolvido no cabeçalho X-Tempo-Consulta-us.
+ */
+class QueryServer {
+    private static final String PREFIX = "/brincos/";
+    private static final String ANALYTICS_PREFIX = "/analises/";
+
+    private final ReadingStore store;
+    private final HerdAnalytics analytics;
+    private final HttpServer server;
+
+    QueryServer(ReadingStore store, HerdAnalytics analytics, int port) throws IOException {
+        this.store = store;
+        this.analytics = analytics;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext(PREFIX, exchange -> respond(exchange, this::handleReadings));
+        this.server.createContext(ANALYTICS_PREFIX, exchange -> respond(exchange, this::handleAnalytics));
+        this.server.setExecutor(Executors.newFixedThreadPool(2));
+    }
+
+    void start() {
+        server.start();
+        Log.info("Nó Central: consultas disponíveis em http://127.0.0.1:{}{} e {}", server.getAddress().getPort(), PREFIX + "{id}",
+                ANALYTICS_PREFIX);
+    }
+
+    /**
+     * Responde a consulta; um parâmetro inválido (ex.: ?horas=abc) vira 400. A troca só é
+     * fechada depois da resposta de erro.
+     */
+    private static void respond(HttpExchange exchange, HttpHandler handler) throws IOException {
+        try (exchange) {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    send(exchange, 405, new JSONObject().put("erro", "Use GET"), 0);
+                    return;
+                }
+                handler.handle(exchange);
+            } catch (RuntimeException e) {
+                send(exchange, 400, new JSONObject().put("erro", String.valueOf(e.getMessage())), 0);
+            }
+        }
+    }
+
+    private void handleReadings(HttpExchange exchange) throws IOException {
+        String[] parts = exchange.getRequestURI().getPath().substring(PREFIX.length()).split("/");
+        String brincoId = URLDecoder.decode(parts[0], StandardCharsets.UTF_8);
+        if (brincoId.isEmpty() || parts.length > 2 || (parts.length == 2 && !"historico".equals(parts[1]))) {
+            send(exchange, 404, new JSONObject().put("erro", "Caminho desconhecido"), 0);
+            return;
+        }
+        if (parts.length == 1) {
+            handleLatest(exchange, brincoId);
+        } else {
+            handleHistory(exchange, brincoId, parseQuery(exchange.getRequestURI().getRawQuery()));
+        }
+    }
+
+    private void handleAnalytics(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath().substring(ANALYTICS_PREFIX.length());
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        int maxCells = Integer.parseInt(query.getOrDefault("celulas", "500"));
+        long start = System.nanoTime();
+        if ("rebanho".equals(path)) {
+            JSONObject report = analytics.snapshot().toJson(maxCells);
+            send(exchange, 200, report, System.nanoTime() - start);
+        } else if ("historico".equals(path)) {
+            long[] range = parseRange(query);
+            JSONObject report = store.analyze(range[0], range[1], analytics::newReport).toJson(maxCells);
+            send(exchange, 200, report.put("de", range[0]).put("ate", range[1]), System.nanoTime() - start);
+        } else if (path.startsWith("brincos/") && path.indexOf('/', "brincos/".length()) < 0) {
+            String brincoId = URLDecoder.decode(path.substring("brincos/".length()), StandardCharsets.UTF_8);
+            JSONObject tag = analytics.tag(brincoId);
+            if (tag == null) {
+                send(exchange, 404, new JSONObject().put("erro", "Brinco sem leituras: " + brincoId), System.nanoTime() - start);
+            } else {
+                send(exchange, 200, tag, System.nanoTime() - start);
+            }
+        } else {
+            send(exchange, 404, new JSONObject().put("erro", "Caminho desconhecido"), 0);
+        }
+    }
+
+    private void handleLatest(HttpExchange exchange, String brincoId) throws IOException {
+        Leitura leitura = new Leitura();
+        long start = System.nanoTime();
+        boolean found = store.latest(brincoId, leitura);
+        long elapsed = System.nanoTime() - start;
+        if (!found) {
+            send(exchange, 404, new JSONObject().put("erro", "Brinco sem leituras: " + brincoId), elapsed);
+            return;
+        }
+        send(exchange, 200, toJson(leitura).put("brinco_id", brincoId), elapsed);
+    }
+
+    private void handleHistory(HttpExchange exchange, String brincoId, Map<String, String> query) throws IOException {
+        long[] range = parseRange(query);
+        long from = range[0];
+        long to = range[1];
+        JSONArray leituras = new JSONArray();
+        long start = System.nanoTime();
+        store.history(brincoId, from, to, leitura -> leituras.put(toJson(leitura)));
+        long elapsed = System.nanoTime() - start;
+        send(exchange, 200, new JSONObject().put("brinco_id", brincoId).put("de", from).put("ate", to)
+                .put("total", leituras.length()).put("leituras", leituras), elapsed);
+    }
+
+    /**
+     * Intervalo [de, ate] da consulta: ?de=ms&ate=ms ou as últimas ?horas=N (padrão 24).
+     */
+    private static long[] parseRange(Map<String, String> query) {
+        long now = System.currentTimeMillis();
+        if (query.containsKey("de") || query.containsKey("ate")) {
+            return new long[] {Long.parseLong(query.getOrDefault("de", "0")),
+                    Long.parseLong(query.getOrDefault("ate", String.valueOf(now)))};
+        }
+        return new long[] {now - TimeUnit.HOURS.toMillis(Long.parseLong(query.getOrDefault("horas", "24"))), now};
+    }
+
+    private static JSONObject toJson(Leitura leitura) {
+        JSONObject data = new JSONObject();
+        data.put("timestamp", leitura.getTimestamp());
+        if (leitura.hasFlag(Leitura.FLAG_LOCALIZACAO)) {
+            data.put("lat", leitura.getLat());
+            data.put("lon", leitura.getLon());
+        }
+        data.put("temperatura", leitura.getTemperatura());
+        data.put("atividade", leitura.getAtividade().nome());
+        data.put("alerta_febre", leitura.hasFlag(Leitura.FLAG_ALERTA_FEBRE));
+        data.put("alerta_inatividade", leitura.hasFlag(Leitura.FLAG_ALERTA_INATIVIDADE));
+        data.put("alerta_deriva", leitura.hasFlag(Leitura.FLAG_ALERTA_DERIVA));
+        data.put("fora_da_fazenda", leitura.hasFlag(Leitura.FLAG_FORA_DA_FAZENDA));
+        return data;
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static void send(HttpExchange exchange, int status, JSONObject body, long elapsedNanos) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("X-Tempo-Consulta-us", String.valueOf(TimeUnit.NANOSECONDS.toMicros(elapsedNanos)));
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
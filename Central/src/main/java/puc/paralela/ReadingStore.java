@@ -0,0 +1,70 @@
+package puc.paralela;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import puc.paralela.codec.Leitura;
+
+/**
+ * Mecanismo de armazenamento das leituras do Nó Central.
+ *
+ * A implementação é escolhida por -Dcentral.storage: "mapped" (padrão, arquivos
+ * segmentados mapeados em memória, ver {@link MappedReadingStore}) ou "memory"
+ * (lista em memória, o comportamento original, sem persistência).
+ */
+interface ReadingStore {
+
+    /**
+     * Armazena uma cópia da leitura. Pode ser chamado por várias threads ao mesmo tempo.
+     */
+    void append(Leitura leitura);
+
+    /**
+     * Número de leituras armazenadas (desconsiderando as já removidas pela retenção).
+     */
+    long size();
+
+    /**
+     * Percorre, em ordem de chegada, as leituras com timestamp em [fromMs, toMs].
+     * A instância passada ao visitante é reaproveitada e só é válida durante a chamada.
+     */
+    void scan(long fromMs, long toMs, Consumer<Leitura> visitor);
+
+    /**
+     * Preenche {@code into} com a leitura mais recente do brinco.
+     * @return false se o brinco não tiver leituras armazenadas.
+     */
+    boolean latest(String brincoId, Leitura into);
+
+    /**
+     * Percorre as leituras do brinco com timestamp em [fromMs, toMs], da mais nova
+     * para a mais antiga. A instância passada ao visitante é reaproveitada.
+     */
+    void history(String brincoId, long fromMs, long toMs, Consumer<Leitura> visitor);
+
+    /**
+     * Agrega as leituras com timestamp em [fromMs, toMs] num relatório criado por {@code factory}.
+     * A implementação padrão percorre {@link #scan} numa só thread.
+     */
+    default HerdReport analyze(long fromMs, long toMs, Supplier<HerdReport> factory) {
+        HerdReport report = factory.get();
+        scan(fromMs, toMs, report::add);
+        return report;
+    }
+
+    void close();
+
+    static ReadingStore open() throws IOException {
+        String kind = System.getProperty("central.storage", "mapped");
+        if ("memory".equalsIgnoreCase(kind)) {
+            return new MemoryReadingStore();
+        }
+        Path dir = Path.of(System.getProperty("central.storage.dir", "dados-central"));
+        int segmentRecords = Integer.getInteger("central.storage.segment.records", 1 << 20);
+        long retentionMs = TimeUnit.HOURS.toMillis(Long.getLong("central.storage.retention.hours", 0L));
+        int maxBrincos = Integer.getInteger("central.storage.max.brincos", 1 << 20);
+        return new MappedReadingStore(dir, segmentRecords, retentionMs, maxBrincos);
+    }
+}
@@ -0,0 +1,65 @@
+package puc.paralela;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Envia os alertas como linhas JSON por uma conexão TCP (por exemplo, para um
+ * processo local que os repassa a SMS ou e-mail). A conexão é aberta no primeiro
+ * lote; se cair, o lote atual falha e a próxima entrega reconecta.
+ */
+final class SocketAlertSink implements AlertSink {
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+
+    private final String host;
+    private final int port;
+    private Socket socket;
+    private BufferedWriter writer;
+
+    SocketAlertSink(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public void deliver(List<Alert> alerts) throws IOException {
+        try {
+            if (socket == null) {
+                socket = new Socket();
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+                writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            }
+            for (Alert alert : alerts) {
+                writer.write(alert.toJson().toString());
+                writer.newLine();
+            }
+            writer.flush();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // A conexão já está sendo descartada
+            }
+            socket = null;
+            writer = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "socket " + host + ":" + port;
+    }
+}
@@ -0,0 +1,264 @@
+package puc.paralela;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import puc.paralela.codec.Atividade;
+import puc.paralela.codec.Leitura;
+
+/**
+ * Um segmento do {@link MappedReadingStore}: arquivo de tamanho fixo, mapeado em
+ * memória, com as leituras organizadas por coluna.
+ *
+ * <pre>
+ * cabeçalho (64 bytes): magic, versão, capacidade, quantidade, menor e maior timestamp
+ * timestamp   long[capacidade]
+ * lat         double[capacidade]
+ * lon         double[capacidade]
+ * temperatura float[capacidade]
+ * brinco      int[capacidade]    (índice no {@link TagDictionary})
+ * anterior    long[capacidade]   (posição da leitura anterior do mesmo brinco, ver {@link #location})
+ * atividade   byte[capacidade]
+ * flags       byte[capacidade]   (bit 7 marca a linha como completa)
+ * </pre>
+ *
+ * Cada escritor reserva uma linha com um contador atômico e grava nela sem
+ * trava; o byte de flags é gravado por último, então uma linha só é visível
+ * para leitura (e na recuperação) depois de completa.
+ *
+ * A coluna "anterior" encadeia as leituras de cada brinco da mais nova para a
+ * mais antiga, atravessando segmentos; junto com o {@link LatestIndex}, é o
+ * índice usado nas consultas de histórico por animal.
+ */
+final class StoreSegment {
+    static final int HEADER_SIZE = 64;
+    static final int ROW_SIZE = 8 + 8 + 8 + 4 + 4 + 8 + 1 + 1;
+    static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / ROW_SIZE;
+
+    private static final int MAGIC = 0x53454731; // "SEG1"
+    private static final int VERSION = 2;
+    private static final int ROW_PRESENT = 0x80;
+
+    final long sequence;
+    final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int capacity;
+
+    private final int latOffset;
+    private final int lonOffset;
+    private final int temperaturaOffset;
+    private final int brincoOffset;
+    private final int previousOffset;
+    private final int atividadeOffset;
+    private final int flagsOffset;
+
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final AtomicLong minTimestamp = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxTimestamp = new AtomicLong(Long.MIN_VALUE);
+
+    private StoreSegment(long sequence, Path path, FileChannel channel, int capacity) throws IOException {
+        this.sequence = sequence;
+        this.path = path;
+        this.channel = channel;
+        this.capacity = capacity;
+        this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * ROW_SIZE);
+        this.latOffset = HEADER_SIZE + capacity * 8;
+        this.lonOffset = latOffset + capacity * 8;
+        this.temperaturaOffset = lonOffset + capacity * 8;
+        this.brincoOffset = temperaturaOffset + capacity * 4;
+        this.previousOffset = brincoOffset + capacity * 4;
+        this.atividadeOffset = previousOffset + capacity * 8;
+        this.flagsOffset = atividadeOffset + capacity;
+    }
+
+    /**
+     * Cria um segmento novo e vazio.
+     */
+    static StoreSegment create(Path path, long sequence, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        StoreSegment segment = new StoreSegment(sequence, path, channel, capacity);
+        segment.map.putInt(0, MAGIC);
+        segment.map.putInt(4, VERSION);
+        segment.map.putInt(8, capacity);
+        segment.persistHeader();
+        return segment;
+    }
+
+    /**
+     * Mapeia um segmento existente. As linhas gravadas depois do último
+     * cabeçalho persistido são encontradas pelo bit de linha completa, em todo o
+     * segmento: uma linha reservada e não gravada antes de uma queda deixa uma lacuna,
+     * e as linhas completas depois dela continuam apontadas pelo índice e pelo
+     * encadeamento, então não podem ser reutilizadas.
+     */
+    static StoreSegment open(Path path, long sequence) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Segmento inválido: " + path);
+            }
+            int capacity = header.getInt(8);
+            int count = header.getInt(12);
+            StoreSegment segment = new StoreSegment(sequence, path, channel, capacity);
+            segment.minTimestamp.set(header.getLong(16));
+            segment.maxTimestamp.set(header.getLong(24));
+            int reserved = count;
+            for (int row = count; row < capacity; row++) {
+                if (segment.isPresent(row)) {
+                    segment.trackTimestamp(segment.timestamp(row));
+                    reserved = row + 1;
+                }
+            }
+            segment.reserved.set(reserved);
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reserva a próxima linha livre.
+     * @return o índice da linha, ou -1 se o segmento estiver cheio.
+     */
+    int reserve() {
+        int row = reserved.getAndIncrement();
+        return row < capacity ? row : -1;
+    }
+
+    /**
+     * Posição global de uma linha: número de sequência do segmento nos 32 bits
+     * altos e a linha nos 32 baixos. Como a sequência começa em 1, 0 significa "nenhuma".
+     */
+    static long location(long sequence, int row) {
+        return (sequence << 32) | row;
+    }
+
+    static long sequenceOf(long location) {
+        return location >>> 32;
+    }
+
+    static int rowOf(long location) {
+        return (int) location;
+    }
+
+    void write(int row, Leitura leitura, int brincoIndex, long previousLocation) {
+        map.putLong(HEADER_SIZE + row * 8, leitura.getTimestamp());
+        map.putDouble(latOffset + row * 8, leitura.getLat());
+        map.putDouble(lonOffset + row * 8, leitura.getLon());
+        map.putFloat(temperaturaOffset + row * 4, leitura.getTemperatura());
+        map.putInt(brincoOffset + row * 4, brincoIndex);
+        map.putLong(previousOffset + row * 8, previousLocation);
+        map.put(atividadeOffset + row, leitura.getAtividade().code());
+        VarHandle.releaseFence();
+        map.put(flagsOffset + row, (byte) ((leitura.getFlags() & 0x7f) | ROW_PRESENT));
+        trackTimestamp(leitura.getTimestamp());
+    }
+
+    private void trackTimestamp(long timestamp) {
+        minTimestamp.accumulateAndGet(timestamp, Math::min);
+        maxTimestamp.accumulateAndGet(timestamp, Math::max);
+    }
+
+    /**
+     * Quantidade de linhas reservadas; algumas das últimas podem ainda estar sendo gravadas.
+     */
+    int count() {
+        return Math.min(reserved.get(), capacity);
+    }
+
+    boolean isFull() {
+        return reserved.get() >= capacity;
+    }
+
+    boolean isPresent(int row) {
+        boolean present = (map.get(flagsOffset + row) & ROW_PRESENT) != 0;
+        VarHandle.acquireFence();
+        return present;
+    }
+
+    long minTimestamp() {
+        return minTimestamp.get();
+    }
+
+    long maxTimestamp() {
+        return maxTimestamp.get();
+    }
+
+    long timestamp(int row) {
+        return map.getLong(HEADER_SIZE + row * 8);
+    }
+
+    double lat(int row) {
+        return map.getDouble(latOffset + row * 8);
+    }
+
+    double lon(int row) {
+        return map.getDouble(lonOffset + row * 8);
+    }
+
+    float temperatura(int row) {
+        return map.getFloat(temperaturaOffset + row * 4);
+    }
+
+    int brincoIndex(int row) {
+        return map.getInt(brincoOffset + row * 4);
+    }
+
+    long previousLocation(int row) {
+        return map.getLong(previousOffset + row * 8);
+    }
+
+    Atividade atividade(int row) {
+        return Atividade.fromCode(map.get(atividadeOffset + row));
+    }
+
+    int flags(int row) {
+        return map.get(flagsOffset + row) & 0x7f;
+    }
+
+    /**
+     * Copia a linha para uma {@link Leitura}.
+     */
+    void read(int row, Leitura into, TagDictionary tags) {
+        into.clear();
+        into.setBrincoId(tags.idOf(brincoIndex(row)));
+        into.setTimestamp(timestamp(row));
+        into.setFlags(flags(row));
+        into.setLocalizacao(lat(row), lon(row));
+        into.setFlag(Leitura.FLAG_LOCALIZACAO, (flags(row) & Leitura.FLAG_LOCALIZACAO) != 0);
+        into.setTemperatura(temperatura(row));
+        into.setAtividade(atividade(row));
+    }
+
+    /**
+     * Grava no cabeçalho a quantidade de linhas e o intervalo de timestamps atuais.
+     */
+    void persistHeader() {
+        int count = count();
+        while (count > 0 && !isPresent(count - 1)) {
+            count--; // Não registra linhas que ainda estão sendo gravadas
+        }
+        map.putInt(12, count);
+        map.putLong(16, minTimestamp.get());
+        map.putLong(24, maxTimestamp.get());
+    }
+
+    void force() {
+        map.force();
+    }
+
+    /**
+     * Fecha o arquivo. O mapeamento é liberado pelo coletor de lixo quando não houver mais referências.
+     */
+    void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,112 @@
+package puc.paralela;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dicionário persistente brinco_id -> índice inteiro usado nos segmentos do
+ * {@link MappedReadingStore}. O arquivo é só de acréscimo: cada entrada é um
+ * byte com o tamanho seguido dos bytes UTF-8 do id, e o índice é a posição da entrada.
+ */
+class TagDictionary {
+    private final FileChannel file;
+    private final ConcurrentHashMap<String, Integer> indexById = new ConcurrentHashMap<>();
+    private volatile String[] idByIndex = new String[64];
+    private volatile int count;
+
+    TagDictionary(Path path) throws IOException {
+        file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        load();
+    }
+
+    private void load() throws IOException {
+        ByteBuffer content = ByteBuffer.allocate((int) file.size());
+        file.read(content, 0);
+        content.flip();
+        List<String> ids = new ArrayList<>();
+        while (content.remaining() > 0) {
+            int len = content.get() & 0xff;
+            if (content.remaining() < len) {
+                break; // Entrada incompleta (queda durante a escrita): descartada
+            }
+            byte[] bytes = new byte[len];
+            content.get(bytes);
+            String id = new String(bytes, StandardCharsets.UTF_8);
+            indexById.put(id, ids.size());
+            ids.add(id);
+        }
+        file.truncate(content.position());
+        file.position(content.position());
+        idByIndex = ids.toArray(new String[Math.max(64, ids.size() * 2)]);
+        count = ids.size();
+    }
+
+    /**
+     * Índice do brinco, registrando-o no arquivo se ainda não existir.
+     */
+    int indexOf(String brincoId) {
+        Integer index = indexById.get(brincoId);
+        return index != null ? index : register(brincoId);
+    }
+
+    /**
+     * Índice do brinco, ou -1 se ele nunca foi registrado. Não altera o dicionário.
+     */
+    int find(String brincoId) {
+        Integer index = indexById.get(brincoId);
+        return index != null ? index : -1;
+    }
+
+    private synchronized int register(String brincoId) {
+        Integer index = indexById.get(brincoId);
+        if (index != null) {
+            return index;
+        }
+        byte[] bytes = brincoId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(1 + bytes.length);
+        entry.put((byte) bytes.length).put(bytes).flip();
+        try {
+            while (entry.hasRemaining()) {
+                file.write(entry);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Erro ao gravar o dicionário de brincos: " + e.getMessage(), e);
+        }
+        int next = count;
+        String[] ids = idByIndex;
+        if (next == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        ids[next] = brincoId;
+        idByIndex = ids;
+        count = next + 1; // Publica a entrada só depois de gravada no array
+        indexById.put(brincoId, next);
+        return next;
+    }
+
+    String idOf(int index) {
+        int n = count;
+        String[] ids = idByIndex;
+        return index >= 0 && index < n ? ids[index] : "N/A";
+    }
+
+    int size() {
+        return count;
+    }
+
+    void force() throws IOException {
+        file.force(false);
+    }
+
+    void close() throws IOException {
+        file.close();
+    }
+}
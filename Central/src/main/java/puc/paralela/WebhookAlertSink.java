@@ -0,0 +1,52 @@
+package puc.paralela;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import org.json.JSONArray;
+
+/**
+ * Envia cada lote de alertas num POST com um array JSON ({@link Alert#toJson()}).
+ * Respostas fora da faixa 2xx contam como falha de entrega.
+ */
+final class WebhookAlertSink implements AlertSink {
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final URI uri;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+
+    WebhookAlertSink(URI uri) {
+        this.uri = uri;
+    }
+
+    @Override
+    public void deliver(List<Alert> alerts) throws IOException {
+        JSONArray body = new JSONArray();
+        for (Alert alert : alerts) {
+            body.put(alert.toJson());
+        }
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(TIMEOUT)
+                .header("Content-Type", "application/json; charset=utf-8")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+        try {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() / 100 != 2) {
+                throw new IOException("HTTP " + response.statusCode());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("envio interrompido");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "webhook " + uri;
+    }
+}
@@ -0,0 +1,78 @@
+package puc.paralela;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import puc.paralela.codec.Leitura;
+
+/**
+ * Usa os valores padrão: dispara com uma leitura, encerra com três, lembrete a cada 600 s,
+ * espera de 60 s para disparar de novo, normal abaixo de 39.0°C e crítica a partir de 41.0°C.
+ */
+public class AlertEngineTest {
+    private static final long T0 = 1_700_000_000_000L;
+
+    private final List<Alert> delivered = Collections.synchronizedList(new ArrayList<>());
+    private final AlertDispatcher dispatcher = new AlertDispatcher(Collections.singletonList(delivered::addAll), 100);
+    private final AlertEngine engine = new AlertEngine(dispatcher);
+
+    private void reading(String brincoId, int seconds, float temperatura, boolean febre) {
+        Leitura leitura = new Leitura();
+        leitura.setBrincoId(brincoId);
+        leitura.setTimestamp(T0 + seconds * 1000L);
+        leitura.setTemperatura(temperatura);
+        leitura.setFlag(Leitura.FLAG_ALERTA_FEBRE, febre);
+        engine.update(leitura);
+    }
+
+    /**
+     * Entrega os alertas publicados e os descreve como "estado severidade @segundos".
+     */
+    private List<String> published() {
+        dispatcher.start();
+        dispatcher.close(5000);
+        List<String> events = new ArrayList<>();
+        for (Alert alert : delivered) {
+            assertEquals(Alert.Tipo.FEBRE, alert.tipo);
+            events.add(alert.estado + " " + alert.severidade + " @" + (alert.timestamp - T0) / 1000);
+        }
+        return events;
+    }
+
+    @Test
+    public void feverClearsOnlyAfterConsecutiveNormalReadings() {
+        reading("A", 0, 40.0f, true);
+        reading("A", 1, 39.5f, false); // Sem a flag, mas acima do normal: continua ativo
+        reading("A", 2, 38.5f, false);
+        reading("A", 3, 38.5f, false);
+        reading("A", 4, 39.5f, false); // Zera a contagem de leituras normais
+        reading("A", 5, 38.5f, false);
+        reading("A", 6, 38.5f, false);
+        reading("A", 7, 38.5f, false);
+        reading("A", 30, 40.0f, true); // Dentro da espera depois do encerramento
+        reading("A", 70, 41.5f, true);
+        reading("A", 60, 38.5f, false); // Atrasada: ignorada
+        assertEquals(Arrays.asList("DISPARADO ALTA @0", "ENCERRADO ALTA @7", "DISPARADO CRITICA @70"), published());
+    }
+
+    @Test
+    public void remindsWhileActiveAndOnHigherSeverity() {
+        reading("B", 0, 40.0f, true);
+        reading("B", 10, 40.0f, true);
+        reading("B", 20, 41.2f, true);
+        reading("B", 30, 40.0f, true);
+        reading("B", 620, 40.0f, true);
+        assertEquals(Arrays.asList("DISPARADO ALTA @0", "MANTIDO CRITICA @20", "MANTIDO CRITICA @620"), published());
+    }
+
+    @Test
+    public void ignoresTagsThatNeverRaisedAnAlert() {
+        reading("C", 0, 39.8f, false);
+        reading("C", 1, 38.5f, false);
+        assertEquals(Collections.emptyList(), published());
+    }
+}
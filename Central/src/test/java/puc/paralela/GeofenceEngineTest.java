@@ -0,0 +1,110 @@
+package puc.paralela;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import puc.paralela.codec.Leitura;
+
+public class GeofenceEngineTest {
+    private static final int FAZENDA = 0;
+    private static final int PIQUETE = 1;
+
+    /**
+     * Fazenda de 2° x 2° em torno de (0, 0), com um piquete no canto nordeste.
+     */
+    private static GeofenceEngine engine() {
+        return new GeofenceEngine(Arrays.asList(
+                Geofence.rectangle(FAZENDA, "Fazenda", "Fazenda", Geofence.Tipo.FAZENDA, 0, 0, 1, 1),
+                Geofence.rectangle(PIQUETE, "Piquete", "Fazenda", Geofence.Tipo.PIQUETE, 0.5, 0.5, 0.2, 0.2)), 0);
+    }
+
+    /**
+     * Guarda os eventos como "entrou:cerca", "saiu:cerca" e "fora".
+     */
+    private static final class Events implements GeofenceEngine.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onEnter(Leitura leitura, Geofence fence) {
+            events.add("entrou:" + fence.nome);
+        }
+
+        @Override
+        public void onLeave(Leitura leitura, Geofence fence) {
+            events.add("saiu:" + fence.nome);
+        }
+
+        @Override
+        public void onOutsideFarm(Leitura leitura) {
+            events.add("fora");
+        }
+
+        List<String> take() {
+            List<String> taken = new ArrayList<>(events);
+            events.clear();
+            return taken;
+        }
+    }
+
+    private static Leitura at(String brincoId, double lat, double lon) {
+        Leitura leitura = new Leitura();
+        leitura.setBrincoId(brincoId);
+        leitura.setLocalizacao(lat, lon);
+        return leitura;
+    }
+
+    @Test
+    public void reportsEntriesAndExitsOnlyWhenMembershipChanges() {
+        GeofenceEngine engine = engine();
+        Events listener = new Events();
+
+        assertFalse(engine.update(at("A", 0, 0), listener));
+        assertEquals(Arrays.asList("entrou:Fazenda"), listener.take());
+        assertFalse(engine.update(at("A", 0.1, -0.1), listener));
+        assertEquals(Collections.emptyList(), listener.take());
+        assertEquals(FAZENDA, engine.areaOf("A"));
+
+        assertFalse(engine.update(at("A", 0.5, 0.5), listener));
+        assertEquals(Arrays.asList("entrou:Piquete"), listener.take());
+        assertEquals(PIQUETE, engine.areaOf("A"));
+
+        assertFalse(engine.update(at("A", 0, 0), listener));
+        assertEquals(Arrays.asList("saiu:Piquete"), listener.take());
+
+        assertTrue(engine.update(at("A", 5, 5), listener));
+        assertEquals(Arrays.asList("saiu:Fazenda", "fora"), listener.take());
+        assertEquals(-1, engine.areaOf("A"));
+
+        // Continuar fora não repete o aviso
+        assertTrue(engine.update(at("A", 5.1, 5), listener));
+        assertEquals(Collections.emptyList(), listener.take());
+
+        assertFalse(engine.update(at("A", 0.5, 0.5), listener));
+        assertEquals(Arrays.asList("entrou:Fazenda", "entrou:Piquete"), listener.take());
+    }
+
+    @Test
+    public void tagFirstSeenOutsideIsReportedOnce() {
+        GeofenceEngine engine = engine();
+        Events listener = new Events();
+        assertTrue(engine.update(at("B", -5, 0), listener));
+        assertEquals(Arrays.asList("fora"), listener.take());
+        assertTrue(engine.update(at("B", -5, 1), listener));
+        assertEquals(Collections.emptyList(), listener.take());
+    }
+
+    @Test
+    public void locatesAreaWithoutChangingTagState() {
+        GeofenceEngine engine = engine();
+        assertEquals(PIQUETE, engine.locateArea(0.6, 0.4));
+        assertEquals(FAZENDA, engine.locateArea(-0.5, -0.5));
+        assertEquals(-1, engine.locateArea(3, 3));
+        assertEquals(-1, engine.areaOf("C"));
+    }
+}
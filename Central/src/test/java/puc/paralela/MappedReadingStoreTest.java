@@ -0,0 +1,143 @@
+package puc.paralela;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import puc.paralela.codec.Leitura;
+
+public class MappedReadingStoreTest {
+    private static final int SEGMENT_RECORDS = 4;
+    private static final long T0 = 1_700_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir() {
+        return folder.getRoot().toPath();
+    }
+
+    private MappedReadingStore open() throws IOException {
+        return new MappedReadingStore(dir(), SEGMENT_RECORDS, 0, 16);
+    }
+
+    private static Leitura reading(String brincoId, int n) {
+        Leitura leitura = new Leitura();
+        leitura.setBrincoId(brincoId);
+        leitura.setTimestamp(T0 + n * 1000L);
+        leitura.setLocalizacao(-19.92, -43.93);
+        leitura.setTemperatura(38 + n / 10f);
+        return leitura;
+    }
+
+    /**
+     * Timestamps (em segundos depois de T0) do histórico do brinco, do mais novo para o mais antigo.
+     */
+    private static List<Long> history(ReadingStore store, String brincoId) {
+        List<Long> seconds = new ArrayList<>();
+        store.history(brincoId, T0, Long.MAX_VALUE, leitura -> seconds.add((leitura.getTimestamp() - T0) / 1000));
+        return seconds;
+    }
+
+    private static List<Long> scan(ReadingStore store) {
+        List<Long> seconds = new ArrayList<>();
+        store.scan(T0, Long.MAX_VALUE, leitura -> seconds.add((leitura.getTimestamp() - T0) / 1000));
+        return seconds;
+    }
+
+    private static long latest(ReadingStore store, String brincoId) {
+        Leitura into = new Leitura();
+        assertTrue(store.latest(brincoId, into));
+        return (into.getTimestamp() - T0) / 1000;
+    }
+
+    @Test
+    public void findsReadingsAcrossSegmentsAfterRestart() throws IOException {
+        MappedReadingStore store = open();
+        for (int n = 0; n < 6; n++) {
+            store.append(reading(n % 2 == 0 ? "A" : "B", n));
+        }
+        assertEquals(2, store.segments().size());
+        store.close();
+
+        MappedReadingStore reopened = open();
+        assertEquals(6, reopened.size());
+        assertEquals(Arrays.asList(4L, 2L, 0L), history(reopened, "A"));
+        assertEquals(Arrays.asList(5L, 3L, 1L), history(reopened, "B"));
+        assertEquals(4, latest(reopened, "A"));
+        assertFalse(reopened.latest("C", new Leitura()));
+        reopened.close();
+    }
+
+    @Test
+    public void keepsTheNewestReadingWhenReadingsArriveOutOfOrder() throws IOException {
+        MappedReadingStore store = open();
+        store.append(reading("A", 5));
+        store.append(reading("A", 3)); // Atrasada
+        assertEquals(5, latest(store, "A"));
+        // O histórico segue a ordem de chegada, com a atrasada dentro da tolerância
+        assertEquals(Arrays.asList(3L, 5L), history(store, "A"));
+        store.close();
+
+        MappedReadingStore reopened = open();
+        assertEquals(5, latest(reopened, "A"));
+        reopened.close();
+    }
+
+    @Test
+    public void reopensSegmentWithReservedButUnwrittenRow() throws IOException {
+        MappedReadingStore store = open();
+        store.append(reading("A", 0));
+        store.append(reading("A", 1));
+        // Um escritor reservou a linha 2 e o processo caiu antes de gravá-la
+        assertEquals(2, store.segments().get(0).reserve());
+        store.append(reading("A", 3));
+        store.append(reading("A", 4)); // Segundo segmento
+
+        // O arquivo fica como a queda o deixou; o armazenamento antigo nunca é fechado
+        MappedReadingStore reopened = open();
+        assertEquals(2, reopened.segments().size());
+        StoreSegment first = reopened.segments().get(0);
+        assertTrue(first.isFull());
+        assertFalse(first.isPresent(2));
+        assertTrue(first.isPresent(3));
+        assertEquals(Arrays.asList(0L, 1L, 3L, 4L), scan(reopened));
+        assertEquals(Arrays.asList(4L, 3L, 1L, 0L), history(reopened, "A"));
+        assertEquals(4, latest(reopened, "A"));
+
+        // Novas leituras vão para depois da última linha completa, sem sobrescrever nenhuma
+        reopened.append(reading("A", 5));
+        assertEquals(Arrays.asList(5L, 4L, 3L, 1L, 0L), history(reopened, "A"));
+        assertEquals(5, latest(reopened, "A"));
+        reopened.close();
+        store.close();
+    }
+
+    @Test
+    public void doesNotReuseRowsAfterAGapInTheActiveSegment() throws IOException {
+        MappedReadingStore store = open();
+        store.append(reading("A", 0));
+        assertEquals(1, store.segments().get(0).reserve());
+        store.append(reading("B", 2));
+        // O cabeçalho persistido não conta linhas depois da lacuna
+        store.segments().get(0).persistHeader();
+
+        MappedReadingStore reopened = open();
+        assertEquals(1, reopened.segments().size());
+        assertEquals(Arrays.asList(0L, 2L), scan(reopened));
+        reopened.append(reading("B", 3));
+        assertEquals(Arrays.asList(3L, 2L), history(reopened, "B"));
+        assertEquals(Arrays.asList(0L), history(reopened, "A"));
+        assertTrue(reopened.segments().get(0).isFull());
+        reopened.close();
+        store.close();
+    }
+}
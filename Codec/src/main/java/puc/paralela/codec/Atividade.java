@@ -0,0 +1,51 @@
+package puc.paralela.codec;
+
+/**
+ * Atividades reportadas pelo brinco. O código é o byte usado no formato binário.
+ */
+public enum Atividade {
+    DESCONHECIDA("desconhecida"),
+    PASTANDO("pastando"),
+    DESCANSANDO("descansando"),
+    ANDANDO("andando"),
+    CORRENDO("correndo");
+
+    private static final Atividade[] VALUES = values();
+
+    private final String nome;
+
+    Atividade(String nome) {
+        this.nome = nome;
+    }
+
+    /**
+     * Nome usado no campo "atividade" do JSON.
+     */
+    public String nome() {
+        return nome;
+    }
+
+    public byte code() {
+        return (byte) ordinal();
+    }
+
+    /**
+     * Quantidade de atividades conhecidas.
+     */
+    public static int count() {
+        return VALUES.length;
+    }
+
+    public static Atividade fromCode(int code) {
+        return code >= 0 && code < VALUES.length ? VALUES[code] : DESCONHECIDA;
+    }
+
+    public static Atividade fromNome(String nome) {
+        for (Atividade a : VALUES) {
+            if (a.nome.equalsIgnoreCase(nome)) {
+                return a;
+            }
+        }
+        return DESCONHECIDA;
+    }
+}
@@ -0,0 +1,130 @@
+package puc.paralela.codec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Enquadramento comprimido de um enlace, escrito pelo {@link FrameWriter} quando é
+ * criado com um nível de compressão e lido pelo {@link FrameReader} e pelo {@link FrameDecoder}.
+ *
+ * O stream começa com o preâmbulo {@link #PREAMBLE} e segue o enquadramento binário,
+ * mas as mensagens de cada lote vão juntas num bloco antes do marcador de fim de lote:
+ * o tamanho {@value #BLOCK_LENGTH}, o tamanho original (int), o tamanho comprimido (int)
+ * e os bytes do Deflater. Descomprimido, o bloco é a sequência das mensagens (JSON ou
+ * binárias) cada uma precedida do seu tamanho (int). O Deflater usa o dicionário
+ * {@link #DICTIONARY}, com os nomes dos campos e valores comuns do JSON das leituras,
+ * então mesmo lotes pequenos comprimem bem.
+ */
+final class BatchCompression {
+    static final byte[] PREAMBLE = {BinaryCodec.MAGIC, 'P', 'Z', '1'};
+    static final int BLOCK_LENGTH = -2;
+    static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+
+    // Os trechos mais comuns ficam no fim, mais perto dos dados
+    static final byte[] DICTIONARY = ("\"alerta_inatividade\":true,\"resumo\":{\"amostras\":,\"inicio_janela\":"
+            + ",\"temperatura_min\":\"3\",\"temperatura_max\":\"3\",\"atividades\":{\"desconhecida\":"
+            + "\"correndo\":\"andando\":\"descansando\":\"pastando\":}},"
+            + "{\"brinco_id\":\"FROTA000\",\"brinco_id\":\"BRINCO-\",\"timestamp\":17,\"localizacao\":{\"lat\":-19.92,\"lon\":-43.93},"
+            + "\"temperatura\":\"38.\",\"atividade\":\"correndo\",\"atividade\":\"andando\",\"atividade\":\"descansando\","
+            + "\"atividade\":\"pastando\",\"processed_at_gateway_ms\":17,\"alerta_febre\":false,\"processed_at_borda_ms\":17")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private BatchCompression() {
+    }
+
+    /**
+     * Comprime blocos, reaproveitando o Deflater e o buffer de saída.
+     */
+    static final class Compressor {
+        private final Deflater deflater;
+        private byte[] output = new byte[4096];
+
+        Compressor(int level) {
+            deflater = new Deflater(Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level)));
+        }
+
+        /**
+         * Comprime {@code raw[0, len)}; o resultado fica em {@link #output()}.
+         * @return tamanho comprimido.
+         */
+        int compress(byte[] raw, int len) {
+            deflater.reset();
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(raw, 0, len);
+            deflater.finish();
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == output.length) {
+                    byte[] bigger = new byte[output.length * 2];
+                    System.arraycopy(output, 0, bigger, 0, size);
+                    output = bigger;
+                }
+                size += deflater.deflate(output, size, output.length - size);
+            }
+            return size;
+        }
+
+        byte[] output() {
+            return output;
+        }
+    }
+
+    /**
+     * Descomprime blocos, reaproveitando o Inflater e o buffer do bloco.
+     */
+    static final class Expander {
+        private final Inflater inflater = new Inflater();
+        private byte[] block = new byte[4096];
+
+        /**
+         * Descomprime um bloco; o resultado fica em {@link #block()}.
+         */
+        void expand(byte[] buf, int off, int len, int rawLength) throws IOException {
+            if (rawLength < 0 || rawLength > MAX_BLOCK_SIZE || len < 0 || len > MAX_BLOCK_SIZE) {
+                throw new IOException("Tamanho de bloco comprimido inválido: " + len + "/" + rawLength);
+            }
+            if (rawLength > block.length) {
+                block = new byte[Math.max(rawLength, block.length * 2)];
+            }
+            inflater.reset();
+            inflater.setInput(buf, off, len);
+            try {
+                int size = 0;
+                while (size < rawLength) {
+                    int n = inflater.inflate(block, size, rawLength - size);
+                    if (n == 0) {
+                        if (inflater.needsDictionary()) {
+                            inflater.setDictionary(DICTIONARY);
+                        } else if (inflater.finished() || inflater.needsInput()) {
+                            throw new IOException("Bloco comprimido menor que o informado: " + size + " de " + rawLength);
+                        }
+                    }
+                    size += n;
+                }
+            } catch (DataFormatException | IllegalArgumentException e) {
+                throw new IOException("Bloco comprimido inválido: " + e.getMessage());
+            }
+        }
+
+        byte[] block() {
+            return block;
+        }
+    }
+
+    /**
+     * Tamanho da mensagem que começa em {@code pos} no bloco, validado contra o fim do bloco.
+     */
+    static int recordLength(byte[] block, int pos, int end) throws IOException {
+        if (end - pos < 4) {
+            throw new IOException("Mensagem incompleta no bloco comprimido");
+        }
+        int size = (block[pos] & 0xff) << 24 | (block[pos + 1] & 0xff) << 16 | (block[pos + 2] & 0xff) << 8 | (block[pos + 3] & 0xff);
+        if (size <= 0 || size > end - pos - 4 || size > FrameReader.MAX_MESSAGE_SIZE) {
+            throw new IOException("Tamanho de mensagem inválido no bloco comprimido: " + size);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,262 @@
+package puc.paralela.codec;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formato binário de tamanho fixo para uma leitura (big-endian, {@value #FRAME_SIZE} bytes):
+ *
+ * <pre>
+ *  0  magic (0xB7)          1 byte
+ *  1  versão                1 byte
+ *  2  flags                 1 byte
+ *  3  atividade             1 byte
+ *  4  tamanho do brinco_id  1 byte
+ *  5  brinco_id (UTF-8)    16 bytes, completado com zeros
+ * 21  timestamp (ms)        8 bytes
+ * 29  latitude              8 bytes (double)
+ * 37  longitude             8 bytes (double)
+ * 45  temperatura           4 bytes (float)
+ * 49  processado na borda   8 bytes (ms, 0 se ainda não passou pela borda)
+ * 57  recebido no gateway   8 bytes (ms, 0 se ainda não passou pelo gateway)
+ * </pre>
+ *
+ * Resumos ({@link Leitura#FLAG_RESUMO}) têm mais {@value #SUMMARY_SIZE} bytes, com os
+ * valores da janela codificados como diferenças em relação à última leitura:
+ *
+ * <pre>
+ * 65  amostras                          2 bytes (sem sinal)
+ * 67  início da janela                  4 bytes (ms antes do timestamp, sem sinal)
+ * 71  temperatura mínima                2 bytes (centésimos de grau abaixo da temperatura, sem sinal)
+ * 73  temperatura máxima                2 bytes (centésimos de grau acima da temperatura, sem sinal)
+ * 75  leituras por atividade            2 bytes cada, na ordem de {@link Atividade}
+ * </pre>
+ *
+ * Frames da versão 1 (sem o campo do gateway, {@value #FRAME_SIZE_V1} bytes) continuam sendo aceitos.
+ *
+ * O id do brinco ocupa no máximo {@value #MAX_BRINCO_ID_BYTES} bytes; leituras com ids maiores
+ * só podem seguir em JSON. Quem configura um enlace binário deve verificar os ids com
+ * {@link #checkBrincoId} antes de começar a enviar.
+ *
+ * Codificação e decodificação trabalham sobre buffers e instâncias de {@link Leitura}
+ * fornecidos por quem chama, sem alocar.
+ */
+public final class BinaryCodec {
+    public static final byte MAGIC = (byte) 0xB7;
+    public static final byte VERSION = 2;
+    public static final int FRAME_SIZE = 65;
+    public static final int FRAME_SIZE_V1 = 57;
+    public static final int MAX_BRINCO_ID_BYTES = 16;
+    private static final int GATEWAY_OFFSET = 57;
+    private static final int SUMMARY_ACTIVITIES = 5; // Atividades com contador no resumo
+    public static final int SUMMARY_SIZE = 10 + 2 * SUMMARY_ACTIVITIES;
+
+    static {
+        // Uma atividade nova muda o tamanho do resumo: exige uma nova versão do frame, não só outro contador
+        if (Atividade.count() != SUMMARY_ACTIVITIES) {
+            throw new IllegalStateException("O resumo binário tem " + SUMMARY_ACTIVITIES + " contadores de atividade, mas há "
+                    + Atividade.count() + " atividades; atualize o formato (BinaryCodec.VERSION).");
+        }
+    }
+
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle DOUBLE = MethodHandles.byteArrayViewVarHandle(double[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle FLOAT = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * Tamanho do frame da leitura: {@value #FRAME_SIZE} bytes, mais {@value #SUMMARY_SIZE} se for um resumo.
+     */
+    public static int frameSize(Leitura leitura) {
+        return leitura.isResumo() ? FRAME_SIZE + SUMMARY_SIZE : FRAME_SIZE;
+    }
+
+    /**
+     * Verifica se o id cabe no frame binário.
+     * @throws IllegalArgumentException se o id ocupar mais de {@value #MAX_BRINCO_ID_BYTES} bytes em UTF-8.
+     */
+    public static void checkBrincoId(String id) {
+        checkBrincoIdLength(id.getBytes(StandardCharsets.UTF_8).length, id);
+    }
+
+    private static void checkBrincoIdLength(int length, Object id) {
+        if (length > MAX_BRINCO_ID_BYTES) {
+            throw new IllegalArgumentException("brinco_id \"" + id + "\" tem " + length + " bytes e não cabe no frame binário (máximo "
+                    + MAX_BRINCO_ID_BYTES + "); use o formato json neste enlace");
+        }
+    }
+
+    /**
+     * Escreve a leitura na posição atual do buffer, avançando-a em {@link #frameSize} bytes.
+     * @throws IllegalArgumentException se o id do brinco não couber no frame (ver {@link #checkBrincoId}).
+     */
+    public static void encode(Leitura leitura, ByteBuffer out) {
+        int idLength = leitura.brincoIdLength();
+        if (idLength > MAX_BRINCO_ID_BYTES) {
+            checkBrincoIdLength(idLength, leitura.getBrincoId());
+        }
+        out.put(MAGIC);
+        out.put(VERSION);
+        out.put((byte) leitura.getFlags());
+        out.put(leitura.getAtividade().code());
+        out.put((byte) idLength);
+        out.put(leitura.brincoIdBytes(), 0, idLength);
+        for (int i = idLength; i < MAX_BRINCO_ID_BYTES; i++) {
+            out.put((byte) 0);
+        }
+        out.putLong(leitura.getTimestamp());
+        out.putDouble(leitura.getLat());
+        out.putDouble(leitura.getLon());
+        out.putFloat(leitura.getTemperatura());
+        out.putLong(leitura.getProcessedAtBordaMs());
+        out.putLong(leitura.getProcessedAtGatewayMs());
+        if (leitura.isResumo()) {
+            float temperatura = leitura.getTemperatura();
+            out.putShort((short) Math.min(leitura.getAmostras(), 0xffff));
+            out.putInt((int) Math.min(Math.max(leitura.getTimestamp() - leitura.getInicioJanelaMs(), 0), 0xffffffffL));
+            out.putShort(centidegrees(temperatura - leitura.getTemperaturaMin()));
+            out.putShort(centidegrees(leitura.getTemperaturaMax() - temperatura));
+            for (int a = 0; a < SUMMARY_ACTIVITIES; a++) {
+                out.putShort((short) Math.min(leitura.getContagemAtividade(Atividade.fromCode(a)), 0xffff));
+            }
+        }
+    }
+
+    private static short centidegrees(float delta) {
+        return (short) Math.min(Math.max(Math.round(delta * 100), 0), 0xffff);
+    }
+
+    /**
+     * Codifica a leitura num byte[] novo, pronto para ser enfileirado.
+     * @throws IllegalArgumentException se o id do brinco não couber no frame (ver {@link #checkBrincoId}).
+     */
+    public static byte[] encode(Leitura leitura) {
+        byte[] frame = new byte[frameSize(leitura)];
+        encode(leitura, ByteBuffer.wrap(frame));
+        return frame;
+    }
+
+    /**
+     * Lê um frame da posição atual do buffer para dentro de {@code into}.
+     * @throws IllegalArgumentException se o frame não for reconhecido.
+     */
+    public static void decode(ByteBuffer in, Leitura into) {
+        if (in.remaining() < FRAME_SIZE_V1) {
+            throw new IllegalArgumentException("Frame binário incompleto: " + in.remaining() + " bytes");
+        }
+        byte magic = in.get();
+        byte version = in.get();
+        if (magic != MAGIC || (version != VERSION && version != 1)) {
+            throw new IllegalArgumentException("Frame binário desconhecido (magic=" + magic + ", versão=" + version + ")");
+        }
+        if (version == VERSION && in.remaining() < FRAME_SIZE - 2) {
+            throw new IllegalArgumentException("Frame binário incompleto: " + (in.remaining() + 2) + " bytes");
+        }
+        into.setFlags(in.get() & 0xff);
+        into.setAtividade(Atividade.fromCode(in.get()));
+        int idLength = Math.min(in.get() & 0xff, MAX_BRINCO_ID_BYTES);
+        byte[] id = into.brincoIdBytes();
+        in.get(id, 0, MAX_BRINCO_ID_BYTES);
+        into.setBrincoIdBytes(id, 0, idLength);
+        into.setTimestamp(in.getLong());
+        into.setLatLon(in.getDouble(), in.getDouble());
+        into.setTemperatura(in.getFloat());
+        into.setProcessedAtBordaMs(in.getLong());
+        into.setProcessedAtGatewayMs(version == VERSION ? in.getLong() : 0L);
+        if (into.isResumo()) {
+            if (in.remaining() < SUMMARY_SIZE) {
+                throw new IllegalArgumentException("Resumo binário incompleto: " + in.remaining() + " bytes");
+            }
+            decodeSummary(in, into);
+        }
+    }
+
+    /**
+     * Mesmo que {@link #decode(ByteBuffer, Leitura)}, lendo direto de um array.
+     */
+    public static void decode(byte[] buf, int off, int len, Leitura into) {
+        int version = checkHeader(buf, off, len);
+        into.setFlags(buf[off + 2] & 0xff);
+        into.setAtividade(Atividade.fromCode(buf[off + 3]));
+        into.setBrincoIdBytes(buf, off + 5, Math.min(buf[off + 4] & 0xff, MAX_BRINCO_ID_BYTES));
+        into.setTimestamp((long) LONG.get(buf, off + 21));
+        into.setLatLon((double) DOUBLE.get(buf, off + 29), (double) DOUBLE.get(buf, off + 37));
+        into.setTemperatura((float) FLOAT.get(buf, off + 45));
+        into.setProcessedAtBordaMs((long) LONG.get(buf, off + 49));
+        into.setProcessedAtGatewayMs(version == VERSION ? (long) LONG.get(buf, off + GATEWAY_OFFSET) : 0L);
+        if (into.isResumo()) {
+            if (version != VERSION || len < FRAME_SIZE + SUMMARY_SIZE) {
+                throw new IllegalArgumentException("Resumo binário incompleto: " + len + " bytes");
+            }
+            decodeSummary(buf, off + FRAME_SIZE, into);
+        }
+    }
+
+    private static void decodeSummary(ByteBuffer in, Leitura into) {
+        float temperatura = into.getTemperatura();
+        into.setResumo(in.getShort() & 0xffff,
+                into.getTimestamp() - (in.getInt() & 0xffffffffL),
+                temperatura - (in.getShort() & 0xffff) / 100f,
+                temperatura + (in.getShort() & 0xffff) / 100f);
+        for (int a = 0; a < SUMMARY_ACTIVITIES; a++) {
+            into.setContagemAtividade(a, in.getShort() & 0xffff);
+        }
+    }
+
+    private static void decodeSummary(byte[] buf, int off, Leitura into) {
+        float temperatura = into.getTemperatura();
+        into.setResumo((short) SHORT.get(buf, off) & 0xffff,
+                into.getTimestamp() - ((int) INT.get(buf, off + 2) & 0xffffffffL),
+                temperatura - ((short) SHORT.get(buf, off + 6) & 0xffff) / 100f,
+                temperatura + ((short) SHORT.get(buf, off + 8) & 0xffff) / 100f);
+        for (int a = 0; a < SUMMARY_ACTIVITIES; a++) {
+            into.setContagemAtividade(a, (short) SHORT.get(buf, off + 10 + 2 * a) & 0xffff);
+        }
+    }
+
+    /**
+     * Grava o instante de recepção no gateway direto no frame, sem decodificá-lo.
+     * @return false se o frame for da versão 1, que não tem esse campo.
+     */
+    public static boolean stampGateway(byte[] buf, int off, int len, long gatewayMs) {
+        if (checkHeader(buf, off, len) != VERSION) {
+            return false;
+        }
+        LONG.set(buf, off + GATEWAY_OFFSET, gatewayMs);
+        return true;
+    }
+
+    /**
+     * Timestamp da leitura, lido direto do frame.
+     */
+    public static long timestampOf(byte[] buf, int off, int len) {
+        checkHeader(buf, off, len);
+        return (long) LONG.get(buf, off + 21);
+    }
+
+    private static int checkHeader(byte[] buf, int off, int len) {
+        if (len < FRAME_SIZE_V1) {
+            throw new IllegalArgumentException("Frame binário incompleto: " + len + " bytes");
+        }
+        int version = buf[off + 1];
+        if (buf[off] != MAGIC || (version != VERSION && version != 1)) {
+            throw new IllegalArgumentException("Frame binário desconhecido (magic=" + buf[off] + ", versão=" + version + ")");
+        }
+        if (version == VERSION && len < FRAME_SIZE) {
+            throw new IllegalArgumentException("Frame binário incompleto: " + len + " bytes");
+        }
+        return version;
+    }
+
+    public static boolean isBinary(byte[] buf, int off, int len) {
+        return len > 0 && buf[off] == MAGIC;
+    }
+}
@@ -0,0 +1,194 @@
+package puc.paralela.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Versão incremental do {@link FrameReader} para conexões não bloqueantes: recebe
+ * os bytes na ordem em que chegam, em pedaços de qualquer tamanho, e entrega cada
+ * mensagem completa ao {@link Sink}. Bytes de uma mensagem ainda incompleta ficam
+ * guardados até o próximo {@link #feed}. O formato é detectado como no FrameReader;
+ * num stream comprimido, cada bloco é descomprimido quando chega inteiro e as suas
+ * mensagens são entregues em sequência, direto do bloco.
+ */
+public final class FrameDecoder {
+
+    /**
+     * Recebe as mensagens decodificadas. O conteúdo de um registro só é válido durante a chamada.
+     */
+    public interface Sink {
+        void onRecord(byte[] buf, int off, int len) throws IOException;
+
+        void onSync(long seq) throws IOException;
+    }
+
+    private WireFormat format;
+    private byte[] pending = new byte[4096];
+    private int start; // Início da primeira mensagem ainda não entregue
+    private int end;   // Fim dos bytes recebidos
+    private int scanned; // No JSON, até onde já se procurou o fim de linha
+    private BatchCompression.Expander expander; // Só em streams comprimidos
+
+    /**
+     * Formato da conexão, conhecido depois que chegam os primeiros bytes.
+     */
+    public WireFormat format() {
+        return format;
+    }
+
+    public boolean isCompressed() {
+        return expander != null;
+    }
+
+    /**
+     * Consome todos os bytes disponíveis em {@code in} e entrega as mensagens completas.
+     */
+    public void feed(ByteBuffer in, Sink sink) throws IOException {
+        int incoming = in.remaining();
+        if (end + incoming > pending.length) {
+            compact(incoming);
+        }
+        in.get(pending, end, incoming);
+        end += incoming;
+
+        if (format == null && !detectFormat()) {
+            return;
+        }
+        if (format == WireFormat.BINARY) {
+            decodeBinary(sink);
+        } else {
+            decodeLines(sink);
+        }
+        if (start == end) {
+            start = end = scanned = 0; // Tudo entregue: o próximo pedaço começa no início do buffer
+        }
+    }
+
+    private boolean detectFormat() throws IOException {
+        if (start == end) {
+            return false;
+        }
+        if (pending[start] != BinaryCodec.MAGIC) {
+            format = WireFormat.JSON;
+            return true;
+        }
+        if (end - start < FrameReader.BINARY_PREAMBLE.length) {
+            return false;
+        }
+        if (Arrays.equals(pending, start, start + BatchCompression.PREAMBLE.length, BatchCompression.PREAMBLE, 0, BatchCompression.PREAMBLE.length)) {
+            expander = new BatchCompression.Expander();
+        } else if (!Arrays.equals(pending, start, start + FrameReader.BINARY_PREAMBLE.length,
+                FrameReader.BINARY_PREAMBLE, 0, FrameReader.BINARY_PREAMBLE.length)) {
+            throw new IOException("Preâmbulo binário inválido");
+        }
+        start += FrameReader.BINARY_PREAMBLE.length;
+        format = WireFormat.BINARY;
+        return true;
+    }
+
+    private void decodeBinary(Sink sink) throws IOException {
+        while (end - start >= 4) {
+            int size = getInt(start);
+            if (size == FrameReader.SYNC_LENGTH) {
+                if (end - start < 12) {
+                    return;
+                }
+                long seq = ((long) getInt(start + 4) << 32) | (getInt(start + 8) & 0xffffffffL);
+                start += 12;
+                sink.onSync(seq);
+                continue;
+            }
+            if (size == BatchCompression.BLOCK_LENGTH && expander != null) {
+                if (end - start < 12) {
+                    return;
+                }
+                int rawLength = getInt(start + 4);
+                int compressed = getInt(start + 8);
+                if (compressed <= 0 || compressed > BatchCompression.MAX_BLOCK_SIZE) {
+                    throw new IOException("Tamanho de bloco comprimido inválido: " + compressed);
+                }
+                if (end - start < 12 + compressed) {
+                    return;
+                }
+                expander.expand(pending, start + 12, compressed, rawLength);
+                start += 12 + compressed;
+                byte[] block = expander.block();
+                int pos = 0;
+                while (pos < rawLength) {
+                    int length = BatchCompression.recordLength(block, pos, rawLength);
+                    sink.onRecord(block, pos + 4, length);
+                    pos += 4 + length;
+                }
+                continue;
+            }
+            if (size <= 0 || size > FrameReader.MAX_MESSAGE_SIZE) {
+                throw new IOException("Tamanho de mensagem inválido: " + size);
+            }
+            if (end - start < 4 + size) {
+                return;
+            }
+            start += 4 + size;
+            sink.onRecord(pending, start - size, size);
+        }
+    }
+
+    private void decodeLines(Sink sink) throws IOException {
+        int i = Math.max(start, scanned);
+        while (i < end) {
+            if (pending[i] != '\n') {
+                i++;
+                continue;
+            }
+            int lineEnd = i;
+            if (lineEnd > start && pending[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            int lineStart = start;
+            start = ++i;
+            if (lineEnd > lineStart) {
+                deliverLine(lineStart, lineEnd - lineStart, sink);
+            }
+        }
+        scanned = end;
+        if (end - start > FrameReader.MAX_MESSAGE_SIZE) {
+            throw new IOException("Linha maior que " + FrameReader.MAX_MESSAGE_SIZE + " bytes");
+        }
+    }
+
+    private void deliverLine(int off, int len, Sink sink) throws IOException {
+        byte[] prefix = FrameReader.SYNC_PREFIX_BYTES;
+        boolean sync = len >= prefix.length;
+        for (int k = 0; sync && k < prefix.length; k++) {
+            sync = pending[off + k] == prefix[k];
+        }
+        if (!sync) {
+            sink.onRecord(pending, off, len);
+            return;
+        }
+        String seq = new String(pending, off + prefix.length, len - prefix.length, StandardCharsets.US_ASCII);
+        try {
+            sink.onSync(Long.parseLong(seq.trim()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Marcador de fim de lote inválido: " + seq);
+        }
+    }
+
+    /**
+     * Move a mensagem incompleta para o início do buffer, aumentando-o se necessário.
+     */
+    private void compact(int incoming) {
+        int kept = end - start;
+        byte[] target = kept + incoming > pending.length ? new byte[Math.max(kept + incoming, pending.length * 2)] : pending;
+        System.arraycopy(pending, start, target, 0, kept);
+        pending = target;
+        scanned = Math.max(0, scanned - start);
+        start = 0;
+        end = kept;
+    }
+
+    private int getInt(int off) {
+        return (pending[off] & 0xff) << 24 | (pending[off + 1] & 0xff) << 16 | (pending[off + 2] & 0xff) << 8 | (pending[off + 3] & 0xff);
+    }
+}
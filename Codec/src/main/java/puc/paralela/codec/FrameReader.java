@@ -0,0 +1,232 @@
+package puc.paralela.codec;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Lê as mensagens escritas por um {@link FrameWriter}. O formato do stream é
+ * detectado pelo primeiro byte: o preâmbulo binário, o preâmbulo comprimido
+ * ({@link BatchCompression}) ou, caso contrário, linhas JSON.
+ *
+ * A mensagem corrente fica num buffer interno reaproveitado ({@link #buffer()},
+ * {@link #offset()}, {@link #length()}), válido até a próxima chamada a {@link #next()}.
+ * Num stream comprimido, cada bloco é descomprimido de uma vez e as mensagens são
+ * entregues direto do bloco, sem cópia.
+ */
+public final class FrameReader {
+    public static final byte[] BINARY_PREAMBLE = {BinaryCodec.MAGIC, 'P', 'B', '1'};
+    public static final String SYNC_PREFIX = "#SYNC ";
+    static final int SYNC_LENGTH = -1;
+
+    public static final int EOF = -1;
+    public static final int RECORD = 1;
+    public static final int SYNC = 2;
+
+    static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+    static final byte[] SYNC_PREFIX_BYTES = SYNC_PREFIX.getBytes(StandardCharsets.US_ASCII);
+
+    private final InputStream in;
+    private WireFormat format;
+    private int pending = -1; // Primeiro byte lido durante a detecção do formato
+    private byte[] buffer = new byte[1024];
+    private byte[] current = buffer; // buffer ou o bloco descomprimido
+    private int offset;
+    private int length;
+    private long syncSeq;
+    private BatchCompression.Expander expander; // Só em streams comprimidos
+    private int blockPos;
+    private int blockEnd;
+
+    public FrameReader(InputStream in) {
+        this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+    }
+
+    /**
+     * Avança para a próxima mensagem.
+     * @return {@link #RECORD}, {@link #SYNC} ou {@link #EOF}.
+     */
+    public int next() throws IOException {
+        if (format == null) {
+            int first = in.read();
+            if (first < 0) {
+                return EOF;
+            }
+            if ((byte) first == BinaryCodec.MAGIC) {
+                byte[] preamble = new byte[BINARY_PREAMBLE.length];
+                preamble[0] = (byte) first;
+                if (in.readNBytes(preamble, 1, preamble.length - 1) < preamble.length - 1) {
+                    throw new EOFException("Conexão encerrada no preâmbulo");
+                }
+                if (Arrays.equals(preamble, BatchCompression.PREAMBLE)) {
+                    expander = new BatchCompression.Expander();
+                } else if (!Arrays.equals(preamble, BINARY_PREAMBLE)) {
+                    throw new IOException("Preâmbulo binário inválido");
+                }
+                format = WireFormat.BINARY;
+            } else {
+                format = WireFormat.JSON;
+                pending = first;
+            }
+        }
+        return format == WireFormat.BINARY ? nextBinary() : nextLine();
+    }
+
+    /**
+     * Formato do stream, conhecido após a primeira chamada a {@link #next()}.
+     */
+    public WireFormat format() {
+        return format;
+    }
+
+    public byte[] buffer() {
+        return current;
+    }
+
+    /**
+     * Início da mensagem corrente em {@link #buffer()}.
+     */
+    public int offset() {
+        return offset;
+    }
+
+    /**
+     * Se o stream é comprimido, conhecido após a primeira chamada a {@link #next()}.
+     */
+    public boolean isCompressed() {
+        return expander != null;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Número de sequência do último {@link #SYNC} lido.
+     */
+    public long syncSeq() {
+        return syncSeq;
+    }
+
+    private int nextBinary() throws IOException {
+        if (blockPos < blockEnd) {
+            byte[] block = expander.block();
+            int size = BatchCompression.recordLength(block, blockPos, blockEnd);
+            current = block;
+            offset = blockPos + 4;
+            length = size;
+            blockPos += 4 + size;
+            return RECORD;
+        }
+        int b0 = in.read();
+        if (b0 < 0) {
+            return EOF;
+        }
+        int size = (b0 << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        length = 0; // O conteúdo anterior do buffer não precisa ser preservado
+        if (size == BatchCompression.BLOCK_LENGTH && expander != null) {
+            int rawLength = readInt();
+            int compressed = readInt();
+            if (compressed <= 0 || compressed > BatchCompression.MAX_BLOCK_SIZE) {
+                throw new IOException("Tamanho de bloco comprimido inválido: " + compressed);
+            }
+            ensureCapacity(compressed);
+            if (in.readNBytes(buffer, 0, compressed) < compressed) {
+                throw new EOFException("Conexão encerrada no meio de um bloco");
+            }
+            expander.expand(buffer, 0, compressed, rawLength);
+            blockPos = 0;
+            blockEnd = rawLength;
+            return nextBinary();
+        }
+        offset = 0;
+        if (size == SYNC_LENGTH) {
+            long high = ((long) readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+            long low = ((long) readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+            syncSeq = (high << 32) | low;
+            return SYNC;
+        }
+        if (size <= 0 || size > MAX_MESSAGE_SIZE) {
+            throw new IOException("Tamanho de mensagem inválido: " + size);
+        }
+        ensureCapacity(size);
+        current = buffer; // Depois de ensureCapacity, que pode trocar o buffer
+        int read = in.readNBytes(buffer, 0, size);
+        if (read < size) {
+            throw new EOFException("Conexão encerrada no meio de uma mensagem");
+        }
+        length = size;
+        return RECORD;
+    }
+
+    private int readInt() throws IOException {
+        return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+    }
+
+    private int nextLine() throws IOException {
+        while (true) {
+            length = 0;
+            int b = pending >= 0 ? pending : in.read();
+            pending = -1;
+            while (b >= 0 && b != '\n') {
+                if (length == MAX_MESSAGE_SIZE) {
+                    throw new IOException("Linha maior que " + MAX_MESSAGE_SIZE + " bytes");
+                }
+                ensureCapacity(length + 1);
+                buffer[length++] = (byte) b;
+                b = in.read();
+            }
+            current = buffer;
+            if (length > 0 && buffer[length - 1] == '\r') {
+                length--;
+            }
+            if (length == 0) {
+                if (b < 0) {
+                    return EOF;
+                }
+                continue; // Linha vazia
+            }
+            if (startsWithSync()) {
+                String seq = new String(buffer, SYNC_PREFIX_BYTES.length, length - SYNC_PREFIX_BYTES.length, StandardCharsets.US_ASCII);
+                try {
+                    syncSeq = Long.parseLong(seq.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Marcador de fim de lote inválido: " + seq);
+                }
+                return SYNC;
+            }
+            return RECORD;
+        }
+    }
+
+    private boolean startsWithSync() {
+        if (length < SYNC_PREFIX_BYTES.length) {
+            return false;
+        }
+        for (int i = 0; i < SYNC_PREFIX_BYTES.length; i++) {
+            if (buffer[i] != SYNC_PREFIX_BYTES[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Conexão encerrada no meio de uma mensagem");
+        }
+        return b;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > buffer.length) {
+            byte[] bigger = new byte[Math.max(size, buffer.length * 2)];
+            System.arraycopy(buffer, 0, bigger, 0, length);
+            buffer = bigger;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package puc.paralela.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Escreve mensagens num stream TCP no formato do enlace.
+ *
+ * JSON: uma mensagem por linha; o fim de lote é a linha "#SYNC n".
+ * Binário: o stream começa com o preâmbulo {@link FrameReader#BINARY_PREAMBLE};
+ * cada mensagem é precedida do seu tamanho (int, big-endian) e o fim de lote
+ * é o tamanho -1 seguido do número de sequência (long).
+ * Comprimido: as mensagens de cada lote são acumuladas e escritas num só bloco
+ * comprimido antes do fim de lote (ver {@link BatchCompression}).
+ */
+public final class FrameWriter {
+    private final OutputStream out;
+    private final WireFormat format;
+    private final byte[] scratch = new byte[12];
+    private final BatchCompression.Compressor compressor; // null sem compressão
+    private byte[] block;  // Mensagens do lote atual, no modo comprimido
+    private int blockLength;
+    private int lastRawBytes;
+    private int lastCompressedBytes;
+    private long lastCompressNanos;
+
+    public FrameWriter(OutputStream out, WireFormat format) {
+        this(out, format, 0);
+    }
+
+    /**
+     * @param compressionLevel Nível do Deflater (1, mais rápido, a 9); 0 sem compressão.
+     */
+    public FrameWriter(OutputStream out, WireFormat format, int compressionLevel) {
+        this.out = out;
+        this.format = format;
+        this.compressor = compressionLevel > 0 ? new BatchCompression.Compressor(compressionLevel) : null;
+        this.block = compressionLevel > 0 ? new byte[4096] : null;
+    }
+
+    public WireFormat format() {
+        return format;
+    }
+
+    /**
+     * Deve ser chamado uma vez, logo após a conexão ser aberta.
+     */
+    public void writePreamble() throws IOException {
+        if (compressor != null) {
+            out.write(BatchCompression.PREAMBLE);
+        } else if (format == WireFormat.BINARY) {
+            out.write(FrameReader.BINARY_PREAMBLE);
+        }
+    }
+
+    public void writeRecord(byte[] record) throws IOException {
+        writeRecord(record, 0, record.length);
+    }
+
+    public void writeRecord(byte[] buf, int off, int len) throws IOException {
+        if (compressor != null) {
+            if (blockLength + 4 + len > block.length) {
+                byte[] bigger = new byte[Math.max(blockLength + 4 + len, block.length * 2)];
+                System.arraycopy(block, 0, bigger, 0, blockLength);
+                block = bigger;
+            }
+            putInt(block, blockLength, len);
+            System.arraycopy(buf, off, block, blockLength + 4, len);
+            blockLength += 4 + len;
+        } else if (format == WireFormat.BINARY) {
+            putInt(scratch, 0, len);
+            out.write(scratch, 0, 4);
+            out.write(buf, off, len);
+        } else {
+            out.write(buf, off, len);
+            out.write('\n');
+        }
+    }
+
+    public void writeSync(long seq) throws IOException {
+        if (compressor != null) {
+            writeBlock();
+        }
+        if (compressor != null || format == WireFormat.BINARY) {
+            putInt(scratch, 0, FrameReader.SYNC_LENGTH);
+            putLong(scratch, 4, seq);
+            out.write(scratch, 0, 12);
+        } else {
+            out.write((FrameReader.SYNC_PREFIX + seq + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private void writeBlock() throws IOException {
+        lastRawBytes = blockLength;
+        lastCompressedBytes = 0;
+        lastCompressNanos = 0;
+        if (blockLength == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        int compressed = compressor.compress(block, blockLength);
+        lastCompressNanos = System.nanoTime() - start;
+        putInt(scratch, 0, BatchCompression.BLOCK_LENGTH);
+        putInt(scratch, 4, blockLength);
+        putInt(scratch, 8, compressed);
+        out.write(scratch, 0, 12);
+        out.write(compressor.output(), 0, compressed);
+        lastCompressedBytes = compressed;
+        blockLength = 0;
+    }
+
+    public boolean isCompressed() {
+        return compressor != null;
+    }
+
+    /**
+     * Bytes das mensagens (com os tamanhos) do último lote comprimido, antes da compressão.
+     */
+    public int lastRawBytes() {
+        return lastRawBytes;
+    }
+
+    /**
+     * Bytes do último lote depois da compressão, sem o cabeçalho do bloco.
+     */
+    public int lastCompressedBytes() {
+        return lastCompressedBytes;
+    }
+
+    public long lastCompressNanos() {
+        return lastCompressNanos;
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    private static void putLong(byte[] b, int off, long v) {
+        putInt(b, off, (int) (v >>> 32));
+        putInt(b, off + 4, (int) v);
+    }
+}
@@ -0,0 +1,360 @@
+package puc.paralela.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import org.json.JSONObject;
+
+/**
+ * Conversão entre {@link Leitura} e o formato JSON original do projeto, mantido
+ * para os enlaces que ainda não usam o formato binário.
+ */
+public final class JsonCodec {
+    private static final byte[] BRINCO_ID = ascii("brinco_id");
+    private static final byte[] TIMESTAMP = ascii("timestamp");
+    private static final byte[] TEMPERATURA = ascii("temperatura");
+    private static final byte[] ALERTA_FEBRE = ascii("alerta_febre");
+    private static final byte[] ALERTA_INATIVIDADE = ascii("alerta_inatividade");
+    private static final byte[] ALERTA_DERIVA = ascii("alerta_deriva");
+    private static final byte[] PROCESSED_AT_GATEWAY = ascii("processed_at_gateway_ms");
+    private static final byte[] GATEWAY_FIELD = ascii(",\"processed_at_gateway_ms\":");
+
+    private JsonCodec() {
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Preenche {@code into} a partir de um objeto JSON. A temperatura é aceita
+     * tanto como número quanto como String (inclusive com vírgula decimal).
+     */
+    public static void fromJson(JSONObject data, Leitura into) {
+        into.clear();
+        into.setBrincoId(data.optString("brinco_id", "N/A"));
+        into.setTimestamp(data.optLong("timestamp", 0L));
+
+        JSONObject localizacao = data.optJSONObject("localizacao");
+        if (localizacao != null) {
+            into.setLocalizacao(localizacao.optDouble("lat"), localizacao.optDouble("lon"));
+        }
+
+        Object temperatura = data.opt("temperatura");
+        if (temperatura instanceof Number) {
+            into.setTemperatura(((Number) temperatura).floatValue());
+        } else if (temperatura != null) {
+            into.setTemperatura(Float.parseFloat(temperatura.toString().replace(',', '.')));
+        }
+
+        into.setAtividade(Atividade.fromNome(data.optString("atividade", "")));
+        into.setFlag(Leitura.FLAG_ALERTA_FEBRE, data.optBoolean("alerta_febre", false));
+        into.setFlag(Leitura.FLAG_ALERTA_INATIVIDADE, data.optBoolean("alerta_inatividade", false));
+        into.setFlag(Leitura.FLAG_ALERTA_DERIVA, data.optBoolean("alerta_deriva", false));
+        into.setProcessedAtGatewayMs(data.optLong("processed_at_gateway_ms", 0L));
+        into.setProcessedAtBordaMs(data.optLong("processed_at_borda_ms", 0L));
+
+        JSONObject resumo = data.optJSONObject("resumo");
+        if (resumo != null) {
+            float temperaturaAtual = into.getTemperatura();
+            into.setResumo(resumo.optInt("amostras", 1), resumo.optLong("inicio_janela", into.getTimestamp()),
+                    parseTemperatura(resumo.opt("temperatura_min"), temperaturaAtual),
+                    parseTemperatura(resumo.opt("temperatura_max"), temperaturaAtual));
+            JSONObject atividades = resumo.optJSONObject("atividades");
+            if (atividades != null) {
+                for (String nome : atividades.keySet()) {
+                    into.setContagemAtividade(Atividade.fromNome(nome).ordinal(), atividades.optInt(nome, 0));
+                }
+            }
+        }
+    }
+
+    private static float parseTemperatura(Object value, float defaultValue) {
+        if (value instanceof Number) {
+            return ((Number) value).floatValue();
+        }
+        return value == null ? defaultValue : Float.parseFloat(value.toString().replace(',', '.'));
+    }
+
+    /**
+     * Gera o JSON equivalente à leitura. Os campos da borda ("alerta_febre",
+     * "alerta_inatividade", "alerta_deriva" e "processed_at_borda_ms") só aparecem depois que a
+     * leitura passou pelo Nó de Borda; "processed_at_gateway_ms", depois que passou pelo Gateway.
+     * Resumos de janela ({@link Leitura#FLAG_RESUMO}) trazem o objeto "resumo".
+     */
+    public static JSONObject toJson(Leitura leitura) {
+        JSONObject data = new JSONObject();
+        data.put("brinco_id", leitura.getBrincoId());
+        data.put("timestamp", leitura.getTimestamp());
+
+        if (leitura.hasFlag(Leitura.FLAG_LOCALIZACAO)) {
+            JSONObject localizacao = new JSONObject();
+            localizacao.put("lat", leitura.getLat());
+            localizacao.put("lon", leitura.getLon());
+            data.put("localizacao", localizacao);
+        }
+
+        data.put("temperatura", String.format(Locale.ROOT, "%.2f", leitura.getTemperatura()));
+        data.put("atividade", leitura.getAtividade().nome());
+
+        if (leitura.getProcessedAtGatewayMs() != 0) {
+            data.put("processed_at_gateway_ms", leitura.getProcessedAtGatewayMs());
+        }
+        if (leitura.getProcessedAtBordaMs() != 0) {
+            data.put("alerta_febre", leitura.hasFlag(Leitura.FLAG_ALERTA_FEBRE));
+            if (leitura.hasFlag(Leitura.FLAG_ALERTA_INATIVIDADE)) {
+                data.put("alerta_inatividade", true);
+            }
+            if (leitura.hasFlag(Leitura.FLAG_ALERTA_DERIVA)) {
+                data.put("alerta_deriva", true);
+            }
+            data.put("processed_at_borda_ms", leitura.getProcessedAtBordaMs());
+        }
+        if (leitura.isResumo()) {
+            JSONObject resumo = new JSONObject();
+            resumo.put("amostras", leitura.getAmostras());
+            resumo.put("inicio_janela", leitura.getInicioJanelaMs());
+            resumo.put("temperatura_min", String.format(Locale.ROOT, "%.2f", leitura.getTemperaturaMin()));
+            resumo.put("temperatura_max", String.format(Locale.ROOT, "%.2f", leitura.getTemperaturaMax()));
+            JSONObject atividades = new JSONObject();
+            for (int a = 0; a < Atividade.count(); a++) {
+                Atividade atividade = Atividade.fromCode(a);
+                if (leitura.getContagemAtividade(atividade) > 0) {
+                    atividades.put(atividade.nome(), leitura.getContagemAtividade(atividade));
+                }
+            }
+            resumo.put("atividades", atividades);
+            data.put("resumo", resumo);
+        }
+        return data;
+    }
+
+    /**
+     * Lê direto dos bytes, sem montar String nem JSONObject, só os campos de que o Gateway
+     * precisa na recepção: brinco_id, timestamp, temperatura e os alertas. Os demais campos
+     * ficam com os valores de {@link Leitura#clear()}.
+     * @return false se a mensagem precisar da decodificação completa: JSON fora do formato
+     *         simples (escapes no id, números com expoente, campos faltando) ou já marcada pelo Gateway.
+     */
+    static boolean scanHeader(byte[] buf, int off, int len, Leitura into) {
+        into.clear();
+        int end = off + len;
+        boolean hasId = false;
+        boolean hasTimestamp = false;
+        try {
+            int i = skipWhitespace(buf, off, end);
+            if (i >= end || buf[i] != '{') {
+                return false;
+            }
+            i++;
+            while (true) {
+                i = skipWhitespace(buf, i, end);
+                if (i >= end) {
+                    return false;
+                }
+                if (buf[i] == '}') {
+                    break;
+                }
+                if (buf[i] == ',') {
+                    i++;
+                    continue;
+                }
+                if (buf[i] != '"') {
+                    return false;
+                }
+                int keyStart = i + 1;
+                int keyEnd = skipString(buf, i, end) - 1;
+                i = skipWhitespace(buf, keyEnd + 1, end);
+                if (i >= end || buf[i] != ':') {
+                    return false;
+                }
+                int value = skipWhitespace(buf, i + 1, end);
+                i = skipValue(buf, value, end);
+                if (matches(buf, keyStart, keyEnd, BRINCO_ID)) {
+                    int idLength = i - value - 2;
+                    if (buf[value] != '"' || indexOf(buf, value + 1, i - 1, '\\') >= 0) {
+                        return false;
+                    }
+                    into.setBrincoIdBytes(buf, value + 1, idLength);
+                    hasId = true;
+                } else if (matches(buf, keyStart, keyEnd, TIMESTAMP)) {
+                    into.setTimestamp(parseLong(buf, value, i));
+                    hasTimestamp = true;
+                } else if (matches(buf, keyStart, keyEnd, TEMPERATURA)) {
+                    into.setTemperatura(buf[value] == '"' ? parseDecimal(buf, value + 1, i - 1) : parseDecimal(buf, value, i));
+                } else if (matches(buf, keyStart, keyEnd, ALERTA_FEBRE)) {
+                    into.setFlag(Leitura.FLAG_ALERTA_FEBRE, buf[value] == 't');
+                } else if (matches(buf, keyStart, keyEnd, ALERTA_INATIVIDADE)) {
+                    into.setFlag(Leitura.FLAG_ALERTA_INATIVIDADE, buf[value] == 't');
+                } else if (matches(buf, keyStart, keyEnd, ALERTA_DERIVA)) {
+                    into.setFlag(Leitura.FLAG_ALERTA_DERIVA, buf[value] == 't');
+                } else if (matches(buf, keyStart, keyEnd, PROCESSED_AT_GATEWAY)) {
+                    return false;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return hasId && hasTimestamp;
+    }
+
+    /**
+     * Copia a mensagem acrescentando "processed_at_gateway_ms" no fim do objeto, sem decodificá-la.
+     * A mensagem deve ter passado por {@link #scanHeader} (um objeto sem esse campo).
+     */
+    static byte[] appendGatewayStamp(byte[] record, long gatewayMs) {
+        int close = record.length - 1;
+        while (close > 0 && record[close] != '}') {
+            close--;
+        }
+        int last = close - 1;
+        while (last > 0 && isWhitespace(record[last])) {
+            last--;
+        }
+        boolean empty = record[last] == '{';
+        int digits = 1;
+        for (long rest = gatewayMs / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int prefix = empty ? GATEWAY_FIELD.length - 1 : GATEWAY_FIELD.length;
+        byte[] stamped = new byte[close + prefix + digits + 1];
+        System.arraycopy(record, 0, stamped, 0, close);
+        System.arraycopy(GATEWAY_FIELD, GATEWAY_FIELD.length - prefix, stamped, close, prefix);
+        long value = gatewayMs;
+        for (int p = close + prefix + digits - 1; p >= close + prefix; p--) {
+            stamped[p] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        stamped[stamped.length - 1] = '}';
+        return stamped;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static int skipWhitespace(byte[] buf, int i, int end) {
+        while (i < end && isWhitespace(buf[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return posição logo depois das aspas que fecham a string que começa em {@code i}.
+     */
+    private static int skipString(byte[] buf, int i, int end) {
+        for (i++; i < end; i++) {
+            if (buf[i] == '\\') {
+                i++;
+            } else if (buf[i] == '"') {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("String sem fim");
+    }
+
+    /**
+     * @return posição logo depois do valor que começa em {@code i} (string, objeto, lista, número ou literal).
+     */
+    private static int skipValue(byte[] buf, int i, int end) {
+        if (i >= end) {
+            throw new IllegalArgumentException("Valor faltando");
+        }
+        if (buf[i] == '"') {
+            return skipString(buf, i, end);
+        }
+        if (buf[i] == '{' || buf[i] == '[') {
+            int depth = 0;
+            while (i < end) {
+                byte b = buf[i];
+                if (b == '"') {
+                    i = skipString(buf, i, end);
+                    continue;
+                }
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if ((b == '}' || b == ']') && --depth == 0) {
+                    return i + 1;
+                }
+                i++;
+            }
+            throw new IllegalArgumentException("Objeto sem fim");
+        }
+        int start = i;
+        while (i < end && buf[i] != ',' && buf[i] != '}' && buf[i] != ']' && !isWhitespace(buf[i])) {
+            i++;
+        }
+        if (i == start) {
+            throw new IllegalArgumentException("Valor vazio");
+        }
+        return i;
+    }
+
+    private static boolean matches(byte[] buf, int from, int to, byte[] name) {
+        if (to - from != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (buf[from + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] buf, int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long parseLong(byte[] buf, int from, int to) {
+        boolean negative = from < to && buf[from] == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to || to - i > 18) {
+            throw new IllegalArgumentException("Número inválido");
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Número inválido");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Número decimal simples, com ponto ou vírgula (como {@link #fromJson}); sem expoente.
+     */
+    private static float parseDecimal(byte[] buf, int from, int to) {
+        boolean negative = from < to && buf[from] == '-';
+        int i = negative ? from + 1 : from;
+        long mantissa = 0;
+        int scale = -1;
+        int digits = 0;
+        for (; i < to; i++) {
+            byte b = buf[i];
+            if ((b == '.' || b == ',') && scale < 0) {
+                scale = 0;
+            } else if (b >= '0' && b <= '9' && digits < 15) {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else {
+                throw new IllegalArgumentException("Número inválido");
+            }
+        }
+        if (digits == 0) {
+            throw new IllegalArgumentException("Número inválido");
+        }
+        double value = scale > 0 ? mantissa / Math.pow(10, scale) : mantissa;
+        return (float) (negative ? -value : value);
+    }
+}
@@ -0,0 +1,263 @@
+package puc.paralela.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Uma leitura de brinco em forma primitiva e mutável.
+ *
+ * A mesma instância pode ser reaproveitada para decodificar várias mensagens
+ * (ver {@link BinaryCodec#decode}), evitando alocação por leitura. O id do brinco
+ * é guardado como bytes; a String só é criada quando {@link #getBrincoId()} é chamado.
+ * O id pode ter qualquer tamanho; só o frame binário o limita a
+ * {@value BinaryCodec#MAX_BRINCO_ID_BYTES} bytes (ver {@link BinaryCodec#encode(Leitura, java.nio.ByteBuffer)}).
+ *
+ * Uma leitura com {@link #FLAG_RESUMO} resume várias leituras do mesmo brinco numa
+ * janela de tempo: os campos normais trazem a última delas, e os campos do resumo
+ * trazem a quantidade, o início da janela, as temperaturas mínima e máxima e
+ * quantas leituras houve de cada atividade.
+ */
+public final class Leitura {
+    public static final int FLAG_ALERTA_FEBRE = 1;
+    public static final int FLAG_FORA_DA_FAZENDA = 1 << 1;
+    public static final int FLAG_LOCALIZACAO = 1 << 2; // A leitura contém lat/lon válidas
+    public static final int FLAG_ALERTA_INATIVIDADE = 1 << 3;
+    public static final int FLAG_RESUMO = 1 << 4; // A leitura resume uma janela (ver setResumo)
+    public static final int FLAG_ALERTA_DERIVA = 1 << 5; // Temperatura acima da linha de base do animal, sem febre
+
+    private byte[] brincoId = new byte[BinaryCodec.MAX_BRINCO_ID_BYTES]; // Cresce para ids maiores
+    private int brincoIdLength;
+    private String brincoIdCache;
+
+    private long timestamp;
+    private double lat;
+    private double lon;
+    private float temperatura;
+    private Atividade atividade = Atividade.DESCONHECIDA;
+    private int flags;
+    private long processedAtGatewayMs;
+    private long processedAtBordaMs;
+
+    // Campos do resumo, válidos só com FLAG_RESUMO
+    private int amostras;
+    private long inicioJanelaMs;
+    private float temperaturaMin;
+    private float temperaturaMax;
+    private final int[] atividades = new int[Atividade.count()];
+
+    public void clear() {
+        brincoIdLength = 0;
+        brincoIdCache = "";
+        timestamp = 0;
+        lat = 0;
+        lon = 0;
+        temperatura = 0;
+        atividade = Atividade.DESCONHECIDA;
+        flags = 0;
+        processedAtGatewayMs = 0;
+        processedAtBordaMs = 0;
+        clearResumo();
+    }
+
+    public void copyFrom(Leitura other) {
+        ensureBrincoIdCapacity(other.brincoIdLength);
+        System.arraycopy(other.brincoId, 0, brincoId, 0, other.brincoIdLength);
+        brincoIdLength = other.brincoIdLength;
+        brincoIdCache = other.brincoIdCache;
+        timestamp = other.timestamp;
+        lat = other.lat;
+        lon = other.lon;
+        temperatura = other.temperatura;
+        atividade = other.atividade;
+        flags = other.flags;
+        processedAtGatewayMs = other.processedAtGatewayMs;
+        processedAtBordaMs = other.processedAtBordaMs;
+        amostras = other.amostras;
+        inicioJanelaMs = other.inicioJanelaMs;
+        temperaturaMin = other.temperaturaMin;
+        temperaturaMax = other.temperaturaMax;
+        System.arraycopy(other.atividades, 0, atividades, 0, atividades.length);
+    }
+
+    public String getBrincoId() {
+        if (brincoIdCache == null) {
+            brincoIdCache = new String(brincoId, 0, brincoIdLength, StandardCharsets.UTF_8);
+        }
+        return brincoIdCache;
+    }
+
+    public void setBrincoId(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        ensureBrincoIdCapacity(bytes.length);
+        System.arraycopy(bytes, 0, brincoId, 0, bytes.length);
+        brincoIdLength = bytes.length;
+        brincoIdCache = id;
+    }
+
+    void setBrincoIdBytes(byte[] src, int off, int len) {
+        ensureBrincoIdCapacity(len);
+        System.arraycopy(src, off, brincoId, 0, len);
+        brincoIdLength = len;
+        brincoIdCache = null;
+    }
+
+    private void ensureBrincoIdCapacity(int length) {
+        if (length > brincoId.length) {
+            brincoId = new byte[length];
+        }
+    }
+
+    byte[] brincoIdBytes() {
+        return brincoId;
+    }
+
+    int brincoIdLength() {
+        return brincoIdLength;
+    }
+
+    /**
+     * Chave primitiva do brinco (hash FNV-1a de 64 bits dos bytes do id), calculada sem alocação.
+     */
+    public long brincoKey() {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < brincoIdLength; i++) {
+            h ^= brincoId[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+
+    public void setLocalizacao(double lat, double lon) {
+        this.lat = lat;
+        this.lon = lon;
+        this.flags |= FLAG_LOCALIZACAO;
+    }
+
+    void setLatLon(double lat, double lon) {
+        this.lat = lat;
+        this.lon = lon;
+    }
+
+    public float getTemperatura() {
+        return temperatura;
+    }
+
+    public void setTemperatura(float temperatura) {
+        this.temperatura = temperatura;
+    }
+
+    public Atividade getAtividade() {
+        return atividade;
+    }
+
+    public void setAtividade(Atividade atividade) {
+        this.atividade = atividade;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public void setFlags(int flags) {
+        this.flags = flags;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    public void setFlag(int flag, boolean value) {
+        flags = value ? flags | flag : flags & ~flag;
+    }
+
+    public long getProcessedAtGatewayMs() {
+        return processedAtGatewayMs;
+    }
+
+    public void setProcessedAtGatewayMs(long processedAtGatewayMs) {
+        this.processedAtGatewayMs = processedAtGatewayMs;
+    }
+
+    public long getProcessedAtBordaMs() {
+        return processedAtBordaMs;
+    }
+
+    public void setProcessedAtBordaMs(long processedAtBordaMs) {
+        this.processedAtBordaMs = processedAtBordaMs;
+    }
+
+    public boolean isResumo() {
+        return hasFlag(FLAG_RESUMO);
+    }
+
+    /**
+     * Transforma a leitura (a última da janela) no resumo da janela.
+     * @param atividades Quantidade de leituras de cada atividade, indexada por {@link Atividade#ordinal()}.
+     */
+    public void setResumo(int amostras, long inicioJanelaMs, float temperaturaMin, float temperaturaMax, int[] atividades) {
+        setResumo(amostras, inicioJanelaMs, temperaturaMin, temperaturaMax);
+        System.arraycopy(atividades, 0, this.atividades, 0, this.atividades.length);
+    }
+
+    void setResumo(int amostras, long inicioJanelaMs, float temperaturaMin, float temperaturaMax) {
+        this.amostras = amostras;
+        this.inicioJanelaMs = inicioJanelaMs;
+        this.temperaturaMin = temperaturaMin;
+        this.temperaturaMax = temperaturaMax;
+        this.flags |= FLAG_RESUMO;
+    }
+
+    void setContagemAtividade(int ordinal, int count) {
+        atividades[ordinal] = count;
+    }
+
+    private void clearResumo() {
+        amostras = 0;
+        inicioJanelaMs = 0;
+        temperaturaMin = 0;
+        temperaturaMax = 0;
+        Arrays.fill(atividades, 0);
+    }
+
+    /**
+     * Quantidade de leituras resumidas (1 se a leitura não for um resumo).
+     */
+    public int getAmostras() {
+        return isResumo() ? amostras : 1;
+    }
+
+    public long getInicioJanelaMs() {
+        return isResumo() ? inicioJanelaMs : timestamp;
+    }
+
+    public float getTemperaturaMin() {
+        return isResumo() ? temperaturaMin : temperatura;
+    }
+
+    public float getTemperaturaMax() {
+        return isResumo() ? temperaturaMax : temperatura;
+    }
+
+    public int getContagemAtividade(Atividade atividade) {
+        if (!isResumo()) {
+            return atividade == this.atividade ? 1 : 0;
+        }
+        return atividades[atividade.ordinal()];
+    }
+}
@@ -0,0 +1,90 @@
+package puc.paralela.codec;
+
+import java.nio.charset.StandardCharsets;
+import org.json.JSONObject;
+
+/**
+ * Formato das leituras num enlace. Cada enlace escolhe o seu formato na
+ * inicialização; quem recebe detecta o formato de cada mensagem pelo primeiro
+ * byte, então nós antigos (JSON) e novos (binário) podem conviver.
+ */
+public enum WireFormat {
+    JSON {
+        @Override
+        public byte[] encode(Leitura leitura) {
+            return JsonCodec.toJson(leitura).toString().getBytes(StandardCharsets.UTF_8);
+        }
+    },
+    BINARY {
+        @Override
+        public byte[] encode(Leitura leitura) {
+            return BinaryCodec.encode(leitura);
+        }
+    };
+
+    /**
+     * Codifica a leitura num byte[] novo neste formato.
+     */
+    public abstract byte[] encode(Leitura leitura);
+
+    /**
+     * Detecta o formato de uma mensagem já recebida.
+     */
+    public static WireFormat detect(byte[] buf, int off, int len) {
+        return BinaryCodec.isBinary(buf, off, len) ? BINARY : JSON;
+    }
+
+    /**
+     * Decodifica uma mensagem em qualquer um dos formatos para dentro de {@code into}.
+     */
+    public static void decode(byte[] buf, int off, int len, Leitura into) {
+        if (BinaryCodec.isBinary(buf, off, len)) {
+            BinaryCodec.decode(buf, off, len, into);
+        } else {
+            JsonCodec.fromJson(new JSONObject(new String(buf, off, len, StandardCharsets.UTF_8)), into);
+        }
+    }
+
+    /**
+     * Converte a mensagem para este formato, reaproveitando {@code scratch} na conversão.
+     * Se ela já estiver neste formato, é devolvida sem cópia.
+     */
+    public byte[] convert(byte[] record, Leitura scratch) {
+        if (detect(record, 0, record.length) == this) {
+            return record;
+        }
+        decode(record, 0, record.length, scratch);
+        return encode(scratch);
+    }
+
+    /**
+     * Marca a mensagem com o instante de recepção no gateway e deixa a leitura em {@code scratch},
+     * sem decodificar a mensagem para String. Frames binários atuais são marcados no próprio
+     * array (frames antigos são recodificados). No JSON o campo é acrescentado aos bytes
+     * originais, e {@code scratch} recebe só brinco_id, timestamp, temperatura e os alertas;
+     * só mensagens fora do formato simples passam pela decodificação completa e são recodificadas.
+     * @return a mensagem marcada (o próprio {@code record} ou um array novo).
+     */
+    public static byte[] stampGateway(byte[] record, long gatewayMs, Leitura scratch) {
+        if (BinaryCodec.isBinary(record, 0, record.length)) {
+            BinaryCodec.decode(record, 0, record.length, scratch);
+            scratch.setProcessedAtGatewayMs(gatewayMs);
+            return BinaryCodec.stampGateway(record, 0, record.length, gatewayMs) ? record : BinaryCodec.encode(scratch);
+        }
+        if (JsonCodec.scanHeader(record, 0, record.length, scratch)) {
+            scratch.setProcessedAtGatewayMs(gatewayMs);
+            return JsonCodec.appendGatewayStamp(record, gatewayMs);
+        }
+        decode(record, 0, record.length, scratch);
+        scratch.setProcessedAtGatewayMs(gatewayMs);
+        return JSON.encode(scratch);
+    }
+
+    /**
+     * Lê o formato de uma propriedade de sistema ("json" ou "binary"), com JSON como padrão.
+     */
+    public static WireFormat fromProperty(String property) {
+        String value = System.getProperty(property, "json");
+        return "binary".equalsIgnoreCase(value) || "binario".equalsIgnoreCase(value) ? BINARY : JSON;
+    }
+}
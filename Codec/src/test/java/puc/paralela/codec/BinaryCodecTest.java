@@ -0,0 +1,198 @@
+package puc.paralela.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class BinaryCodecTest {
+
+    static Leitura sample() {
+        Leitura leitura = new Leitura();
+        leitura.setBrincoId("BRINCO-0042");
+        leitura.setTimestamp(1_700_000_000_123L);
+        leitura.setLocalizacao(-19.9205, -43.9352);
+        leitura.setTemperatura(39.75f);
+        leitura.setAtividade(Atividade.ANDANDO);
+        leitura.setFlag(Leitura.FLAG_ALERTA_FEBRE, true);
+        leitura.setProcessedAtGatewayMs(1_700_000_000_200L);
+        leitura.setProcessedAtBordaMs(1_700_000_000_300L);
+        return leitura;
+    }
+
+    static Leitura summary() {
+        Leitura leitura = sample();
+        int[] atividades = new int[Atividade.count()];
+        atividades[Atividade.PASTANDO.ordinal()] = 7;
+        atividades[Atividade.ANDANDO.ordinal()] = 3;
+        leitura.setResumo(10, leitura.getTimestamp() - 30_000, 38.5f, 40.25f, atividades);
+        return leitura;
+    }
+
+    static void assertSameReading(Leitura expected, Leitura actual) {
+        assertEquals(expected.getBrincoId(), actual.getBrincoId());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getLat(), actual.getLat(), 0);
+        assertEquals(expected.getLon(), actual.getLon(), 0);
+        assertEquals(expected.getTemperatura(), actual.getTemperatura(), 0);
+        assertEquals(expected.getAtividade(), actual.getAtividade());
+        assertEquals(expected.getFlags(), actual.getFlags());
+        assertEquals(expected.getProcessedAtGatewayMs(), actual.getProcessedAtGatewayMs());
+        assertEquals(expected.getProcessedAtBordaMs(), actual.getProcessedAtBordaMs());
+    }
+
+    static void assertSameSummary(Leitura expected, Leitura actual) {
+        assertTrue(actual.isResumo());
+        assertEquals(expected.getAmostras(), actual.getAmostras());
+        assertEquals(expected.getInicioJanelaMs(), actual.getInicioJanelaMs());
+        // O resumo guarda as temperaturas em centésimos de grau
+        assertEquals(expected.getTemperaturaMin(), actual.getTemperaturaMin(), 0.006);
+        assertEquals(expected.getTemperaturaMax(), actual.getTemperaturaMax(), 0.006);
+        for (Atividade atividade : Atividade.values()) {
+            assertEquals(atividade.nome(), expected.getContagemAtividade(atividade), actual.getContagemAtividade(atividade));
+        }
+    }
+
+    /**
+     * Frame da versão 1: o frame atual sem o campo do gateway.
+     */
+    private static byte[] v1Frame(Leitura leitura) {
+        byte[] frame = Arrays.copyOf(BinaryCodec.encode(leitura), BinaryCodec.FRAME_SIZE_V1);
+        frame[1] = 1;
+        return frame;
+    }
+
+    @Test
+    public void roundTripsFromArrayAndBuffer() {
+        Leitura leitura = sample();
+        byte[] frame = BinaryCodec.encode(leitura);
+        assertEquals(BinaryCodec.FRAME_SIZE, frame.length);
+
+        Leitura fromArray = new Leitura();
+        BinaryCodec.decode(frame, 0, frame.length, fromArray);
+        assertSameReading(leitura, fromArray);
+
+        Leitura fromBuffer = new Leitura();
+        BinaryCodec.decode(ByteBuffer.wrap(frame), fromBuffer);
+        assertSameReading(leitura, fromBuffer);
+    }
+
+    @Test
+    public void roundTripsSummaryTail() {
+        Leitura leitura = summary();
+        byte[] frame = BinaryCodec.encode(leitura);
+        assertEquals(BinaryCodec.FRAME_SIZE + BinaryCodec.SUMMARY_SIZE, frame.length);
+
+        Leitura fromArray = new Leitura();
+        BinaryCodec.decode(frame, 0, frame.length, fromArray);
+        assertSameReading(leitura, fromArray);
+        assertSameSummary(leitura, fromArray);
+
+        ByteBuffer in = ByteBuffer.wrap(frame);
+        Leitura fromBuffer = new Leitura();
+        BinaryCodec.decode(in, fromBuffer);
+        assertSameSummary(leitura, fromBuffer);
+        assertEquals(0, in.remaining());
+    }
+
+    @Test
+    public void decodesConsecutiveFramesFromOneBuffer() {
+        Leitura first = summary();
+        Leitura second = sample();
+        second.setBrincoId("OUTRO");
+        ByteBuffer buffer = ByteBuffer.allocate(BinaryCodec.frameSize(first) + BinaryCodec.frameSize(second));
+        BinaryCodec.encode(first, buffer);
+        BinaryCodec.encode(second, buffer);
+        buffer.flip();
+
+        // A mesma instância é reaproveitada: o resumo da primeira não pode vazar para a segunda
+        Leitura into = new Leitura();
+        BinaryCodec.decode(buffer, into);
+        assertSameSummary(first, into);
+        BinaryCodec.decode(buffer, into);
+        assertSameReading(second, into);
+        assertFalse(into.isResumo());
+    }
+
+    @Test
+    public void acceptsVersion1Frames() {
+        Leitura leitura = sample();
+        byte[] frame = v1Frame(leitura);
+
+        Leitura decoded = new Leitura();
+        BinaryCodec.decode(frame, 0, frame.length, decoded);
+        assertEquals(0, decoded.getProcessedAtGatewayMs());
+        leitura.setProcessedAtGatewayMs(0);
+        assertSameReading(leitura, decoded);
+
+        Leitura fromBuffer = new Leitura();
+        BinaryCodec.decode(ByteBuffer.wrap(frame), fromBuffer);
+        assertSameReading(leitura, fromBuffer);
+    }
+
+    @Test
+    public void stampsGatewayInPlace() {
+        Leitura leitura = sample();
+        leitura.setProcessedAtGatewayMs(0);
+        byte[] frame = BinaryCodec.encode(leitura);
+
+        assertTrue(BinaryCodec.stampGateway(frame, 0, frame.length, 1234L));
+        Leitura decoded = new Leitura();
+        BinaryCodec.decode(frame, 0, frame.length, decoded);
+        assertEquals(1234L, decoded.getProcessedAtGatewayMs());
+        leitura.setProcessedAtGatewayMs(1234L);
+        assertSameReading(leitura, decoded);
+        assertEquals(leitura.getTimestamp(), BinaryCodec.timestampOf(frame, 0, frame.length));
+    }
+
+    @Test
+    public void doesNotStampVersion1Frames() {
+        byte[] frame = v1Frame(sample());
+        byte[] original = frame.clone();
+        assertFalse(BinaryCodec.stampGateway(frame, 0, frame.length, 1234L));
+        assertTrue(Arrays.equals(original, frame));
+    }
+
+    @Test
+    public void wireFormatReencodesVersion1FramesWhenStamping() {
+        Leitura scratch = new Leitura();
+        byte[] stamped = WireFormat.stampGateway(v1Frame(sample()), 1234L, scratch);
+        assertEquals(BinaryCodec.FRAME_SIZE, stamped.length);
+        Leitura decoded = new Leitura();
+        BinaryCodec.decode(stamped, 0, stamped.length, decoded);
+        assertEquals(1234L, decoded.getProcessedAtGatewayMs());
+        assertEquals(1234L, scratch.getProcessedAtGatewayMs());
+    }
+
+    @Test
+    public void rejectsUnknownAndTruncatedFrames() {
+        byte[] frame = BinaryCodec.encode(summary());
+        assertRejected(Arrays.copyOf(frame, BinaryCodec.FRAME_SIZE_V1 - 1));
+        assertRejected(Arrays.copyOf(frame, BinaryCodec.FRAME_SIZE - 1));
+        // Flag de resumo sem os bytes do resumo
+        assertRejected(Arrays.copyOf(frame, BinaryCodec.FRAME_SIZE));
+
+        byte[] unknownVersion = frame.clone();
+        unknownVersion[1] = 9;
+        assertRejected(unknownVersion);
+    }
+
+    private static void assertRejected(byte[] frame) {
+        try {
+            BinaryCodec.decode(frame, 0, frame.length, new Leitura());
+            fail("Frame de " + frame.length + " bytes aceito pela decodificação do array");
+        } catch (IllegalArgumentException expected) {
+            // Esperado
+        }
+        try {
+            BinaryCodec.decode(ByteBuffer.wrap(frame), new Leitura());
+            fail("Frame de " + frame.length + " bytes aceito pela decodificação do buffer");
+        } catch (IllegalArgumentException expected) {
+            // Esperado
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package puc.paralela.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static puc.paralela.codec.BinaryCodecTest.assertSameReading;
+import static puc.paralela.codec.BinaryCodecTest.assertSameSummary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class FrameReaderTest {
+
+    /**
+     * Dois lotes: leitura e resumo no primeiro, leitura no segundo.
+     */
+    private static byte[] write(WireFormat format, int compressionLevel) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FrameWriter writer = new FrameWriter(out, format, compressionLevel);
+        writer.writePreamble();
+        writer.writeRecord(format.encode(BinaryCodecTest.sample()));
+        writer.writeRecord(format.encode(BinaryCodecTest.summary()));
+        writer.writeSync(1);
+        writer.writeRecord(format.encode(BinaryCodecTest.sample()));
+        writer.writeSync(Long.MAX_VALUE);
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    private static void assertBatches(byte[] stream, WireFormat format, boolean compressed) throws IOException {
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(stream));
+        Leitura leitura = new Leitura();
+
+        assertEquals(FrameReader.RECORD, reader.next());
+        assertEquals(format, reader.format());
+        assertEquals(compressed, reader.isCompressed());
+        WireFormat.decode(reader.buffer(), reader.offset(), reader.length(), leitura);
+        assertSameReading(BinaryCodecTest.sample(), leitura);
+
+        assertEquals(FrameReader.RECORD, reader.next());
+        WireFormat.decode(reader.buffer(), reader.offset(), reader.length(), leitura);
+        assertSameSummary(BinaryCodecTest.summary(), leitura);
+
+        assertEquals(FrameReader.SYNC, reader.next());
+        assertEquals(1, reader.syncSeq());
+        assertEquals(FrameReader.RECORD, reader.next());
+        WireFormat.decode(reader.buffer(), reader.offset(), reader.length(), leitura);
+        assertSameReading(BinaryCodecTest.sample(), leitura);
+        assertEquals(FrameReader.SYNC, reader.next());
+        assertEquals(Long.MAX_VALUE, reader.syncSeq());
+        assertEquals(FrameReader.EOF, reader.next());
+    }
+
+    @Test
+    public void readsJsonLines() throws IOException {
+        assertBatches(write(WireFormat.JSON, 0), WireFormat.JSON, false);
+    }
+
+    @Test
+    public void readsBinaryFrames() throws IOException {
+        assertBatches(write(WireFormat.BINARY, 0), WireFormat.BINARY, false);
+    }
+
+    @Test
+    public void readsCompressedBlocks() throws IOException {
+        assertBatches(write(WireFormat.BINARY, 6), WireFormat.BINARY, true);
+    }
+
+    @Test
+    public void skipsEmptyLinesAndCarriageReturns() throws IOException {
+        String stream = "\r\n{\"brinco_id\":\"B1\",\"timestamp\":1}\r\n\n#SYNC 7\r\n";
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(FrameReader.RECORD, reader.next());
+        assertEquals("{\"brinco_id\":\"B1\",\"timestamp\":1}",
+                new String(reader.buffer(), reader.offset(), reader.length(), StandardCharsets.UTF_8));
+        assertEquals(FrameReader.SYNC, reader.next());
+        assertEquals(7, reader.syncSeq());
+        assertEquals(FrameReader.EOF, reader.next());
+    }
+
+    @Test
+    public void readsMessagesLargerThanTheInitialBuffer() throws IOException {
+        for (WireFormat format : WireFormat.values()) {
+            byte[] record = new byte[5000];
+            Arrays.fill(record, (byte) 'x');
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            FrameWriter writer = new FrameWriter(out, format);
+            writer.writePreamble();
+            writer.writeRecord(record);
+            FrameReader reader = new FrameReader(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(FrameReader.RECORD, reader.next());
+            assertTrue(format.name(), Arrays.equals(record,
+                    Arrays.copyOfRange(reader.buffer(), reader.offset(), reader.offset() + reader.length())));
+        }
+    }
+
+    @Test
+    public void failsOnTruncatedStreams() throws IOException {
+        byte[] stream = write(WireFormat.BINARY, 0);
+        // Cortado no meio do primeiro registro, logo depois do preâmbulo e do tamanho
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(Arrays.copyOf(stream, FrameReader.BINARY_PREAMBLE.length + 10)));
+        try {
+            reader.next();
+            fail("Registro incompleto aceito");
+        } catch (EOFException expected) {
+            // Esperado
+        }
+    }
+
+    @Test
+    public void rejectsUnknownPreambleAndInvalidSizes() {
+        assertFails(new byte[] {BinaryCodec.MAGIC, 'X', 'Y', 'Z'});
+        byte[] negative = Arrays.copyOf(FrameReader.BINARY_PREAMBLE, FrameReader.BINARY_PREAMBLE.length + 4);
+        Arrays.fill(negative, FrameReader.BINARY_PREAMBLE.length, negative.length, (byte) 0xF0);
+        assertFails(negative);
+        assertFails("#SYNC abc\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void assertFails(byte[] stream) {
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(stream));
+        try {
+            reader.next();
+            fail("Stream inválido aceito");
+        } catch (IOException expected) {
+            assertFalse(expected instanceof EOFException);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package puc.paralela.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static puc.paralela.codec.BinaryCodecTest.assertSameReading;
+import static puc.paralela.codec.BinaryCodecTest.assertSameSummary;
+
+import java.nio.charset.StandardCharsets;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class JsonCodecTest {
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Leitura roundTrip(Leitura leitura) {
+        byte[] json = WireFormat.JSON.encode(leitura);
+        Leitura decoded = new Leitura();
+        WireFormat.decode(json, 0, json.length, decoded);
+        return decoded;
+    }
+
+    @Test
+    public void roundTripsReading() {
+        Leitura leitura = BinaryCodecTest.sample();
+        assertSameReading(leitura, roundTrip(leitura));
+    }
+
+    @Test
+    public void roundTripsSummary() {
+        Leitura leitura = BinaryCodecTest.summary();
+        Leitura decoded = roundTrip(leitura);
+        assertSameReading(leitura, decoded);
+        assertSameSummary(leitura, decoded);
+    }
+
+    @Test
+    public void acceptsTemperatureAsStringWithComma() {
+        Leitura leitura = new Leitura();
+        JsonCodec.fromJson(new JSONObject("{\"brinco_id\":\"B1\",\"timestamp\":5,\"temperatura\":\"38,75\"}"), leitura);
+        assertEquals(38.75f, leitura.getTemperatura(), 0);
+        assertFalse(leitura.hasFlag(Leitura.FLAG_LOCALIZACAO));
+    }
+
+    @Test
+    public void keepsIdsLongerThanTheBinaryFrame() {
+        Leitura leitura = BinaryCodecTest.sample();
+        leitura.setBrincoId("BRINCO-FAZENDA-0001-PASTO-NORTE");
+        assertSameReading(leitura, roundTrip(leitura));
+
+        byte[] json = bytes("{\"brinco_id\":\"BRINCO-FAZENDA-0001\",\"timestamp\":1}");
+        Leitura scanned = new Leitura();
+        assertTrue(JsonCodec.scanHeader(json, 0, json.length, scanned));
+        assertEquals("BRINCO-FAZENDA-0001", scanned.getBrincoId());
+
+        // Reaproveitar a instância para um id curto depois de um longo
+        scanned.setBrincoId("B1");
+        assertEquals("B1", scanned.getBrincoId());
+
+        // Só o frame binário limita o id
+        try {
+            WireFormat.BINARY.convert(json, new Leitura());
+            fail("Id de 19 bytes aceito no frame binário");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("BRINCO-FAZENDA-0001"));
+        }
+    }
+
+    @Test
+    public void convertsBetweenFormats() {
+        Leitura leitura = BinaryCodecTest.summary();
+        Leitura scratch = new Leitura();
+        byte[] json = WireFormat.JSON.encode(leitura);
+        byte[] binary = WireFormat.BINARY.convert(json, scratch);
+        assertEquals(WireFormat.BINARY, WireFormat.detect(binary, 0, binary.length));
+        assertTrue(json == WireFormat.JSON.convert(json, scratch));
+
+        Leitura decoded = new Leitura();
+        WireFormat.decode(binary, 0, binary.length, decoded);
+        assertSameReading(leitura, decoded);
+        assertSameSummary(leitura, decoded);
+    }
+
+    @Test
+    public void scansHeaderFieldsWithoutDecoding() {
+        Leitura leitura = new Leitura();
+        byte[] json = bytes("{ \"brinco_id\" : \"B1\", \"timestamp\": 1700000000123, \"localizacao\": {\"lat\": -19.9, \"lon\": -43.9},"
+                + " \"temperatura\": \"40,50\", \"alerta_febre\": true, \"alerta_inatividade\": false,"
+                + " \"alerta_deriva\": true }");
+        assertTrue(JsonCodec.scanHeader(json, 0, json.length, leitura));
+        assertEquals("B1", leitura.getBrincoId());
+        assertEquals(1700000000123L, leitura.getTimestamp());
+        assertEquals(40.5f, leitura.getTemperatura(), 0.0001);
+        assertTrue(leitura.hasFlag(Leitura.FLAG_ALERTA_FEBRE));
+        assertFalse(leitura.hasFlag(Leitura.FLAG_ALERTA_INATIVIDADE));
+        assertTrue(leitura.hasFlag(Leitura.FLAG_ALERTA_DERIVA));
+    }
+
+    @Test
+    public void leavesUnusualJsonToTheFullDecoder() {
+        Leitura leitura = new Leitura();
+        String[] unusual = {
+            "{}",
+            "{\"timestamp\":1}",
+            "{\"brinco_id\":\"B\\u0031\",\"timestamp\":1}",
+            "{\"brinco_id\":\"B1\",\"timestamp\":1e3}",
+            "{\"brinco_id\":\"B1\",\"timestamp\":1,\"processed_at_gateway_ms\":2}",
+            "{\"brinco_id\":\"B1\",\"timestamp\":1",
+            "[1, 2]",
+        };
+        for (String json : unusual) {
+            byte[] record = bytes(json);
+            assertFalse(json, JsonCodec.scanHeader(record, 0, record.length, leitura));
+        }
+    }
+
+    @Test
+    public void stampsGatewayByAppendingTheField() {
+        Leitura leitura = BinaryCodecTest.summary();
+        leitura.setProcessedAtGatewayMs(0);
+        byte[] json = WireFormat.JSON.encode(leitura);
+
+        Leitura scratch = new Leitura();
+        byte[] stamped = WireFormat.stampGateway(json, 1_700_000_000_999L, scratch);
+        assertEquals(leitura.getBrincoId(), scratch.getBrincoId());
+        assertEquals(leitura.getTimestamp(), scratch.getTimestamp());
+        assertEquals(1_700_000_000_999L, scratch.getProcessedAtGatewayMs());
+
+        // O resto da mensagem é preservado
+        Leitura decoded = new Leitura();
+        WireFormat.decode(stamped, 0, stamped.length, decoded);
+        leitura.setProcessedAtGatewayMs(1_700_000_000_999L);
+        assertSameReading(leitura, decoded);
+        assertSameSummary(leitura, decoded);
+    }
+
+    @Test
+    public void stampsGatewayOnEmptyAndFallbackMessages() {
+        byte[] stamped = JsonCodec.appendGatewayStamp(bytes("{ }\n"), 0);
+        assertEquals(0L, new JSONObject(new String(stamped, StandardCharsets.UTF_8)).getLong("processed_at_gateway_ms"));
+
+        // Id com escape: decodificação completa e recodificação
+        Leitura scratch = new Leitura();
+        byte[] escaped = WireFormat.stampGateway(bytes("{\"brinco_id\":\"B\\u0031\",\"timestamp\":7}"), 42L, scratch);
+        JSONObject data = new JSONObject(new String(escaped, StandardCharsets.UTF_8));
+        assertEquals("B1", data.getString("brinco_id"));
+        assertEquals(42L, data.getLong("processed_at_gateway_ms"));
+        assertEquals("B1", scratch.getBrincoId());
+    }
+}
@@ -0,0 +1,53 @@
+package puc.paralela.comum;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Protocolo de confirmação em nível de aplicação usado entre os nós.
+ * O remetente escreve um lote de mensagens seguido de um marcador de fim de
+ * lote com um número de sequência (ver {@link puc.paralela.codec.FrameWriter#writeSync});
+ * o receptor, depois de processar o lote, responde com a linha "#ACK n".
+ */
+public final class AckProtocol {
+    public static final String ACK_PREFIX = "#ACK ";
+
+    private AckProtocol() {
+    }
+
+    /**
+     * Confirma ao remetente o lote com o número de sequência informado.
+     * @param seq Número de sequência recebido no marcador de fim de lote.
+     * @param out Stream de saída da mesma conexão.
+     */
+    public static void acknowledge(long seq, OutputStream out) throws IOException {
+        out.write((ACK_PREFIX + seq + "\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    /**
+     * Lê a próxima linha de ACK da conexão e devolve o número de sequência confirmado.
+     */
+    static long readAck(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder(24);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("Conexão encerrada antes do ACK");
+            }
+            sb.append((char) b);
+        }
+        String line = sb.toString().trim();
+        if (!line.startsWith(ACK_PREFIX)) {
+            throw new IOException("Resposta inesperada do receptor: " + line);
+        }
+        try {
+            return Long.parseLong(line.substring(ACK_PREFIX.length()).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("ACK inválido: " + line);
+        }
+    }
+}
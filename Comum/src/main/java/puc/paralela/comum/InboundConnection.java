@@ -0,0 +1,54 @@
+package puc.paralela.comum;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+import puc.paralela.codec.FrameReader;
+
+/**
+ * Lado receptor de um enlace: lê as mensagens de uma conexão (JSON, binário ou
+ * lotes comprimidos, detectado automaticamente), entrega cada uma ao {@link RecordHandler} e
+ * confirma cada lote assim que todas as suas mensagens foram entregues.
+ */
+public final class InboundConnection {
+
+    /**
+     * Recebe uma mensagem. O conteúdo só é válido durante a chamada.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void onRecord(byte[] buf, int off, int len);
+    }
+
+    private InboundConnection() {
+    }
+
+    /**
+     * Consome a conexão até o remetente fechá-la.
+     */
+    public static void pump(InputStream in, OutputStream out, RecordHandler handler) throws IOException {
+        pump(in, out, handler, null);
+    }
+
+    /**
+     * Consome a conexão contando registros e lotes nas métricas
+     * entrada_registros{origem="..."} e entrada_lotes{origem="..."}.
+     * @param origem Endereço do remetente, ou null para não contar.
+     */
+    public static void pump(InputStream in, OutputStream out, RecordHandler handler, String origem) throws IOException {
+        LongAdder records = origem == null ? new LongAdder() : Metrics.counter("entrada_registros{origem=\"" + origem + "\"}");
+        LongAdder batches = origem == null ? new LongAdder() : Metrics.counter("entrada_lotes{origem=\"" + origem + "\"}");
+        FrameReader reader = new FrameReader(in);
+        int kind;
+        while ((kind = reader.next()) != FrameReader.EOF) {
+            if (kind == FrameReader.SYNC) {
+                AckProtocol.acknowledge(reader.syncSeq(), out);
+                batches.increment();
+            } else {
+                handler.onRecord(reader.buffer(), reader.offset(), reader.length());
+                records.increment();
+            }
+        }
+    }
+}
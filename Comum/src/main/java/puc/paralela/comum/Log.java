@@ -0,0 +1,360 @@
+package puc.paralela.comum;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.json.JSONObject;
+
+/**
+ * Log assíncrono dos nós, no lugar de System.out/System.err.
+ *
+ * System.out é sincronizado e descarrega a cada linha: com várias threads imprimindo
+ * uma linha por leitura, elas disputam a trava e gastam CPU formatando mensagens.
+ * Aqui a thread que loga só compara o nível e grava o modelo e os argumentos numa
+ * posição de um buffer circular sem travas; a thread "log" formata, escreve e
+ * descarrega a saída quando o buffer esvazia. Com o buffer cheio a mensagem é
+ * descartada (métrica log_descartadas), sem bloquear quem logou.
+ *
+ * As mensagens usam {} como marcador ("Brinco {} armazenado") e só são formatadas
+ * na thread de escrita, então os argumentos devem ser imutáveis (String, números),
+ * nunca uma Leitura reaproveitada. Um Throwable como último argumento, sem marcador,
+ * tem o stack trace impresso. Mensagens por leitura passam antes por um {@link Limiter}.
+ *
+ * Configuração: -Dlog.nivel (erro, aviso, info ou debug; padrão info), -Dlog.formato
+ * (texto, kv ou json; padrão texto, só a mensagem, com erros e avisos na saída de erro),
+ * -Dlog.buffer (posições do buffer, padrão 16384) e -Dlog.leituras.por.segundo (limite
+ * das mensagens por leitura, padrão 10; -1 sem limite).
+ */
+public final class Log {
+
+    public enum Level {
+        ERROR("erro"), WARN("aviso"), INFO("info"), DEBUG("debug");
+
+        final String nome;
+
+        Level(String nome) {
+            this.nome = nome;
+        }
+
+        static Level fromProperty(String value) {
+            for (Level level : values()) {
+                if (level.nome.equalsIgnoreCase(value) || level.name().equalsIgnoreCase(value)) {
+                    return level;
+                }
+            }
+            return INFO;
+        }
+    }
+
+    private enum Format {
+        TEXTO, KV, JSON;
+
+        static Format fromProperty(String value) {
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(value)) {
+                    return format;
+                }
+            }
+            return TEXTO;
+        }
+    }
+
+    /**
+     * Uma posição do buffer. {@code sequence} indica de quem é a vez: igual à posição
+     * absoluta, livre para um produtor; posição + 1, pronta para a thread de escrita.
+     */
+    private static final class Slot {
+        volatile long sequence;
+        Level level;
+        long time;
+        String thread;
+        String template;
+        int argc;
+        Object a0;
+        Object a1;
+        Object a2;
+        Object[] args; // Usado no lugar de a0..a2 quando há mais argumentos
+
+        Object arg(int i) {
+            if (args != null) {
+                return args[i];
+            }
+            return i == 0 ? a0 : i == 1 ? a1 : a2;
+        }
+
+        void clear() {
+            template = null;
+            thread = null;
+            a0 = a1 = a2 = null;
+            args = null;
+        }
+    }
+
+    private static final Level LEVEL = Level.fromProperty(System.getProperty("log.nivel", "info"));
+    private static final Format FORMAT = Format.fromProperty(System.getProperty("log.formato", "texto"));
+    private static final int READINGS_PER_SECOND = Integer.getInteger("log.leituras.por.segundo", 10);
+
+    private static final Slot[] SLOTS;
+    private static final int MASK;
+    private static final AtomicLong TAIL = new AtomicLong(); // Próxima posição a ser ocupada pelos produtores
+    private static long head; // Próxima posição a ser lida; só a thread de escrita usa
+
+    private static final LongAdder DROPPED = Metrics.counter("log_descartadas");
+    private static final LongAdder OMITTED = Metrics.counter("log_omitidas");
+
+    private static final PrintStream OUT = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16),
+            false, Charset.defaultCharset());
+    private static final PrintStream ERR = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.err), 1 << 16),
+            false, Charset.defaultCharset());
+    private static final long MIN_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final Thread WRITER;
+    private static volatile boolean stopping;
+
+    static {
+        int size = Integer.highestOneBit(Math.max(64, Integer.getInteger("log.buffer", 1 << 14) - 1)) << 1;
+        SLOTS = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            SLOTS[i] = new Slot();
+            SLOTS[i].sequence = i;
+        }
+        MASK = size - 1;
+        WRITER = new Thread(Log::drainLoop, "log");
+        WRITER.setDaemon(true);
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stopping = true;
+            LockSupport.unpark(WRITER);
+            try {
+                WRITER.join(TimeUnit.SECONDS.toMillis(2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "log-encerramento"));
+    }
+
+    private Log() {
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) <= 0;
+    }
+
+    public static void error(String template, Object... args) {
+        log(Level.ERROR, template, args);
+    }
+
+    public static void warn(String template, Object... args) {
+        log(Level.WARN, template, args);
+    }
+
+    public static void info(String template) {
+        log(Level.INFO, template, 0, null, null, null);
+    }
+
+    public static void info(String template, Object a0) {
+        log(Level.INFO, template, 1, a0, null, null);
+    }
+
+    public static void info(String template, Object a0, Object a1) {
+        log(Level.INFO, template, 2, a0, a1, null);
+    }
+
+    public static void info(String template, Object a0, Object a1, Object a2) {
+        log(Level.INFO, template, 3, a0, a1, a2);
+    }
+
+    public static void info(String template, Object... args) {
+        log(Level.INFO, template, args);
+    }
+
+    public static void debug(String template, Object a0) {
+        log(Level.DEBUG, template, 1, a0, null, null);
+    }
+
+    public static void debug(String template, Object... args) {
+        log(Level.DEBUG, template, args);
+    }
+
+    private static void log(Level level, String template, Object[] args) {
+        if (isEnabled(level)) {
+            Slot slot = claim();
+            if (slot != null) {
+                slot.args = args;
+                publish(slot, level, template, args.length);
+            }
+        }
+    }
+
+    private static void log(Level level, String template, int argc, Object a0, Object a1, Object a2) {
+        if (isEnabled(level)) {
+            Slot slot = claim();
+            if (slot != null) {
+                slot.a0 = a0;
+                slot.a1 = a1;
+                slot.a2 = a2;
+                publish(slot, level, template, argc);
+            }
+        }
+    }
+
+    /**
+     * Reserva a próxima posição do buffer, ou devolve null se ele estiver cheio.
+     */
+    private static Slot claim() {
+        long position = TAIL.get();
+        while (true) {
+            Slot slot = SLOTS[(int) position & MASK];
+            long diff = slot.sequence - position;
+            if (diff == 0) {
+                if (TAIL.compareAndSet(position, position + 1)) {
+                    return slot;
+                }
+                position = TAIL.get();
+            } else if (diff < 0) {
+                DROPPED.increment();
+                return null;
+            } else {
+                position = TAIL.get();
+            }
+        }
+    }
+
+    private static void publish(Slot slot, Level level, String template, int argc) {
+        slot.level = level;
+        slot.time = System.currentTimeMillis();
+        slot.thread = Thread.currentThread().getName();
+        slot.template = template;
+        slot.argc = argc;
+        long position = slot.sequence;
+        slot.sequence = position + 1; // Escrita volátil: publica os campos acima para a thread de escrita
+    }
+
+    private static void drainLoop() {
+        StringBuilder line = new StringBuilder(256);
+        long idleNanos = MIN_IDLE_NANOS;
+        while (true) {
+            Slot slot = SLOTS[(int) head & MASK];
+            if (slot.sequence == head + 1) {
+                write(slot, line);
+                slot.clear();
+                slot.sequence = head + SLOTS.length;
+                head++;
+                idleNanos = MIN_IDLE_NANOS;
+                continue;
+            }
+            OUT.flush();
+            ERR.flush();
+            if (stopping) {
+                return;
+            }
+            // Sem mensagens, a espera dobra até MAX_IDLE_NANOS, para não acordar a thread à toa num nó ocioso
+            LockSupport.parkNanos(idleNanos);
+            idleNanos = Math.min(idleNanos * 2, MAX_IDLE_NANOS);
+        }
+    }
+
+    private static void write(Slot slot, StringBuilder line) {
+        line.setLength(0);
+        int used = format(slot, line);
+        Throwable error = used < slot.argc && slot.arg(slot.argc - 1) instanceof Throwable
+                ? (Throwable) slot.arg(slot.argc - 1) : null;
+        if (error != null) {
+            StringWriter trace = new StringWriter();
+            error.printStackTrace(new PrintWriter(trace));
+            line.append(System.lineSeparator()).append(trace.toString().stripTrailing());
+        }
+        PrintStream out = FORMAT == Format.TEXTO && slot.level.compareTo(Level.WARN) <= 0 ? ERR : OUT;
+        switch (FORMAT) {
+            case KV:
+                out.append("ts=").append(Instant.ofEpochMilli(slot.time).toString())
+                        .append(" nivel=").append(slot.level.nome)
+                        .append(" thread=").append(JSONObject.quote(slot.thread))
+                        .append(" msg=").append(JSONObject.quote(line.toString()))
+                        .append(System.lineSeparator());
+                break;
+            case JSON:
+                out.append("{\"ts\":").append(String.valueOf(slot.time))
+                        .append(",\"nivel\":\"").append(slot.level.nome)
+                        .append("\",\"thread\":").append(JSONObject.quote(slot.thread))
+                        .append(",\"msg\":").append(JSONObject.quote(line.toString()))
+                        .append('}').append(System.lineSeparator());
+                break;
+            default:
+                out.append(line).append(System.lineSeparator());
+        }
+    }
+
+    /**
+     * Substitui os marcadores {} pelos argumentos.
+     * @return quantos argumentos foram usados.
+     */
+    private static int format(Slot slot, StringBuilder line) {
+        String template = slot.template;
+        int used = 0;
+        int from = 0;
+        int at;
+        while (used < slot.argc && (at = template.indexOf("{}", from)) >= 0) {
+            line.append(template, from, at).append(slot.arg(used++));
+            from = at + 2;
+        }
+        line.append(template, from, template.length());
+        return used;
+    }
+
+    /**
+     * Limite de mensagens por segundo, para mensagens escritas a cada leitura.
+     */
+    public static Limiter limiter() {
+        return new Limiter(READINGS_PER_SECOND);
+    }
+
+    /**
+     * Deixa passar até {@code perSecond} mensagens por segundo e conta as demais (log_omitidas).
+     * Sem travas: acima do limite, {@link #allow()} é só uma leitura.
+     */
+    public static final class Limiter {
+        private final int perSecond;
+        private final AtomicLong state = new AtomicLong(); // Segundo atual nos 32 bits altos, mensagens nele nos baixos
+
+        Limiter(int perSecond) {
+            this.perSecond = perSecond;
+        }
+
+        public boolean allow() {
+            if (perSecond < 0) {
+                return true;
+            }
+            long second = System.currentTimeMillis() / 1000;
+            while (true) {
+                long current = state.get();
+                if (current >>> 32 != second) {
+                    if (state.compareAndSet(current, second << 32 | 1)) {
+                        return perSecond > 0 || omit();
+                    }
+                    continue;
+                }
+                if ((int) current >= perSecond) {
+                    return omit();
+                }
+                if (state.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private static boolean omit() {
+            OMITTED.increment();
+            return false;
+        }
+    }
+}
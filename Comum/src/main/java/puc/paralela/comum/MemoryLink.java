@@ -0,0 +1,144 @@
+package puc.paralela.comum;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Enlace em memória entre dois nós no mesmo processo (modo embutido), no lugar do
+ * UDP ou do TCP: um buffer circular limitado, com vários produtores e uma thread
+ * receptora que entrega cada mensagem ao {@link InboundConnection.RecordHandler} do
+ * nó seguinte, o mesmo usado pelas conexões de rede.
+ *
+ * Com o buffer cheio o produtor espera (métrica memoria_{nome}_esperas), como um
+ * socket com o buffer de envio cheio, então a pressão volta para a fila do nó anterior
+ * e a sua política de sobrecarga continua valendo. Não há lotes nem confirmações:
+ * nada se perde entre os nós.
+ *
+ * A mensagem entregue ao receptor é o próprio array enviado (off 0, len igual ao
+ * tamanho do array), que o receptor pode guardar.
+ */
+public final class MemoryLink implements Transport {
+    private static final int DISPATCH_BATCH = UpstreamConnection.DEFAULT_MAX_BATCH;
+    private static final int SPINS = 200;
+    private static final long MAX_IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final String name;
+    private final AtomicReferenceArray<byte[]> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // Próxima posição a ser ocupada pelos produtores
+    private volatile long head; // Próxima posição a ser lida; só a thread receptora altera
+
+    private final LongAdder delivered;
+    private final LongAdder waits;
+
+    /**
+     * @param name Nome do enlace nas métricas e nas threads (ex.: "borda_central").
+     * @param capacity Mensagens no buffer, arredondado para uma potência de dois.
+     */
+    public MemoryLink(String name, int capacity) {
+        this.name = name;
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.delivered = Metrics.counter("memoria_" + name + "_registros");
+        this.waits = Metrics.counter("memoria_" + name + "_esperas");
+        Metrics.gauge("memoria_" + name + "_ocupacao", () -> tail.get() - head);
+    }
+
+    /**
+     * Coloca a mensagem no buffer, esperando enquanto ele estiver cheio.
+     */
+    public void send(byte[] record) throws InterruptedException {
+        long position = tail.get();
+        boolean waited = false;
+        while (true) {
+            if (position - head >= slots.length()) {
+                if (!waited) {
+                    waits.increment();
+                    waited = true;
+                }
+                LockSupport.parkNanos(MAX_IDLE_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                position = tail.get();
+            } else if (tail.compareAndSet(position, position + 1)) {
+                // A posição só é liberada pela thread receptora depois de lida, então está vazia
+                slots.lazySet((int) position & mask, record);
+                return;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Mensagens já entregues ao receptor.
+     */
+    public long deliveredCount() {
+        return delivered.sum();
+    }
+
+    /**
+     * Consome a fila de saída de um nó em lotes e coloca as mensagens no buffer.
+     */
+    @Override
+    public Thread startDispatcher(BlockingQueue<byte[]> queue) {
+        Metrics.gauge("fila_" + name + "_profundidade", queue::size);
+        Thread dispatcher = new Thread(() -> {
+            List<byte[]> batch = new ArrayList<>(DISPATCH_BATCH);
+            try {
+                while (true) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, DISPATCH_BATCH - 1);
+                    for (byte[] record : batch) {
+                        send(record);
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "despachante-memoria-" + name);
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        return dispatcher;
+    }
+
+    /**
+     * Inicia a thread receptora, que entrega as mensagens ao nó seguinte na ordem do buffer.
+     */
+    public Thread startReceiver(InboundConnection.RecordHandler handler) {
+        Thread receiver = new Thread(() -> {
+            int idle = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                long position = head;
+                int index = (int) position & mask;
+                byte[] record = slots.get(index);
+                if (record == null) {
+                    // Vazio (ou produtor entre a reserva e a escrita): espera curta, sem prender a CPU
+                    if (++idle < SPINS) {
+                        Thread.onSpinWait();
+                    } else {
+                        LockSupport.parkNanos(Math.min(MAX_IDLE_NANOS, 1000L * (idle - SPINS + 1)));
+                    }
+                    continue;
+                }
+                idle = 0;
+                slots.lazySet(index, null);
+                head = position + 1; // Escrita volátil: libera a posição para os produtores
+                handler.onRecord(record, 0, record.length);
+                delivered.increment();
+            }
+        }, "receptor-memoria-" + name);
+        receiver.setDaemon(true);
+        receiver.start();
+        return receiver;
+    }
+}
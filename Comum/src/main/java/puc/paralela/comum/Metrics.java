@@ -0,0 +1,222 @@
+package puc.paralela.comum;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+
+/**
+ * Métricas do processo (contadores, medidores e histogramas de latência),
+ * compartilhadas por Gateway, Nó de Borda e Nó Central.
+ *
+ * Cada métrica é criada uma vez, na inicialização ou ao abrir uma conexão, e
+ * quem a atualiza guarda a referência: o registro no caminho crítico é só um
+ * {@link LongAdder#increment()} ou {@link LatencyHistogram#record(long)}, sem
+ * busca por nome e sem alocação.
+ *
+ * {@link #start} publica as métricas via JMX (puc.paralela:type=Metricas,no=...) e
+ * num endpoint HTTP local (somente 127.0.0.1) em formato texto do Prometheus:
+ * GET http://127.0.0.1:{porta}/metricas. A porta vem de -Dmetricas.porta (0 desativa).
+ */
+public final class Metrics {
+    private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /**
+     * Registra (ou substitui) um medidor lido a cada consulta, como o tamanho de uma fila.
+     */
+    public static void gauge(String name, LongSupplier supplier) {
+        GAUGES.put(name, supplier);
+    }
+
+    /**
+     * Remove os medidores cujo nome começa com o prefixo, por exemplo os da fila de um nó
+     * que saiu da lista, para que não fiquem presos ao objeto antigo.
+     */
+    public static void removeGauges(String prefix) {
+        GAUGES.keySet().removeIf(name -> name.startsWith(prefix));
+    }
+
+    /**
+     * Converte um nome de nó ("Nó de Borda") para uso em nomes de métricas ("no_de_borda").
+     */
+    public static String slug(String name) {
+        String ascii = Normalizer.normalize(name, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        return ascii.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "_").replaceAll("^_|_$", "");
+    }
+
+    /**
+     * Publica as métricas via JMX e inicia o endpoint HTTP local.
+     * @param node Nome do nó, usado no ObjectName JMX.
+     * @param defaultPort Porta do endpoint quando -Dmetricas.porta não é informado.
+     */
+    public static void start(String node, int defaultPort) {
+        try {
+            ObjectName name = new ObjectName("puc.paralela:type=Metricas,no=" + ObjectName.quote(node));
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), name);
+            }
+        } catch (JMException e) {
+            Log.error("Erro ao registrar as métricas do {} no JMX: {}", node, e.getMessage());
+        }
+
+        int port = Integer.getInteger("metricas.porta", defaultPort);
+        if (port <= 0) {
+            return;
+        }
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metricas", Metrics::handle);
+            server.start();
+            Log.info("{}: métricas disponíveis em http://127.0.0.1:{}/metricas", node, port);
+        } catch (IOException e) {
+            Log.error("Erro ao iniciar o endpoint de métricas do {}: {}", node, e.getMessage());
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+
+    /**
+     * Todas as métricas no formato texto do Prometheus; histogramas viram resumos com quantis.
+     */
+    static String render() {
+        StringBuilder out = new StringBuilder();
+        new TreeMap<>(COUNTERS).forEach((name, value) -> line(out, name, "", value.sum()));
+        new TreeMap<>(GAUGES).forEach((name, value) -> line(out, name, "", value.getAsLong()));
+        new TreeMap<>(HISTOGRAMS).forEach((name, histogram) -> {
+            for (String q : QUANTILES) {
+                line(out, name, "quantile=\"" + q + "\"", histogram.percentile(Double.parseDouble(q) * 100));
+            }
+            line(out, name + "_count", "", histogram.count());
+            line(out, name + "_max", "", histogram.max());
+        });
+        return out.toString();
+    }
+
+    /**
+     * Escreve uma linha, juntando o rótulo extra aos rótulos que já estejam no nome (ex.: conexao{origem="..."}).
+     */
+    private static void line(StringBuilder out, String name, String label, long value) {
+        int brace = name.indexOf('{');
+        if (label.isEmpty()) {
+            out.append(name);
+        } else if (brace < 0) {
+            out.append(name).append('{').append(label).append('}');
+        } else {
+            out.append(name, 0, name.length() - 1).append(',').append(label).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Visão JMX das métricas: um atributo somente leitura por contador e medidor,
+     * e atributos .p50/.p90/.p99/.p999/.count/.max por histograma.
+     */
+    private static final class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException("Métrica desconhecida: " + attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Métricas são somente leitura");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : snapshot().keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "java.lang.Long", name, true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Métricas do nó", attributes.toArray(new MBeanAttributeInfo[0]),
+                    null, null, null);
+        }
+
+        private static Map<String, Long> snapshot() {
+            Map<String, Long> values = new TreeMap<>();
+            COUNTERS.forEach((name, value) -> values.put(name, value.sum()));
+            GAUGES.forEach((name, value) -> values.put(name, value.getAsLong()));
+            HISTOGRAMS.forEach((name, histogram) -> {
+                values.put(name + ".p50", histogram.percentile(50));
+                values.put(name + ".p90", histogram.percentile(90));
+                values.put(name + ".p99", histogram.percentile(99));
+                values.put(name + ".p999", histogram.percentile(99.9));
+                values.put(name + ".count", histogram.count());
+                values.put(name + ".max", histogram.max());
+            });
+            return values;
+        }
+    }
+}
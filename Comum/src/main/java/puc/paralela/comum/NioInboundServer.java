@@ -0,0 +1,261 @@
+package puc.paralela.comum;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import puc.paralela.codec.FrameDecoder;
+
+/**
+ * Servidor TCP não bloqueante para o lado receptor dos enlaces, alternativa a
+ * uma thread por conexão: poucas threads, cada uma com um {@link Selector},
+ * atendem milhares de conexões. Cada thread lê das suas conexões num buffer
+ * direto próprio, separa as mensagens com um {@link FrameDecoder} por conexão
+ * e as entrega ao {@link InboundConnection.RecordHandler}, confirmando cada lote
+ * como o {@link InboundConnection#pump}.
+ *
+ * Conexões acima de {@code maxConnections} são recusadas (fechadas logo após o
+ * accept) e conexões sem tráfego por mais que {@code idleTimeoutMs} são encerradas;
+ * o remetente reconecta no próximo envio. O handler roda na thread do seletor,
+ * então se ele bloquear (fila cheia) as demais conexões da mesma thread esperam.
+ *
+ * Métricas: conexoes_abertas, conexoes_recusadas, conexoes_ociosas_encerradas e,
+ * por remetente, entrada_registros{origem="..."} e entrada_lotes{origem="..."}.
+ */
+public final class NioInboundServer {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final String node; // Nome do nó local, usado nos logs
+    private final String peer; // Tipo de nó remetente, usado nos logs
+    private final int port;
+    private final int loops;
+    private final int maxConnections;
+    private final long idleTimeoutMs;
+    private final InboundConnection.RecordHandler handler;
+
+    private final AtomicInteger open = new AtomicInteger();
+    private final LongAdder refused = Metrics.counter("conexoes_recusadas");
+    private final LongAdder idleClosed = Metrics.counter("conexoes_ociosas_encerradas");
+
+    /**
+     * @param loops Número de threads com seletor.
+     * @param idleTimeoutMs Tempo sem tráfego até a conexão ser encerrada (0 desativa).
+     */
+    public NioInboundServer(String node, String peer, int port, int loops, int maxConnections, long idleTimeoutMs,
+                            InboundConnection.RecordHandler handler) {
+        this.node = node;
+        this.peer = peer;
+        this.port = port;
+        this.loops = Math.max(1, loops);
+        this.maxConnections = Math.max(1, maxConnections);
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.handler = handler;
+        Metrics.gauge("conexoes_abertas", open::get);
+    }
+
+    /**
+     * Abre a porta e inicia a thread de accept e as threads com seletor.
+     */
+    public void start() throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        EventLoop[] eventLoops = new EventLoop[loops];
+        for (int i = 0; i < loops; i++) {
+            eventLoops[i] = new EventLoop();
+            Thread thread = new Thread(eventLoops[i], "seletor-" + port + "-" + i);
+            thread.start();
+        }
+        Thread acceptor = new Thread(() -> acceptLoop(server, eventLoops), "aceite-" + port);
+        acceptor.start();
+        Log.info("{} ouvindo em TCP Porta {} (modo nio, {} threads, até {} conexões, ociosidade máxima {}).",
+                node, port, loops, maxConnections, idleTimeoutMs > 0 ? idleTimeoutMs / 1000 + " s" : "desativada");
+    }
+
+    private void acceptLoop(ServerSocketChannel server, EventLoop[] eventLoops) {
+        int next = 0;
+        try (server) {
+            while (true) {
+                SocketChannel channel = server.accept();
+                if (open.get() >= maxConnections) {
+                    refused.increment();
+                    Log.warn("{}: conexão de {} recusada; limite de {} conexões atingido.",
+                            node, channel.socket().getInetAddress().getHostAddress(), maxConnections);
+                    channel.close();
+                    continue;
+                }
+                open.incrementAndGet();
+                eventLoops[next].add(channel);
+                next = (next + 1) % eventLoops.length;
+            }
+        } catch (IOException e) {
+            Log.error("Erro no servidor do {}: {}", node, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Estado de uma conexão: o decodificador de mensagens e as confirmações ainda não escritas.
+     */
+    private final class Connection implements FrameDecoder.Sink {
+        final SocketChannel channel;
+        final String address;
+        final FrameDecoder decoder = new FrameDecoder();
+        final LongAdder records;
+        final LongAdder batches;
+        ByteBuffer acks = ByteBuffer.allocate(0);
+        long lastActivity = System.currentTimeMillis();
+
+        Connection(SocketChannel channel, String address) {
+            this.channel = channel;
+            this.address = address;
+            this.records = Metrics.counter("entrada_registros{origem=\"" + address + "\"}");
+            this.batches = Metrics.counter("entrada_lotes{origem=\"" + address + "\"}");
+        }
+
+        @Override
+        public void onRecord(byte[] buf, int off, int len) {
+            handler.onRecord(buf, off, len);
+            records.increment();
+        }
+
+        @Override
+        public void onSync(long seq) {
+            byte[] ack = (AckProtocol.ACK_PREFIX + seq + "\n").getBytes(StandardCharsets.US_ASCII);
+            if (acks.remaining() < ack.length) {
+                ByteBuffer bigger = ByteBuffer.allocate(acks.position() + ack.length);
+                acks.flip();
+                bigger.put(acks);
+                acks = bigger;
+            }
+            acks.put(ack);
+            batches.increment();
+        }
+
+        /**
+         * Escreve as confirmações pendentes.
+         * @return true se todas foram escritas.
+         */
+        boolean flushAcks() throws IOException {
+            acks.flip();
+            channel.write(acks);
+            boolean done = !acks.hasRemaining();
+            acks.compact();
+            return done;
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void add(SocketChannel channel) {
+            incoming.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long checkInterval = idleTimeoutMs > 0 ? Math.max(100, Math.min(1000, idleTimeoutMs / 4)) : 0;
+            long nextIdleCheck = System.currentTimeMillis() + checkInterval;
+            while (true) {
+                try {
+                    selector.select(checkInterval);
+                    registerIncoming();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                    long now = System.currentTimeMillis();
+                    if (checkInterval > 0 && now >= nextIdleCheck) {
+                        closeIdle(now);
+                        nextIdleCheck = now + checkInterval;
+                    }
+                } catch (IOException e) {
+                    Log.error("Erro no seletor do {}: {}", node, e.getMessage());
+                }
+            }
+        }
+
+        private void registerIncoming() {
+            SocketChannel channel;
+            while ((channel = incoming.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    String address = channel.socket().getInetAddress().getHostAddress();
+                    channel.register(selector, SelectionKey.OP_READ, new Connection(channel, address));
+                    Log.info("{}: Conexão recebida do {} {}", node, peer, address);
+                } catch (IOException e) {
+                    Log.error("{}: erro ao registrar conexão: {}", node, e.getMessage());
+                    closeQuietly(channel);
+                    open.decrementAndGet();
+                }
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    readBuffer.clear();
+                    int read = connection.channel.read(readBuffer);
+                    if (read < 0) {
+                        close(key, "fechada");
+                        return;
+                    }
+                    connection.lastActivity = System.currentTimeMillis();
+                    readBuffer.flip();
+                    connection.decoder.feed(readBuffer, connection);
+                }
+                if (connection.acks.position() > 0 || key.isWritable()) {
+                    // Com confirmações presas no buffer de envio, espera o socket liberar espaço
+                    boolean flushed = connection.flushAcks();
+                    key.interestOps(flushed ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.error("Erro ao lidar com a conexão do {} {}: {}", peer, connection.address, e.getMessage());
+                close(key, "fechada");
+            }
+        }
+
+        private void closeIdle(long now) {
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (key.isValid() && now - connection.lastActivity > idleTimeoutMs) {
+                    idleClosed.increment();
+                    close(key, "encerrada por ociosidade");
+                }
+            }
+        }
+
+        private void close(SelectionKey key, String reason) {
+            Connection connection = (Connection) key.attachment();
+            key.cancel();
+            closeQuietly(connection.channel);
+            open.decrementAndGet();
+            Log.info("{}: Conexão com o {} {} {}.", node, peer, connection.address, reason);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // A conexão já está sendo descartada
+        }
+    }
+}
@@ -0,0 +1,526 @@
+package puc.paralela.comum;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fila de mensagens entre a recepção e o despachante de um nó, limitada pelo
+ * total de bytes enfileirados (e não pelo número de mensagens), com política
+ * configurável para quando ela enche:
+ *
+ * <ul>
+ * <li>{@link Policy#BLOQUEAR}: quem enfileira espera haver espaço (comportamento original);
+ *     {@link #offer(byte[])} devolve false e {@link #offer(byte[], long, TimeUnit)} espera no máximo o prazo;</li>
+ * <li>{@link Policy#DESCARTAR_ANTIGAS}: descarta as mensagens comuns mais antigas para abrir espaço;</li>
+ * <li>{@link Policy#COALESCER}: sem espaço, se já houver uma mensagem comum do mesmo brinco na fila,
+ *     ela é substituída pela nova; senão, descarta as mais antigas. Com espaço, nada é substituído.</li>
+ * </ul>
+ *
+ * Mensagens prioritárias (alertas) vão para uma faixa própria, que o despachante
+ * esvazia primeiro e que nunca é descartada para dar lugar a mensagens comuns.
+ * Só quando a fila inteira está ocupada por alertas o alerta mais antigo é descartado.
+ * Para manter a ordem das mensagens de cada brinco, um alerta leva junto para a faixa
+ * prioritária, à sua frente, as mensagens comuns do mesmo brinco que ainda estão na fila.
+ *
+ * Descartes, substituições e esperas são contados nas métricas fila_{nome}_*.
+ */
+public final class OverloadQueue extends AbstractQueue<byte[]> implements BlockingQueue<byte[]> {
+
+    public enum Policy {
+        BLOQUEAR, DESCARTAR_ANTIGAS, COALESCER;
+
+        /**
+         * Lê a política de uma propriedade de sistema ("bloquear", "descartar-antigas" ou "coalescer").
+         * Um valor desconhecido é avisado no log e substituído por {@code defaultPolicy}.
+         */
+        public static Policy fromProperty(String property, Policy defaultPolicy) {
+            String value = System.getProperty(property);
+            if (value == null || value.isBlank()) {
+                return defaultPolicy;
+            }
+            String name = value.trim().toUpperCase(Locale.ROOT).replace('-', '_');
+            for (Policy policy : values()) {
+                if (policy.name().equals(name)) {
+                    return policy;
+                }
+            }
+            Log.warn("Política de fila desconhecida em -D{}={}; usando {}.", property, value,
+                    defaultPolicy.name().toLowerCase(Locale.ROOT).replace('_', '-'));
+            return defaultPolicy;
+        }
+    }
+
+    /**
+     * Chave usada quando a mensagem não tem brinco conhecido; essas mensagens nunca são coalescidas.
+     */
+    public static final long NO_KEY = 0;
+
+    private static final class Entry {
+        final long key;
+        boolean priority; // Faixa em que está; uma mensagem comum passa à prioritária junto com um alerta do brinco
+        boolean queued = true;
+        Entry previous; // Mensagem comum anterior do mesmo brinco (pode já ter saído da fila)
+        byte[] record;
+
+        Entry(long key, boolean priority, byte[] record) {
+            this.key = key;
+            this.priority = priority;
+            this.record = record;
+        }
+    }
+
+    private final long maxBytes;
+    private final Policy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<Entry> priorityLane = new ArrayDeque<>();
+    private final ArrayDeque<Entry> routineLane = new ArrayDeque<>();
+    // Mensagem comum mais recente de cada brinco na faixa comum
+    private final KeyIndex latestByKey = new KeyIndex();
+    private long bytes;
+    private int count;
+
+    private final LongAdder shed;
+    private final LongAdder shedPriority;
+    private final LongAdder coalesced;
+    private final LongAdder blocked;
+
+    /**
+     * @param name Nome da fila nas métricas (ex.: "gateway").
+     * @param maxBytes Total de bytes que pode ficar enfileirado.
+     */
+    public OverloadQueue(String name, long maxBytes, Policy policy) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Capacidade da fila inválida: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        String prefix = "fila_" + Metrics.slug(name) + "_";
+        this.shed = Metrics.counter(prefix + "descartadas");
+        this.shedPriority = Metrics.counter(prefix + "descartadas_prioritarias");
+        this.coalesced = Metrics.counter(prefix + "coalescidas");
+        this.blocked = Metrics.counter(prefix + "esperas");
+        Metrics.gauge(prefix + "bytes", this::bytes);
+        Metrics.gauge(prefix + "capacidade_bytes", () -> maxBytes);
+    }
+
+    public Policy policy() {
+        return policy;
+    }
+
+    /**
+     * Enfileira uma mensagem aplicando a política de sobrecarga.
+     * @param key Chave do brinco ({@code Leitura.brincoKey()}) ou {@link #NO_KEY}.
+     * @param priority true para alertas, que não são descartados em favor de mensagens comuns.
+     * @return false se a própria mensagem foi descartada.
+     */
+    public boolean enqueue(byte[] record, long key, boolean priority) throws InterruptedException {
+        return enqueue(record, key, priority, -1);
+    }
+
+    /**
+     * @param nanos Espera máxima por espaço na política BLOQUEAR; negativo espera sem prazo.
+     */
+    private boolean enqueue(byte[] record, long key, boolean priority, long nanos) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            // Só coalesce quando falta espaço: com espaço, todas as leituras seguem
+            if (policy == Policy.COALESCER && !priority && key != NO_KEY && !fits(record.length) && coalesce(record, key)) {
+                return true;
+            }
+            if (!makeRoom(record.length, priority, nanos)) {
+                return false;
+            }
+            Entry entry = new Entry(key, priority, record);
+            if (priority) {
+                if (key != NO_KEY) {
+                    promote(key);
+                }
+                priorityLane.addLast(entry);
+            } else {
+                routineLane.addLast(entry);
+                if (key != NO_KEY) {
+                    entry.previous = latestByKey.get(key);
+                    latestByKey.put(key, entry);
+                }
+            }
+            bytes += record.length;
+            count++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Abre espaço para a mensagem conforme a política. Chamado com a trava.
+     * @return false se a mensagem nova deve ser descartada (ou, em BLOQUEAR, se o prazo acabou).
+     */
+    private boolean makeRoom(int size, boolean priority, long nanos) throws InterruptedException {
+        if (policy == Policy.BLOQUEAR) {
+            boolean waited = false;
+            while (!fits(size)) {
+                if (nanos == 0) {
+                    return false;
+                }
+                if (!waited) {
+                    blocked.increment();
+                    waited = true;
+                }
+                if (nanos < 0) {
+                    notFull.await();
+                } else {
+                    nanos = Math.max(0, notFull.awaitNanos(nanos));
+                }
+            }
+            return true;
+        }
+        while (!fits(size)) {
+            Entry oldest = pollRoutine();
+            if (oldest != null) {
+                remove(oldest);
+                shed.increment();
+            } else if (priority) {
+                remove(priorityLane.pollFirst());
+                shedPriority.increment();
+            } else {
+                shed.increment(); // Só há alertas na fila: a mensagem comum nova é que é descartada
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Passa para o fim da faixa prioritária, na ordem, as mensagens comuns do brinco que
+     * ainda estão na fila. As posições antigas na faixa comum são ignoradas ao retirar.
+     * Chamado com a trava.
+     */
+    private void promote(long key) {
+        Entry latest = latestByKey.get(key);
+        if (latest == null) {
+            return;
+        }
+        latestByKey.remove(key);
+        // Ao longo de previous as mensagens são cada vez mais antigas; as que já saíram são sempre as mais antigas
+        ArrayDeque<Entry> chain = new ArrayDeque<>();
+        for (Entry entry = latest; entry != null && entry.queued; entry = entry.previous) {
+            chain.addFirst(entry);
+        }
+        for (Entry entry : chain) {
+            entry.priority = true;
+            entry.previous = null;
+            priorityLane.addLast(entry);
+        }
+    }
+
+    /**
+     * Próxima mensagem da faixa comum, pulando as que passaram à faixa prioritária. Chamado com a trava.
+     */
+    private Entry pollRoutine() {
+        Entry entry;
+        while ((entry = routineLane.pollFirst()) != null && entry.priority) {
+            // Já está na faixa prioritária
+        }
+        return entry;
+    }
+
+    private Entry peekRoutine() {
+        Entry entry;
+        while ((entry = routineLane.peekFirst()) != null && entry.priority) {
+            routineLane.pollFirst();
+        }
+        return entry;
+    }
+
+    private boolean fits(int size) {
+        return bytes == 0 || bytes + size <= maxBytes;
+    }
+
+    /**
+     * Substitui pela nova a mensagem comum do brinco que está na fila, se houver. Chamado com a trava.
+     */
+    private boolean coalesce(byte[] record, long key) {
+        Entry queued = latestByKey.get(key);
+        if (queued == null) {
+            return false;
+        }
+        bytes += record.length - queued.record.length;
+        queued.record = record;
+        coalesced.increment();
+        return true;
+    }
+
+    private void remove(Entry entry) {
+        bytes -= entry.record.length;
+        count--;
+        entry.queued = false;
+        entry.previous = null; // Não prende a cadeia de mensagens que já saíram
+        if (!entry.priority && latestByKey.get(entry.key) == entry) {
+            latestByKey.remove(entry.key);
+        }
+    }
+
+    /**
+     * Mensagem comum mais recente de cada brinco: endereçamento aberto com chaves long,
+     * sem criar um Long a cada mensagem. Acessado com a trava.
+     */
+    private static final class KeyIndex {
+        private long[] keys = new long[16];
+        private Entry[] values = new Entry[16];
+        private int size;
+
+        Entry get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        void put(long key, Entry value) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+            }
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            insert(key, value);
+            size++;
+        }
+
+        void remove(long key) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (values[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == null) {
+                return;
+            }
+            values[i] = null;
+            size--;
+            // Desloca para trás as chaves seguintes do mesmo agrupamento, para que as buscas não parem no buraco
+            for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                int home = slot(keys[j], mask);
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    values[j] = null;
+                    i = j;
+                }
+            }
+        }
+
+        private void insert(long key, Entry value) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Entry[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Entry[oldValues.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    insert(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            return (int) key & mask;
+        }
+    }
+
+    /**
+     * Retira a próxima mensagem, alertas primeiro. Chamado com a trava.
+     */
+    private byte[] dequeue() {
+        Entry entry = priorityLane.pollFirst();
+        if (entry == null) {
+            entry = pollRoutine();
+        }
+        if (entry == null) {
+            return null;
+        }
+        remove(entry);
+        notFull.signalAll();
+        return entry.record;
+    }
+
+    private long bytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Métodos de BlockingQueue: mensagens enfileiradas por eles são comuns e sem chave
+
+    @Override
+    public boolean offer(byte[] record) {
+        try {
+            return enqueue(record, NO_KEY, false, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void put(byte[] record) throws InterruptedException {
+        enqueue(record, NO_KEY, false);
+    }
+
+    @Override
+    public boolean offer(byte[] record, long timeout, TimeUnit unit) throws InterruptedException {
+        return enqueue(record, NO_KEY, false, Math.max(0, unit.toNanos(timeout)));
+    }
+
+    @Override
+    public byte[] take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            byte[] record;
+            while ((record = dequeue()) == null) {
+                notEmpty.await();
+            }
+            return record;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            byte[] record;
+            while ((record = dequeue()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return record;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] peek() {
+        lock.lock();
+        try {
+            Entry entry = priorityLane.isEmpty() ? peekRoutine() : priorityLane.peekFirst();
+            return entry == null ? null : entry.record;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bytes livres (a fila é limitada por bytes, não por número de mensagens).
+     */
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, maxBytes - bytes));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super byte[]> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super byte[]> target, int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            byte[] record;
+            while (drained < maxElements && (record = dequeue()) != null) {
+                target.add(record);
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cópia das mensagens enfileiradas, na ordem em que seriam retiradas.
+     */
+    @Override
+    public Iterator<byte[]> iterator() {
+        lock.lock();
+        try {
+            List<byte[]> snapshot = new ArrayList<>(count);
+            priorityLane.forEach(entry -> snapshot.add(entry.record));
+            routineLane.forEach(entry -> {
+                if (!entry.priority) {
+                    snapshot.add(entry.record);
+                }
+            });
+            return snapshot.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
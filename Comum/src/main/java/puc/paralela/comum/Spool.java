@@ -0,0 +1,289 @@
+package puc.paralela.comum;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Spool em disco para guardar as mensagens enquanto o próximo nó está fora do ar
+ * (store-and-forward). É um buffer circular num único arquivo de tamanho fixo,
+ * mapeado em memória:
+ *
+ * <pre>
+ * cabeçalho (64 bytes): magic, versão, capacidade, cursor de leitura, cursor de escrita
+ * dados (capacidade bytes): registros [tamanho int][crc32 int][mensagem], contínuos e circulares
+ * </pre>
+ *
+ * Os cursores são posições absolutas (só crescem); a posição no arquivo é o cursor
+ * módulo a capacidade. O registro é gravado antes de o cursor de escrita avançar, e o
+ * cursor de leitura só avança depois que o lote lido foi confirmado pelo receptor
+ * ({@link #commit}), então uma queda do processo não perde nem pula mensagens (podem
+ * ser reenviadas). Na abertura, os registros entre os cursores são conferidos pelo
+ * CRC e o spool é truncado no primeiro registro incompleto.
+ *
+ * O uso de disco é limitado pela capacidade: quando não há espaço, os registros mais
+ * antigos são descartados e contados. Usado só pela thread despachante.
+ */
+public final class Spool {
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_HEADER = 8;
+    private static final int MAGIC = 0x53504f31; // "SPO1"
+    private static final int VERSION = 1;
+
+    private static final int READ_CURSOR = 16;
+    private static final int WRITE_CURSOR = 24;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final long capacity;
+    private final CRC32 crc = new CRC32();
+
+    private long readPos;
+    private long writePos;
+    private long pendingEnd = -1; // Fim do último lote lido e ainda não confirmado
+    private long records;
+
+    private final LongAdder written;
+    private final LongAdder replayed;
+    private final LongAdder dropped;
+
+    private Spool(Path path, FileChannel channel, long capacity, String name) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.capacity = capacity;
+        this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+        String prefix = "spool_" + Metrics.slug(name) + "_";
+        this.written = Metrics.counter(prefix + "gravados");
+        this.replayed = Metrics.counter(prefix + "reenviados");
+        this.dropped = Metrics.counter(prefix + "descartados");
+        Metrics.gauge(prefix + "registros", this::size);
+        Metrics.gauge(prefix + "bytes", this::usedBytes);
+        Metrics.gauge(prefix + "capacidade_bytes", () -> capacity);
+    }
+
+    /**
+     * Abre o spool do arquivo indicado, criando-o se não existir. Um arquivo com outra
+     * capacidade é recriado; as mensagens pendentes nele são perdidas.
+     * @param name Nome do destino, usado nas métricas spool_{nome}_*.
+     */
+    public static Spool open(Path path, long capacity, String name) throws IOException {
+        if (capacity < 1024 || capacity > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException("Capacidade do spool inválida: " + capacity);
+        }
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean existing = channel.size() >= HEADER_SIZE;
+            Spool spool = new Spool(path, channel, capacity, name);
+            if (existing && spool.map.getInt(0) == MAGIC && spool.map.getInt(4) == VERSION && spool.map.getLong(8) == capacity) {
+                spool.recover();
+            } else {
+                if (existing) {
+                    Log.warn("Spool {} incompatível; recriando.", path);
+                }
+                spool.map.putInt(0, MAGIC);
+                spool.map.putInt(4, VERSION);
+                spool.map.putLong(8, capacity);
+                spool.persistCursors();
+            }
+            return spool;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Lê os cursores gravados e confere os registros entre eles.
+     */
+    private void recover() {
+        readPos = map.getLong(READ_CURSOR);
+        long savedWrite = map.getLong(WRITE_CURSOR);
+        if (readPos < 0 || savedWrite < readPos || savedWrite - readPos > capacity) {
+            Log.warn("Cursores do spool {} inválidos; descartando o conteúdo.", path);
+            readPos = savedWrite = Math.max(0, savedWrite);
+        }
+        long pos = readPos;
+        while (pos < savedWrite) {
+            int length = getInt(pos);
+            if (length < 0 || pos + RECORD_HEADER + length > savedWrite || checksum(pos + RECORD_HEADER, length) != getInt(pos + 4)) {
+                Log.warn("Spool {}: registro incompleto na posição {}; truncando.", path, pos);
+                break;
+            }
+            pos += RECORD_HEADER + length;
+            records++;
+        }
+        writePos = pos;
+        persistCursors();
+        if (records > 0) {
+            Log.info("Spool {}: {} mensagens pendentes de reenvio.", path, records);
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return readPos == writePos;
+    }
+
+    public synchronized long size() {
+        return records;
+    }
+
+    private synchronized long usedBytes() {
+        return writePos - readPos;
+    }
+
+    /**
+     * Grava as mensagens no fim do spool, descartando as mais antigas se faltar espaço,
+     * e força a gravação em disco.
+     */
+    public synchronized void appendAll(List<byte[]> batch) {
+        for (byte[] record : batch) {
+            append(record);
+        }
+        persistCursors();
+        map.force();
+    }
+
+    private void append(byte[] record) {
+        long needed = RECORD_HEADER + (long) record.length;
+        if (needed > capacity) {
+            dropped.increment();
+            return;
+        }
+        if (writePos + needed - readPos > capacity) {
+            while (writePos + needed - readPos > capacity) {
+                readPos += RECORD_HEADER + getInt(readPos);
+                records--;
+                dropped.increment();
+            }
+            // Antes de sobrescrever os registros descartados: numa queda, os cursores
+            // gravados nunca ficam mais distantes que a capacidade
+            map.putLong(READ_CURSOR, readPos);
+        }
+        crc.reset();
+        crc.update(record);
+        putInt(writePos, record.length);
+        putInt(writePos + 4, (int) crc.getValue());
+        putBytes(writePos + RECORD_HEADER, record, record.length);
+        writePos += needed;
+        map.putLong(WRITE_CURSOR, writePos); // Só depois do registro completo
+        records++;
+        written.increment();
+    }
+
+    /**
+     * Lê as mensagens mais antigas, sem removê-las, até {@code maxRecords} registros.
+     * Elas só saem do spool com {@link #commit}.
+     * @return quantidade de mensagens lidas.
+     */
+    public synchronized int read(List<byte[]> batch, int maxRecords) {
+        long pos = readPos;
+        int count = 0;
+        while (count < maxRecords && pos < writePos) {
+            int length = getInt(pos);
+            byte[] record = new byte[length];
+            getBytes(pos + RECORD_HEADER, record);
+            batch.add(record);
+            pos += RECORD_HEADER + length;
+            count++;
+        }
+        pendingEnd = pos;
+        return count;
+    }
+
+    /**
+     * Remove do spool as mensagens devolvidas pelo último {@link #read}, já confirmadas.
+     */
+    public synchronized void commit() {
+        if (pendingEnd < 0) {
+            return;
+        }
+        long pos = readPos;
+        while (pos < pendingEnd) {
+            pos += RECORD_HEADER + getInt(pos);
+            records--;
+            replayed.increment();
+        }
+        readPos = Math.max(readPos, pendingEnd);
+        pendingEnd = -1;
+        persistCursors();
+        map.force();
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.error("Erro ao fechar o spool {}: {}", path, e.getMessage());
+        }
+    }
+
+    private void persistCursors() {
+        map.putLong(READ_CURSOR, readPos);
+        map.putLong(WRITE_CURSOR, writePos);
+    }
+
+    private int checksum(long pos, int length) {
+        byte[] record = new byte[length];
+        getBytes(pos, record);
+        crc.reset();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    // Acesso circular à área de dados: um valor pode começar no fim e continuar no início
+
+    private int offset(long pos) {
+        return HEADER_SIZE + (int) (pos % capacity);
+    }
+
+    private int getInt(long pos) {
+        int start = offset(pos);
+        if (start + 4 <= HEADER_SIZE + capacity) {
+            return map.getInt(start);
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = value << 8 | (map.get(offset(pos + i)) & 0xff);
+        }
+        return value;
+    }
+
+    private void putInt(long pos, int value) {
+        int start = offset(pos);
+        if (start + 4 <= HEADER_SIZE + capacity) {
+            map.putInt(start, value);
+            return;
+        }
+        for (int i = 0; i < 4; i++) {
+            map.put(offset(pos + i), (byte) (value >>> (24 - 8 * i)));
+        }
+    }
+
+    private void putBytes(long pos, byte[] src, int length) {
+        int start = offset(pos);
+        int first = (int) Math.min(length, HEADER_SIZE + capacity - start);
+        map.put(start, src, 0, first);
+        if (first < length) {
+            map.put(HEADER_SIZE, src, first, length - first);
+        }
+    }
+
+    private void getBytes(long pos, byte[] dst) {
+        int start = offset(pos);
+        int first = (int) Math.min(dst.length, HEADER_SIZE + capacity - start);
+        map.get(start, dst, 0, first);
+        if (first < dst.length) {
+            map.get(HEADER_SIZE, dst, first, dst.length - first);
+        }
+    }
+}
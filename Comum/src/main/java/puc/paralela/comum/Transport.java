@@ -0,0 +1,17 @@
+package puc.paralela.comum;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Enlace de saída de um nó: consome a fila de saída em lotes e entrega as mensagens
+ * ao próximo nó. {@link UpstreamConnection} envia por TCP; {@link MemoryLink} entrega
+ * no mesmo processo, no modo embutido usado nas medições.
+ */
+public interface Transport {
+
+    /**
+     * Inicia a thread que consome a fila e entrega as mensagens.
+     * @param queue Fila de mensagens já serializadas (JSON ou binário).
+     */
+    Thread startDispatcher(BlockingQueue<byte[]> queue);
+}
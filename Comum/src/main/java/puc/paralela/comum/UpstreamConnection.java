@@ -0,0 +1,383 @@
+package puc.paralela.comum;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import puc.paralela.codec.FrameWriter;
+import puc.paralela.codec.Leitura;
+import puc.paralela.codec.WireFormat;
+
+/**
+ * Conexão TCP persistente com o próximo nó da cadeia (Gateway -> Borda, Borda -> Central).
+ * A thread despachante drena a fila em lotes, escreve todos os registros do lote
+ * em sequência no mesmo stream bufferizado e espera um único ACK por lote
+ * (ver {@link AckProtocol}). Se o lote não for confirmado, a conexão é refeita
+ * e o lote inteiro é reenviado.
+ *
+ * As mensagens são enviadas no formato do enlace ({@link WireFormat}); mensagens
+ * enfileiradas em outro formato são convertidas antes do envio.
+ *
+ * A espera crescente entre tentativas (2s, 4s, 6s...) só é aplicada quando não
+ * se consegue estabelecer a conexão; uma conexão já aberta que cai é refeita
+ * imediatamente.
+ *
+ * Com um {@link Spool} configurado ({@link #setSpool}), o despachante não espera:
+ * um lote que não pode ser enviado vai para o spool em disco e, enquanto houver
+ * mensagens nele, as novas também vão para o spool, para manter a ordem. O reenvio
+ * é feito em lotes, a partir das mais antigas, limitado a {@code replayRate}
+ * mensagens por segundo; enquanto o destino não responde, a conexão é testada
+ * com espera crescente de até {@value #MAX_PROBE_INTERVAL_MS} ms.
+ *
+ * Com {@link #configureBatching}, o despachante pode esperar alguns milissegundos para
+ * encher o lote, e cada lote pode ir comprimido num só bloco (ver {@link FrameWriter}).
+ */
+public class UpstreamConnection implements Transport {
+    public static final int DEFAULT_MAX_BATCH = 256;
+
+    private static final int MAX_RETRIES = 5;
+    private static final int SO_TIMEOUT_MS = 5000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_PROBE_INTERVAL_MS = 1000;
+    private static final long MAX_PROBE_INTERVAL_MS = 10_000;
+
+    private final String origem;  // Nome do nó local, usado nos logs
+    private final String destino; // Nome do nó remoto, usado nos logs
+    private final String host;
+    private final int port;
+    private final int maxBatchSize;
+    private final WireFormat format;
+    private final Leitura scratch = new Leitura(); // Usado só pela thread despachante nas conversões
+
+    // Métricas do enlace, com o destino no nome (ex.: envio_no_central_lotes)
+    private final LongAdder sentBatches;
+    private final LongAdder sentRecords;
+    private final LongAdder retries;
+    private final LongAdder failedBatches;
+    private final LongAdder discardedRecords;
+    private final LatencyHistogram ackLatencyUs;
+    private final LatencyHistogram batchLatencyMs; // Da saída do primeiro registro da fila até o ACK
+    private final LatencyHistogram batchRecords;
+    private final Log.Limiter batchLog = Log.limiter(); // Uma mensagem por lote, limitada como as por leitura
+
+    private Spool spool;
+    private int replayRate;
+
+    private long lingerMs;       // Espera máxima para encher o lote; 0 envia o que estiver na fila
+    private long maxBatchBytes;  // A espera termina quando o lote atinge este tamanho
+    private int compressionLevel; // 0 sem compressão
+    private LongAdder rawBytes;
+    private LongAdder compressedBytes;
+    private LatencyHistogram compressUs;
+    private long batchStart; // Instante (nanoTime) em que o lote atual começou a ser montado
+
+    private Socket socket;
+    private FrameWriter out;
+    private InputStream in;
+    private long nextSeq = 1;
+
+    public UpstreamConnection(String origem, String destino, String host, int port, int maxBatchSize, WireFormat format) {
+        this.origem = origem;
+        this.destino = destino;
+        this.host = host;
+        this.port = port;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.format = format;
+        String prefix = "envio_" + Metrics.slug(destino) + "_";
+        this.sentBatches = Metrics.counter(prefix + "lotes");
+        this.sentRecords = Metrics.counter(prefix + "registros");
+        this.retries = Metrics.counter(prefix + "retentativas");
+        this.failedBatches = Metrics.counter(prefix + "lotes_falhos");
+        this.discardedRecords = Metrics.counter(prefix + "registros_descartados");
+        this.ackLatencyUs = Metrics.histogram(prefix + "ack_us");
+        this.batchLatencyMs = Metrics.histogram(prefix + "lote_ms");
+        this.batchRecords = Metrics.histogram(prefix + "registros_por_lote");
+    }
+
+    /**
+     * Configura a montagem e a compressão dos lotes por -D{prefixo}.lote.ms (espera máxima para
+     * encher o lote; padrão 0, sem espera), -D{prefixo}.lote.bytes (a espera termina quando o lote
+     * chega a esse tamanho; padrão 256 KiB), -D{prefixo}.link.compressao ("deflate" ou "nenhuma",
+     * o padrão) e -D{prefixo}.link.compressao.nivel (1, o mais rápido e o padrão, a 9).
+     * Deve ser chamado antes de {@link #startDispatcher}.
+     */
+    public void configureBatching(String propertyPrefix) {
+        lingerMs = Long.getLong(propertyPrefix + ".lote.ms", 0L);
+        maxBatchBytes = Long.getLong(propertyPrefix + ".lote.bytes", 256 * 1024L);
+        if ("deflate".equalsIgnoreCase(System.getProperty(propertyPrefix + ".link.compressao", "nenhuma"))) {
+            compressionLevel = Math.max(1, Math.min(9, Integer.getInteger(propertyPrefix + ".link.compressao.nivel", 1)));
+            String prefix = "envio_" + Metrics.slug(destino) + "_";
+            rawBytes = Metrics.counter(prefix + "bytes_originais");
+            compressedBytes = Metrics.counter(prefix + "bytes_comprimidos");
+            compressUs = Metrics.histogram(prefix + "compressao_us");
+            // Tamanho comprimido em relação ao original, em %
+            Metrics.gauge(prefix + "compressao_pct", () -> rawBytes.sum() == 0 ? 0 : compressedBytes.sum() * 100 / rawBytes.sum());
+        }
+    }
+
+    /**
+     * Passa a guardar em disco as mensagens que não puderem ser enviadas. Deve ser chamado antes de {@link #startDispatcher}.
+     * @param replayRate Máximo de mensagens por segundo reenviadas a partir do spool.
+     */
+    public void setSpool(Spool spool, int replayRate) {
+        this.spool = spool;
+        this.replayRate = Math.max(1, replayRate);
+    }
+
+    /**
+     * Abre o spool configurado por -D{prefixo}.spool.bytes (padrão 64 MiB; 0 desativa),
+     * -D{prefixo}.spool.dir (padrão "spool-{prefixo}") e -D{prefixo}.spool.taxa (mensagens/s no reenvio, padrão 5000).
+     * Se o spool não puder ser aberto, o envio segue sem ele.
+     */
+    public void configureSpool(String propertyPrefix) {
+        long bytes = Long.getLong(propertyPrefix + ".spool.bytes", 64L * 1024 * 1024);
+        if (bytes <= 0) {
+            return;
+        }
+        Path dir = Path.of(System.getProperty(propertyPrefix + ".spool.dir", "spool-" + propertyPrefix));
+        try {
+            setSpool(Spool.open(dir.resolve(Metrics.slug(destino) + ".spool"), bytes, destino),
+                    Integer.getInteger(propertyPrefix + ".spool.taxa", 5000));
+        } catch (IOException | RuntimeException e) {
+            Log.warn("Erro ao abrir o spool para o {} em {}: {}. Seguindo sem spool.", destino, dir, e.getMessage());
+        }
+    }
+
+    /**
+     * Inicia a thread que consome a fila e envia os registros em lotes.
+     * @param queue Fila de mensagens já serializadas (JSON ou binário).
+     */
+    @Override
+    public Thread startDispatcher(BlockingQueue<byte[]> queue) {
+        String prefix = "fila_" + Metrics.slug(destino) + "_";
+        Metrics.gauge(prefix + "profundidade", queue::size);
+        Thread dispatcher = new Thread(() -> {
+            List<byte[]> batch = new ArrayList<>(maxBatchSize);
+            long nextAttempt = 0; // Próxima tentativa de envio a partir do spool
+            long probeInterval = MIN_PROBE_INTERVAL_MS;
+            while (true) {
+                try {
+                    if (spool == null) {
+                        fillBatch(queue, batch);
+                        convertBatch(batch);
+                        if (!batch.isEmpty()) {
+                            sendBatch(batch, MAX_RETRIES);
+                        }
+                    } else if (spool.isEmpty()) {
+                        fillBatch(queue, batch);
+                        convertBatch(batch);
+                        if (!batch.isEmpty() && !sendBatch(batch, 1)) {
+                            spoolBatch(batch);
+                            nextAttempt = System.currentTimeMillis() + probeInterval;
+                        }
+                    } else {
+                        long wait = nextAttempt - System.currentTimeMillis();
+                        if (wait > 0) {
+                            // Até a próxima tentativa, o que chega vai para o spool, atrás das mais antigas
+                            byte[] record = queue.poll(wait, TimeUnit.MILLISECONDS);
+                            if (record != null) {
+                                batch.add(record);
+                                queue.drainTo(batch, maxBatchSize - 1);
+                                convertBatch(batch);
+                                spool.appendAll(batch);
+                            }
+                            continue;
+                        }
+                        spool.read(batch, maxBatchSize);
+                        batchStart = System.nanoTime();
+                        if (sendBatch(batch, 1)) {
+                            spool.commit();
+                            probeInterval = MIN_PROBE_INTERVAL_MS;
+                            nextAttempt = System.currentTimeMillis() + batch.size() * 1000L / replayRate;
+                            if (spool.isEmpty()) {
+                                Log.info("{}: spool para o {} esvaziado; envio normal retomado.", origem, destino);
+                            }
+                        } else {
+                            nextAttempt = System.currentTimeMillis() + probeInterval;
+                            probeInterval = Math.min(MAX_PROBE_INTERVAL_MS, probeInterval * 2);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    Log.error("Despachante para {} interrompido.", destino);
+                    break;
+                } catch (Exception e) {
+                    Log.error("Erro no despachante para {}: {}", destino, e.getMessage());
+                } finally {
+                    batch.clear();
+                }
+            }
+            close();
+            if (spool != null) {
+                spool.close();
+            }
+        }, "despachante-" + host + ":" + port);
+        dispatcher.start();
+        return dispatcher;
+    }
+
+    /**
+     * Espera o primeiro registro e monta o lote com os que estão na fila; com {@code lingerMs},
+     * continua esperando até o lote ter {@code maxBatchSize} registros ou {@code maxBatchBytes}
+     * bytes, ou o prazo acabar.
+     */
+    private void fillBatch(BlockingQueue<byte[]> queue, List<byte[]> batch) throws InterruptedException {
+        batch.add(queue.take());
+        batchStart = System.nanoTime();
+        queue.drainTo(batch, maxBatchSize - 1);
+        if (lingerMs > 0) {
+            long bytes = 0;
+            for (byte[] record : batch) {
+                bytes += record.length;
+            }
+            long deadline = batchStart + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+            while (batch.size() < maxBatchSize && bytes < maxBatchBytes) {
+                byte[] record = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (record == null) {
+                    break;
+                }
+                int first = batch.size();
+                batch.add(record);
+                queue.drainTo(batch, maxBatchSize - batch.size());
+                for (int i = first; i < batch.size(); i++) {
+                    bytes += batch.get(i).length;
+                }
+            }
+        }
+        batchRecords.record(batch.size());
+    }
+
+    private void spoolBatch(List<byte[]> batch) {
+        spool.appendAll(batch);
+        Log.warn("{}: {} registros guardados no spool até o {} voltar ({} pendentes).", origem, batch.size(), destino, spool.size());
+    }
+
+    /**
+     * Envia um lote e aguarda a confirmação, reconectando e reenviando se necessário.
+     * @return true se o lote foi confirmado pelo receptor.
+     */
+    public boolean sendBatch(List<byte[]> batch) throws InterruptedException {
+        batchStart = System.nanoTime();
+        return sendBatch(batch, MAX_RETRIES);
+    }
+
+    /**
+     * @param maxRetries Tentativas de conexão antes de desistir (com uma só, não há espera).
+     */
+    private boolean sendBatch(List<byte[]> batch, int maxRetries) throws InterruptedException {
+        int currentRetry = 0;
+        while (true) {
+            boolean reused = socket != null;
+            try {
+                if (!reused) {
+                    connect();
+                }
+                long start = System.nanoTime();
+                writeAndAwaitAck(batch);
+                long acked = System.nanoTime();
+                ackLatencyUs.record((acked - start) / 1000);
+                batchLatencyMs.record((acked - batchStart) / 1_000_000);
+                if (out.isCompressed()) {
+                    rawBytes.add(out.lastRawBytes());
+                    compressedBytes.add(out.lastCompressedBytes());
+                    compressUs.record(out.lastCompressNanos() / 1000);
+                }
+                sentBatches.increment();
+                sentRecords.add(batch.size());
+                if (batchLog.allow()) {
+                    Log.info("{} enviou lote de {} registros para o {} (via {}:{})", origem, batch.size(), destino, host, port);
+                }
+                return true;
+            } catch (IOException e) {
+                close();
+                if (reused) {
+                    // A conexão antiga caiu: tenta reconectar imediatamente, sem contar como retentativa.
+                    Log.warn("Conexão com o {} perdida ({}). Reconectando...", destino, e.getMessage());
+                    continue;
+                }
+                retries.increment();
+                currentRetry++;
+                Log.warn("Erro ao conectar ou enviar para o {} (retentativa {}/{}): {}", destino, currentRetry, maxRetries, e.getMessage());
+                if (currentRetry >= maxRetries) {
+                    failedBatches.increment();
+                    Log.error("Falha ao enviar lote de {} registros para o {} após {} retentativas.", batch.size(), destino, maxRetries);
+                    return false;
+                }
+                TimeUnit.SECONDS.sleep(2 * currentRetry);
+            }
+        }
+    }
+
+    /**
+     * Converte para o formato do enlace as mensagens que chegaram em outro formato,
+     * descartando as que não puderem ser interpretadas.
+     */
+    private void convertBatch(List<byte[]> batch) {
+        int kept = 0;
+        for (byte[] record : batch) {
+            try {
+                batch.set(kept++, format.convert(record, scratch));
+            } catch (RuntimeException e) {
+                kept--;
+                discardedRecords.increment();
+                Log.error("Mensagem descartada pelo despachante para {}: {}", destino, e.getMessage());
+            }
+        }
+        batch.subList(kept, batch.size()).clear();
+    }
+
+    private void connect() throws IOException {
+        Socket s = new Socket(host, port);
+        try {
+            s.setSoTimeout(SO_TIMEOUT_MS);
+            s.setTcpNoDelay(true);
+            s.setKeepAlive(true);
+            out = new FrameWriter(new BufferedOutputStream(s.getOutputStream(), BUFFER_SIZE), format, compressionLevel);
+            in = new BufferedInputStream(s.getInputStream());
+            out.writePreamble();
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+        socket = s;
+        Log.info("{} conectado ao {} em {}:{} (formato {}{})", origem, destino, host, port, format,
+                compressionLevel > 0 ? ", lotes comprimidos" : "");
+    }
+
+    private void writeAndAwaitAck(List<byte[]> batch) throws IOException {
+        for (byte[] record : batch) {
+            out.writeRecord(record);
+        }
+        long seq = nextSeq++;
+        out.writeSync(seq);
+        out.flush();
+
+        long acked = AckProtocol.readAck(in);
+        if (acked != seq) {
+            throw new IOException("ACK fora de ordem: esperado " + seq + ", recebido " + acked);
+        }
+    }
+
+    /**
+     * Fecha a conexão atual, se houver. A próxima chamada a {@link #sendBatch} reconecta.
+     */
+    public void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.error("Erro ao fechar a conexão com o {}: {}", destino, e.getMessage());
+            }
+        }
+        socket = null;
+        out = null;
+        in = null;
+    }
+}
@@ -0,0 +1,206 @@
+package puc.paralela.comum;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class OverloadQueueTest {
+    private static final int RECORD_SIZE = 10;
+    private static final long A = 1;
+    private static final long B = 2;
+    private static final long C = 3;
+    private static final AtomicInteger QUEUES = new AtomicInteger();
+
+    private String name;
+
+    /**
+     * Fila com espaço para {@code records} mensagens de {@value #RECORD_SIZE} bytes; cada
+     * fila tem métricas próprias.
+     */
+    private OverloadQueue queue(OverloadQueue.Policy policy, int records) {
+        name = "teste_" + QUEUES.incrementAndGet();
+        return new OverloadQueue(name, (long) records * RECORD_SIZE, policy);
+    }
+
+    private long counter(String suffix) {
+        return Metrics.counter("fila_" + name + "_" + suffix).sum();
+    }
+
+    private static byte[] record(String label) {
+        return Arrays.copyOf(label.getBytes(StandardCharsets.US_ASCII), RECORD_SIZE);
+    }
+
+    private static String label(byte[] record) {
+        return new String(record, StandardCharsets.US_ASCII).trim();
+    }
+
+    private static List<String> contents(OverloadQueue queue) {
+        List<String> labels = new ArrayList<>();
+        queue.forEach(record -> labels.add(label(record)));
+        return labels;
+    }
+
+    private static List<String> drain(OverloadQueue queue) {
+        List<byte[]> records = new ArrayList<>();
+        queue.drainTo(records);
+        List<String> labels = new ArrayList<>();
+        records.forEach(record -> labels.add(label(record)));
+        return labels;
+    }
+
+    @Test
+    public void blockingOfferReturnsWhenFullOrAfterTimeout() throws InterruptedException {
+        OverloadQueue queue = queue(OverloadQueue.Policy.BLOQUEAR, 2);
+        assertTrue(queue.offer(record("r1")));
+        assertTrue(queue.offer(record("r2")));
+
+        assertFalse(queue.offer(record("r3")));
+        long start = System.nanoTime();
+        assertFalse(queue.offer(record("r3"), 50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(Arrays.asList("r1", "r2"), contents(queue));
+    }
+
+    @Test
+    public void blockingOfferWaitsForSpace() throws InterruptedException {
+        OverloadQueue queue = queue(OverloadQueue.Policy.BLOQUEAR, 1);
+        queue.put(record("r1"));
+        Thread consumer = new Thread(() -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(50);
+                queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        assertTrue(queue.offer(record("r2"), 10, TimeUnit.SECONDS));
+        consumer.join();
+        assertEquals(Arrays.asList("r2"), contents(queue));
+        assertEquals(1, counter("esperas"));
+    }
+
+    @Test
+    public void dropOldestShedsRoutineMessagesFirst() throws InterruptedException {
+        OverloadQueue queue = queue(OverloadQueue.Policy.DESCARTAR_ANTIGAS, 3);
+        assertTrue(queue.enqueue(record("a1"), A, true));
+        assertTrue(queue.enqueue(record("r1"), B, false));
+        assertTrue(queue.enqueue(record("r2"), C, false));
+        assertTrue(queue.enqueue(record("r3"), C, false));
+        assertEquals(Arrays.asList("a1", "r2", "r3"), contents(queue));
+        assertEquals(1, counter("descartadas"));
+        assertEquals(3, queue.size());
+    }
+
+    @Test
+    public void alertsAreShedOnlyForOtherAlerts() throws InterruptedException {
+        OverloadQueue queue = queue(OverloadQueue.Policy.DESCARTAR_ANTIGAS, 2);
+        assertTrue(queue.enqueue(record("a1"), A, true));
+        assertTrue(queue.enqueue(record("a2"), B, true));
+
+        // Fila só com alertas: a mensagem comum nova é descartada
+        assertFalse(queue.enqueue(record("r1"), C, false));
+        assertEquals(Arrays.asList("a1", "a2"), contents(queue));
+
+        assertTrue(queue.enqueue(record("a3"), C, true));
+        assertEquals(Arrays.asList("a2", "a3"), contents(queue));
+        assertEquals(1, counter("descartadas"));
+        assertEquals(1, counter("descartadas_prioritarias"));
+    }
+
+    @Test
+    public void coalescerKeepsEveryReadingWhileThereIsRoom() throws InterruptedException {
+        OverloadQueue queue = queue(OverloadQueue.Policy.COALESCER, 3);
+        assertTrue(queue.enqueue(record("a1"), A, false));
+        assertTrue(queue.enqueue(record("a2"), A, false));
+        assertTrue(queue.enqueue(record("b1"), B, false));
+        assertEquals(0, counter("coalescidas"));
+
+        // Cheia: a mensagem mais recente do brinco é substituída, na mesma posição
+        assertTrue(queue.enqueue(record("a3"), A, false));
+        assertEquals(Arrays.asList("a1", "a3", "b1"), contents(queue));
+        assertEquals(1, counter("coalescidas"));
+
+        // Brinco sem mensagem na fila: descarta a mais antiga
+        assertTrue(queue.enqueue(record("c1"), C, false));
+        assertEquals(Arrays.asList("a3", "b1", "c1"), contents(queue));
+        assertEquals(1, counter("descartadas"));
+    }
+
+    @Test
+    public void alertTakesQueuedReadingsOfTheSameTagAlong() throws InterruptedException {
+        OverloadQueue queue = queue(OverloadQueue.Policy.DESCARTAR_ANTIGAS, 10);
+        queue.enqueue(record("a1"), A, false);
+        queue.enqueue(record("b1"), B, false);
+        queue.enqueue(record("a2"), A, false);
+        queue.enqueue(record("alerta-a"), A, true);
+        queue.enqueue(record("b2"), B, false);
+
+        List<String> expected = Arrays.asList("a1", "a2", "alerta-a", "b1", "b2");
+        assertEquals(expected, contents(queue));
+        assertEquals(5, queue.size());
+        assertEquals("a1", label(queue.peek()));
+        assertEquals(expected, drain(queue));
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void alertAfterPartialDrainKeepsRemainingOrder() throws InterruptedException {
+        OverloadQueue queue = queue(OverloadQueue.Policy.COALESCER, 10);
+        queue.enqueue(record("a1"), A, false);
+        queue.enqueue(record("a2"), A, false);
+        assertEquals("a1", label(queue.poll()));
+
+        queue.enqueue(record("alerta-a"), A, true);
+        queue.enqueue(record("a3"), A, false);
+        assertEquals(Arrays.asList("a2", "alerta-a", "a3"), drain(queue));
+    }
+
+    @Test
+    public void shedReadingsAreNotPromoted() throws InterruptedException {
+        OverloadQueue queue = queue(OverloadQueue.Policy.DESCARTAR_ANTIGAS, 2);
+        queue.enqueue(record("a1"), A, false);
+        queue.enqueue(record("a2"), A, false);
+        queue.enqueue(record("b1"), B, false); // Descarta a1
+
+        // Descarta a2, a mais antiga; a mensagem descartada não volta para a fila com o alerta
+        queue.enqueue(record("alerta-a"), A, true);
+        assertEquals(Arrays.asList("alerta-a", "b1"), drain(queue));
+        assertEquals(2, counter("descartadas"));
+    }
+
+    @Test
+    public void readsPolicyFromPropertyWithDefaultForUnknownValues() {
+        String property = "teste.fila.politica";
+        try {
+            System.setProperty(property, " Coalescer ");
+            assertEquals(OverloadQueue.Policy.COALESCER, OverloadQueue.Policy.fromProperty(property, OverloadQueue.Policy.BLOQUEAR));
+            System.setProperty(property, "descartar-antigas");
+            assertEquals(OverloadQueue.Policy.DESCARTAR_ANTIGAS, OverloadQueue.Policy.fromProperty(property, OverloadQueue.Policy.BLOQUEAR));
+            System.setProperty(property, "descartar-velhas");
+            assertEquals(OverloadQueue.Policy.BLOQUEAR, OverloadQueue.Policy.fromProperty(property, OverloadQueue.Policy.BLOQUEAR));
+        } finally {
+            System.clearProperty(property);
+        }
+        assertEquals(OverloadQueue.Policy.COALESCER, OverloadQueue.Policy.fromProperty(property, OverloadQueue.Policy.COALESCER));
+    }
+
+    @Test
+    public void acceptsMessageLargerThanCapacityWhenEmpty() throws InterruptedException {
+        OverloadQueue queue = queue(OverloadQueue.Policy.BLOQUEAR, 1);
+        byte[] large = new byte[RECORD_SIZE * 3];
+        assertTrue(queue.offer(large));
+        assertArrayEquals(large, queue.take());
+    }
+}
@@ -0,0 +1,179 @@
+package puc.paralela.comum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpoolTest {
+    private static final int CAPACITY = 1024;
+    private static final int RECORD_SIZE = 100; // 108 bytes no spool, com o cabeçalho do registro
+    private static final int DATA_START = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path() {
+        return folder.getRoot().toPath().resolve("destino.spool");
+    }
+
+    private Spool open() throws IOException {
+        return Spool.open(path(), CAPACITY, "teste");
+    }
+
+    private static byte[] record(int n) {
+        return Arrays.copyOf(("registro-" + n).getBytes(StandardCharsets.US_ASCII), RECORD_SIZE);
+    }
+
+    private static List<byte[]> records(int from, int to) {
+        List<byte[]> batch = new ArrayList<>();
+        for (int n = from; n < to; n++) {
+            batch.add(record(n));
+        }
+        return batch;
+    }
+
+    /**
+     * Lê tudo o que está no spool, sem confirmar.
+     */
+    private static List<String> contents(Spool spool) {
+        List<byte[]> batch = new ArrayList<>();
+        spool.read(batch, Integer.MAX_VALUE);
+        List<String> labels = new ArrayList<>();
+        batch.forEach(record -> labels.add(new String(record, StandardCharsets.US_ASCII).trim()));
+        return labels;
+    }
+
+    private static List<String> labels(int from, int to) {
+        List<String> labels = new ArrayList<>();
+        for (int n = from; n < to; n++) {
+            labels.add("registro-" + n);
+        }
+        return labels;
+    }
+
+    @Test
+    public void readsUntilCommitted() throws IOException {
+        Spool spool = open();
+        spool.appendAll(records(0, 3));
+        List<byte[]> batch = new ArrayList<>();
+        assertEquals(2, spool.read(batch, 2));
+        assertEquals(labels(0, 3), contents(spool)); // Sem commit, o próximo read começa de novo
+
+        batch.clear();
+        spool.read(batch, 2);
+        spool.commit();
+        assertEquals(labels(2, 3), contents(spool));
+        spool.commit();
+        assertTrue(spool.isEmpty());
+        spool.close();
+    }
+
+    @Test
+    public void keepsUncommittedRecordsAcrossRestarts() throws IOException {
+        Spool spool = open();
+        spool.appendAll(records(0, 4));
+        spool.read(new ArrayList<>(), 1);
+        spool.commit();
+        spool.read(new ArrayList<>(), 2); // Enviado, mas não confirmado antes da queda
+        spool.close();
+
+        Spool reopened = open();
+        assertEquals(3, reopened.size());
+        assertEquals(labels(1, 4), contents(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void dropsOldestRecordsWhenFull() throws IOException {
+        Spool spool = open();
+        spool.appendAll(records(0, 20));
+        // 9 registros de 108 bytes cabem em 1024
+        assertEquals(9, spool.size());
+        assertEquals(labels(11, 20), contents(spool));
+        spool.close();
+
+        Spool reopened = open();
+        assertEquals(labels(11, 20), contents(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void crashWhileOverwritingKeepsNewestRecords() throws IOException {
+        Spool spool = open();
+        spool.appendAll(records(0, 9));
+        // O processo cai no meio do lote, depois de sobrescrever os registros mais antigos
+        List<byte[]> interrupted = new AbstractList<byte[]>() {
+            @Override
+            public byte[] get(int index) {
+                if (index == 5) {
+                    throw new IllegalStateException("queda simulada");
+                }
+                return record(9 + index);
+            }
+
+            @Override
+            public int size() {
+                return 10;
+            }
+        };
+        try {
+            spool.appendAll(interrupted);
+            fail("A queda simulada não interrompeu o lote");
+        } catch (IllegalStateException expected) {
+            // Esperado
+        }
+
+        // O arquivo fica como a queda o deixou; o spool antigo nunca é fechado
+        Spool reopened = open();
+        assertEquals(labels(5, 14), contents(reopened));
+        reopened.close();
+        spool.close();
+    }
+
+    @Test
+    public void truncatesAtCorruptRecord() throws IOException {
+        Spool spool = open();
+        spool.appendAll(records(0, 3));
+        spool.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(path().toFile(), "rw")) {
+            long payload = DATA_START + 2 * (RECORD_SIZE + 8) + 8;
+            file.seek(payload);
+            file.write(file.read() ^ 0xff);
+        }
+
+        Spool reopened = open();
+        assertEquals(labels(0, 2), contents(reopened));
+        // Os próximos registros entram no lugar do que foi truncado
+        reopened.appendAll(records(3, 4));
+        reopened.close();
+        Spool again = open();
+        assertEquals(Arrays.asList("registro-0", "registro-1", "registro-3"), contents(again));
+        again.close();
+    }
+
+    @Test
+    public void recreatesSpoolWithDifferentCapacity() throws IOException {
+        Spool spool = open();
+        spool.appendAll(records(0, 3));
+        spool.close();
+
+        Spool resized = Spool.open(path(), 2 * CAPACITY, "teste");
+        assertTrue(resized.isEmpty());
+        resized.appendAll(records(3, 4));
+        assertEquals(labels(3, 4), contents(resized));
+        resized.close();
+    }
+}
@@ -0,0 +1,48 @@
+package puc.paralela;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Detecta retransmissões de um brinco: a mesma leitura (brinco, timestamp) recebida
+ * de novo dentro do prazo. É um cache de tamanho fixo e mapeamento direto, sem travas:
+ * cada par ocupa uma posição determinada pelo hash e sobrescreve a anterior, então a
+ * memória é limitada e entradas antigas saem sozinhas (por prazo ou por colisão).
+ * Uma colisão só pode deixar passar uma duplicata, nunca descartar uma leitura nova.
+ */
+final class DedupCache {
+    private final AtomicLongArray fingerprints;
+    private final AtomicLongArray seenAt;
+    private final int mask;
+    private final long ttlMs;
+
+    /**
+     * @param entries Número de posições (arredondado para potência de dois).
+     */
+    DedupCache(int entries, long ttlMs) {
+        int size = Integer.highestOneBit(Math.max(2, entries - 1)) << 1;
+        this.fingerprints = new AtomicLongArray(size);
+        this.seenAt = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Registra a leitura e informa se ela já tinha sido vista dentro do prazo.
+     */
+    boolean isDuplicate(long brincoKey, long timestamp, long now) {
+        long fingerprint = mix(brincoKey ^ mix(timestamp)) | 1; // Nunca 0, que marca posição vazia
+        int slot = (int) (fingerprint >>> 32) & mask;
+        if (fingerprints.get(slot) == fingerprint && now - seenAt.get(slot) <= ttlMs) {
+            return true;
+        }
+        fingerprints.set(slot, fingerprint);
+        seenAt.set(slot, now);
+        return false;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,19 +1,29 @@
 package puc.paralela;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.net.Socket;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import org.json.JSONObject;
+import puc.paralela.codec.Leitura;
+import puc.paralela.codec.WireFormat;
+import puc.paralela.comum.LatencyHistogram;
+import puc.paralela.comum.Log;
+import puc.paralela.comum.MemoryLink;
+import puc.paralela.comum.Metrics;
+import puc.paralela.comum.OverloadQueue;
+import puc.paralela.comum.Transport;
+import puc.paralela.comum.UpstreamConnection;
 
 /**
  * O Gateway recebe dados de brincos via UDP, os coloca em uma fila
- * e uma thread separada os envia para o Nó de Borda via TCP.
+ * e uma thread separada os envia em lotes para o Nó de Borda por uma
+ * conexão TCP persistente.
  */
 class Gateway {
     private static final int GATEWAY_UDP_PORT = 12347; // Porta local do Gateway para receber dos brincos
@@ -21,97 +31,194 @@ class Gateway {
     private static String BORDA_NODE_IP;      // Definido via argumento de linha de comando
     private static int BORDA_NODE_TCP_PORT; // Definido via argumento de linha de comando
 
-    private static ArrayBlockingQueue<String> dataQueue = new ArrayBlockingQueue<>(100);
+    // Modo do receptor UDP: "blocking" (DatagramSocket, uma thread) ou "nio" (DatagramChannel, várias threads)
+    private static final String UDP_MODE = System.getProperty("gateway.udp.mode", "blocking");
+    private static final int UDP_THREADS = Integer.getInteger("gateway.udp.threads", Runtime.getRuntime().availableProcessors());
+    private static final int UDP_RCVBUF = Integer.getInteger("gateway.udp.rcvbuf", 4 * 1024 * 1024);
+
+    private static final int METRICS_PORT = 12351; // Endpoint local de métricas (-Dmetricas.porta)
+
+    // Fila limitada em bytes; quando enche, descarta as leituras comuns mais antigas (-Dgateway.fila.politica)
+    private static final OverloadQueue dataQueue = new OverloadQueue("Nó de Borda",
+            Long.getLong("gateway.fila.bytes", 1024 * 1024),
+            OverloadQueue.Policy.fromProperty("gateway.fila.politica", OverloadQueue.Policy.DESCARTAR_ANTIGAS));
+    // Leituras a partir desta temperatura vão para a faixa prioritária da fila
+    private static final float PRIORITY_TEMPERATURE = Float.parseFloat(System.getProperty("gateway.prioridade.temperatura", "39.0"));
+
+    // Retransmissões (mesmo brinco e timestamp) descartadas dentro do prazo; 0 entradas desativa
+    private static final int DEDUP_ENTRIES = Integer.getInteger("gateway.dedup.entradas", 1 << 16);
+    private static final DedupCache DEDUP = DEDUP_ENTRIES > 0
+            ? new DedupCache(DEDUP_ENTRIES, TimeUnit.SECONDS.toMillis(Long.getLong("gateway.dedup.segundos", 60))) : null;
+    private static final LongAdder DUPLICATES = Metrics.counter("duplicados");
+    // Janela de agregação por brinco em ms; 0 (padrão) envia cada leitura
+    private static final long WINDOW_MS = Long.getLong("gateway.agregacao.ms", 0);
+    private static final WindowAggregator AGGREGATOR = WINDOW_MS > 0 ? new WindowAggregator(WINDOW_MS, dataQueue) : null;
+
+    // Latência entre a geração da leitura no brinco e a sua recepção no Gateway
+    private static final LatencyHistogram BRINCO_TO_GATEWAY_MS = Metrics.histogram("latencia_brinco_ate_gateway_ms");
+    private static final LongAdder INVALID_DATAGRAMS = Metrics.counter("udp_invalidos");
+    private static final Log.Limiter RECEIVE_LOG = Log.limiter(); // Mensagens por datagrama (-Dlog.leituras.por.segundo)
 
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.out.println("Uso: java -jar gateway-1.0-SNAPSHOT-jar-with-dependencies.jar <IP_NOBORDA> <PORTA_NOBORDA>");
+            Log.info("Uso: java -jar gateway-1.0-SNAPSHOT-jar-with-dependencies.jar <IP_NOBORDA> <PORTA_NOBORDA>");
             return;
         }
 
         BORDA_NODE_IP = args[0];
         BORDA_NODE_TCP_PORT = Integer.parseInt(args[1]);
 
+        Metrics.start("Gateway", METRICS_PORT);
+        startAggregator();
         startUdpReceiver();
         startTcpDispatcher();
         try {
             Thread.currentThread().join();
         } catch (InterruptedException e) {
-            System.err.println("Gateway main thread interrupted.");
+            Log.error("Gateway main thread interrupted.");
             Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Modo embutido (ver EmbeddedPipeline, no módulo Benchmarks): sem receptor UDP nem conexão
+     * TCP, as leituras chegam dos brincos e seguem para o Nó de Borda pelos enlaces em memória.
+     */
+    static void startEmbedded(MemoryLink fromBrincos, Transport toBorda) {
+        startAggregator();
+        Leitura scratch = new Leitura(); // Usada só pela thread receptora do enlace
+        fromBrincos.startReceiver((buf, off, len) -> {
+            try {
+                receive(buf, scratch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        toBorda.startDispatcher(dataQueue);
+    }
+
+    private static void startAggregator() {
+        if (AGGREGATOR != null) {
+            AGGREGATOR.start();
+            Log.info("Gateway: agregando as leituras de cada brinco em janelas de {} ms.", WINDOW_MS);
+        }
+    }
+
     private static void startUdpReceiver() {
+        if ("nio".equalsIgnoreCase(UDP_MODE)) {
+            startNioUdpReceiver();
+            return;
+        }
         new Thread(() -> {
+            LongAdder received = Metrics.counter("udp_recebidos");
+            Leitura scratch = new Leitura();
             try (DatagramSocket socket = new DatagramSocket(GATEWAY_UDP_PORT)) {
-                System.out.println("Gateway ouvindo dados dos brincos em UDP Porta " + GATEWAY_UDP_PORT);
-                System.out.println("Conectando-se ao Nó de Borda em " + BORDA_NODE_IP + ":" + BORDA_NODE_TCP_PORT);
+                Log.info("Gateway ouvindo dados dos brincos em UDP Porta {}", GATEWAY_UDP_PORT);
+                Log.info("Conectando-se ao Nó de Borda em {}:{}", BORDA_NODE_IP, BORDA_NODE_TCP_PORT);
                 byte[] buffer = new byte[4096];
                 while (true) {
                     DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
                     socket.receive(packet);
-                    String receivedData = new String(packet.getData(), 0, packet.getLength());
+                    byte[] receivedData = Arrays.copyOf(packet.getData(), packet.getLength());
+                    received.increment();
                     try {
-                        dataQueue.put(receivedData);
-                        System.out.println("Gateway recebeu dados do brinco e enfileirou: " + receivedData);
+                        receive(receivedData, scratch);
                     } catch (InterruptedException e) {
                         Thread.currentThread().interrupt();
-                        System.err.println("Receptor UDP interrompido.");
+                        Log.error("Receptor UDP interrompido.");
                         break;
                     }
                 }
             } catch (IOException e) {
-                System.err.println("Erro no receptor UDP do Gateway: " + e.getMessage());
-                e.printStackTrace();
+                Log.error("Erro no receptor UDP do Gateway: {}", e.getMessage(), e);
             }
         }).start();
     }
 
-    private static void startTcpDispatcher() {
-        new Thread(() -> {
-            while (true) {
-                try {
-                    String dataToSend = dataQueue.take();
-                    sendDataToBordaNode(dataToSend);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    System.err.println("Despachante TCP interrompido.");
-                    break;
-                } catch (Exception e) {
-                    System.err.println("Erro no despachante TCP do Gateway: " + e.getMessage());
-                }
+    /**
+     * Enfileira uma leitura recebida de um brinco, registrando no log (com limite) o resultado.
+     */
+    private static void receive(byte[] receivedData, Leitura scratch) throws InterruptedException {
+        if (!enqueue(receivedData, scratch)) {
+            if (RECEIVE_LOG.allow()) {
+                Log.info("Gateway descartou dados do brinco {}: fila cheia.", scratch.getBrincoId());
             }
-        }).start();
+            return;
+        }
+        if (Log.isEnabled(Log.Level.DEBUG)) {
+            String conteudo = WireFormat.detect(receivedData, 0, receivedData.length) == WireFormat.JSON
+                    ? new String(receivedData, StandardCharsets.UTF_8) : "(binário, " + receivedData.length + " bytes)";
+            Log.debug("Gateway recebeu dados do brinco e enfileirou: {}", conteudo);
+        } else if (RECEIVE_LOG.allow()) {
+            Log.info("Gateway recebeu dados do brinco {} e enfileirou.", scratch.getBrincoId());
+        }
     }
 
-    private static void sendDataToBordaNode(String data) {
-        int maxRetries = 5;
-        int currentRetry = 0;
-        boolean sent = false;
-
-        while (!sent && currentRetry < maxRetries) {
-            try (Socket bordaSocket = new Socket(BORDA_NODE_IP, BORDA_NODE_TCP_PORT)) {
-                bordaSocket.setSoTimeout(5000);
-                OutputStream os = bordaSocket.getOutputStream();
-                os.write((data + "\n").getBytes());
-                os.flush();
-                System.out.println("Gateway enviou dados para o Nó de Borda (via " + BORDA_NODE_IP + ":" + BORDA_NODE_TCP_PORT + "): " + data);
-                sent = true;
-            } catch (IOException e) {
-                currentRetry++;
-                System.err.println("Erro ao conectar ou enviar para o Nó de Borda (retentativa " + currentRetry + "/" + maxRetries + "): " + e.getMessage());
-                try {
-                    TimeUnit.SECONDS.sleep(2 * currentRetry);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    System.err.println("Retentativa interrompida.");
-                    break;
+    private static void startNioUdpReceiver() {
+        NioUdpReceiver receiver = new NioUdpReceiver(GATEWAY_UDP_PORT, UDP_THREADS, UDP_RCVBUF, dataQueue);
+        Metrics.gauge("udp_recebidos", receiver::receivedCount);
+        Metrics.gauge("udp_descartados", receiver::droppedCount);
+        try {
+            receiver.start();
+            Log.info("Conectando-se ao Nó de Borda em {}:{}", BORDA_NODE_IP, BORDA_NODE_TCP_PORT);
+            receiver.startStatsReporter(10);
+        } catch (IOException e) {
+            Log.error("Erro ao iniciar o receptor UDP (nio) do Gateway: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Marca o datagrama com o instante de recepção no Gateway, registra a latência desde o brinco
+     * e o enfileira. Datagramas que não puderem ser interpretados seguem como chegaram (o Nó de Borda os rejeita).
+     * Retransmissões são descartadas; com agregação, as leituras comuns vão para a janela do brinco
+     * e as prioritárias seguem na hora, logo depois da janela aberta.
+     * @param scratch Leitura reaproveitada pela thread receptora.
+     * @return false se a política da fila descartou o datagrama.
+     */
+    static boolean enqueue(byte[] datagram, Leitura scratch) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        byte[] stamped;
+        try {
+            stamped = WireFormat.stampGateway(datagram, now, scratch);
+        } catch (RuntimeException e) {
+            INVALID_DATAGRAMS.increment();
+            return dataQueue.enqueue(datagram, OverloadQueue.NO_KEY, false);
+        }
+        BRINCO_TO_GATEWAY_MS.record(now - scratch.getTimestamp());
+        long key = scratch.brincoKey();
+        if (DEDUP != null && DEDUP.isDuplicate(key, scratch.getTimestamp(), now)) {
+            DUPLICATES.increment();
+            return true;
+        }
+        boolean priority = isPriority(scratch);
+        if (AGGREGATOR != null) {
+            if (!priority) {
+                if (WireFormat.detect(stamped, 0, stamped.length) == WireFormat.JSON) {
+                    // A janela precisa da leitura completa; no JSON, stampGateway só leu os campos do cabeçalho
+                    WireFormat.decode(stamped, 0, stamped.length, scratch);
                 }
+                AGGREGATOR.add(key, scratch, stamped, now);
+                return true;
             }
+            AGGREGATOR.flush(key);
         }
-        if (!sent) {
-            System.err.println("Falha ao enviar dados para o Nó de Borda após " + maxRetries + " retentativas: " + data);
-        }
+        return dataQueue.enqueue(stamped, key, priority);
+    }
+
+    /**
+     * Leituras com febre provável ou com algum alerta já marcado não são descartadas em favor das comuns.
+     * A posição fora da fazenda só é conhecida no Nó Central, depois da última fila.
+     */
+    private static boolean isPriority(Leitura leitura) {
+        return leitura.getTemperatura() >= PRIORITY_TEMPERATURE
+                || leitura.hasFlag(Leitura.FLAG_ALERTA_FEBRE | Leitura.FLAG_FORA_DA_FAZENDA | Leitura.FLAG_ALERTA_INATIVIDADE);
+    }
+
+    private static void startTcpDispatcher() {
+        UpstreamConnection bordaConnection = new UpstreamConnection("Gateway", "Nó de Borda",
+                BORDA_NODE_IP, BORDA_NODE_TCP_PORT, Integer.getInteger("gateway.batch.max", UpstreamConnection.DEFAULT_MAX_BATCH),
+                WireFormat.fromProperty("gateway.link.format"));
+        bordaConnection.configureSpool("gateway");
+        bordaConnection.startDispatcher(dataQueue);
     }
 }
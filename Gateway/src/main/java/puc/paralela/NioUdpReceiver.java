@@ -0,0 +1,145 @@
+package puc.paralela;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import puc.paralela.codec.Leitura;
+import puc.paralela.comum.Log;
+
+/**
+ * Receptor UDP de alta taxa para o Gateway, baseado em {@link DatagramChannel}.
+ *
+ * Cada thread receptora tem o seu próprio canal ligado à mesma porta com
+ * SO_REUSEPORT (o kernel distribui os datagramas entre eles) e um único
+ * buffer direto reaproveitado. O conteúdo do datagrama é copiado para um
+ * byte[], marcado com o instante de recepção e enfileirado ({@link Gateway#enqueue})
+ * sem ser decodificado para String; os datagramas descartados pela política
+ * da fila são contados.
+ */
+class NioUdpReceiver {
+    private static final int MAX_DATAGRAM_SIZE = 4096;
+
+    private final int port;
+    private final int threads;
+    private final int receiveBufferSize;
+    private final BlockingQueue<byte[]> queue;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    NioUdpReceiver(int port, int threads, int receiveBufferSize, BlockingQueue<byte[]> queue) {
+        this.port = port;
+        this.threads = Math.max(1, threads);
+        this.receiveBufferSize = receiveBufferSize;
+        this.queue = queue;
+    }
+
+    /**
+     * Abre os canais e inicia as threads receptoras.
+     */
+    void start() throws IOException {
+        int channels = threads;
+        if (channels > 1 && !supportsReusePort()) {
+            Log.warn("Gateway: SO_REUSEPORT não suportado nesta plataforma; usando apenas 1 thread receptora UDP.");
+            channels = 1;
+        }
+        for (int i = 0; i < channels; i++) {
+            DatagramChannel channel = openChannel(channels > 1);
+            String threadName = "receptor-udp-" + i;
+            Thread receiver = new Thread(() -> receiveLoop(channel), threadName);
+            receiver.start();
+        }
+        Log.info("Gateway ouvindo dados dos brincos em UDP Porta {} (modo nio, {} threads, SO_RCVBUF={} bytes)",
+                port, channels, receiveBufferSize);
+    }
+
+    /**
+     * Inicia uma thread que imprime periodicamente os contadores de recepção.
+     */
+    void startStatsReporter(long intervalSeconds) {
+        Thread reporter = new Thread(() -> {
+            long lastReceived = 0;
+            while (true) {
+                try {
+                    TimeUnit.SECONDS.sleep(intervalSeconds);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                long total = received.sum();
+                Log.info("Gateway UDP: recebidos={} descartados={} taxa={}/s fila={}",
+                        total, dropped.sum(), (total - lastReceived) / intervalSeconds, queue.size());
+                lastReceived = total;
+            }
+        }, "estatisticas-udp");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    long receivedCount() {
+        return received.sum();
+    }
+
+    long droppedCount() {
+        return dropped.sum();
+    }
+
+    private DatagramChannel openChannel(boolean reusePort) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            if (reusePort) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(true);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        int effective = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+        if (effective < receiveBufferSize) {
+            Log.warn("Gateway: SO_RCVBUF limitado pelo sistema a {} bytes (pedido: {}). Ajuste net.core.rmem_max se necessário.",
+                    effective, receiveBufferSize);
+        }
+        return channel;
+    }
+
+    private void receiveLoop(DatagramChannel channel) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+        Leitura scratch = new Leitura();
+        try (channel) {
+            while (true) {
+                buffer.clear();
+                if (channel.receive(buffer) == null) {
+                    continue;
+                }
+                buffer.flip();
+                byte[] datagram = new byte[buffer.remaining()];
+                buffer.get(datagram);
+                received.increment();
+                if (!Gateway.enqueue(datagram, scratch)) {
+                    dropped.increment();
+                }
+            }
+        } catch (ClosedByInterruptException | InterruptedException e) {
+            Log.error("Receptor UDP interrompido.");
+        } catch (IOException e) {
+            Log.error("Erro no receptor UDP do Gateway: {}", e.getMessage(), e);
+        }
+    }
+
+    private static boolean supportsReusePort() {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package puc.paralela;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import puc.paralela.codec.Atividade;
+import puc.paralela.codec.Leitura;
+import puc.paralela.codec.WireFormat;
+import puc.paralela.comum.Log;
+import puc.paralela.comum.Metrics;
+import puc.paralela.comum.OverloadQueue;
+
+/**
+ * Junta as leituras comuns de cada brinco numa janela de tempo e envia um único
+ * resumo por janela ({@link Leitura#FLAG_RESUMO}): a última leitura (posição,
+ * temperatura e atividade), as temperaturas mínima e máxima e quantas leituras
+ * houve de cada atividade. Uma janela com uma só leitura é enviada como chegou.
+ *
+ * A janela de um brinco abre com a primeira leitura e é enviada por uma thread
+ * própria quando completa {@code windowMs}; {@link #flush} a envia antes, para que
+ * um alerta do brinco não passe à frente das leituras anteriores a ele (a fila leva
+ * a janela para a faixa prioritária junto com o alerta).
+ *
+ * As janelas ficam numa tabela dividida em shards, com chaves long primitivas. Cada
+ * shard tem duas travas: a da tabela, usada por {@link #add} só pelo tempo de atualizar
+ * a janela, e a de envio, que o envio pela thread e um {@link #flush} seguram da retirada
+ * da janela até ela entrar na fila. Assim os envios de um brinco nunca se cruzam, e uma
+ * fila cheia com a política {@code bloquear} segura só os envios do shard, nunca as
+ * leituras que chegam.
+ */
+final class WindowAggregator {
+
+    private static final class Window {
+        final long key;
+        final Leitura last = new Leitura();
+        byte[] lastRecord;
+        final long openedAt;
+        int count;
+        long firstTimestamp = Long.MAX_VALUE;
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        final int[] atividades = new int[Atividade.count()];
+
+        Window(long key, long openedAt) {
+            this.key = key;
+            this.openedAt = openedAt;
+        }
+
+        void add(Leitura leitura, byte[] record) {
+            if (count == 0 || leitura.getTimestamp() >= last.getTimestamp()) {
+                last.copyFrom(leitura);
+                lastRecord = record;
+            }
+            count++;
+            firstTimestamp = Math.min(firstTimestamp, leitura.getTimestamp());
+            min = Math.min(min, leitura.getTemperatura());
+            max = Math.max(max, leitura.getTemperatura());
+            atividades[leitura.getAtividade().ordinal()]++;
+        }
+    }
+
+    private final long windowMs;
+    private final OverloadQueue queue;
+    private final Shard[] shards;
+    private final int shardMask;
+
+    private final LongAdder aggregated = Metrics.counter("leituras_agregadas");
+    private final LongAdder summaries = Metrics.counter("resumos_enviados");
+
+    WindowAggregator(long windowMs, OverloadQueue queue) {
+        this.windowMs = windowMs;
+        this.queue = queue;
+        int wanted = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+        int count = Integer.highestOneBit(wanted - 1) << 1;
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard();
+        }
+        shardMask = count - 1;
+        Metrics.gauge("janelas_abertas", this::size);
+    }
+
+    private Shard shard(long key) {
+        return shards[(int) (mix(key) >>> 40) & shardMask];
+    }
+
+    /**
+     * Acrescenta a leitura à janela do brinco.
+     * @param record A mensagem recebida, já marcada pelo Gateway.
+     */
+    void add(long key, Leitura leitura, byte[] record, long now) {
+        Shard shard = shard(key);
+        synchronized (shard) {
+            Window window = shard.get(key);
+            if (window == null) {
+                window = shard.put(new Window(key, now));
+            }
+            window.add(leitura, record);
+        }
+        aggregated.increment();
+    }
+
+    /**
+     * Envia já a janela aberta do brinco, se houver.
+     */
+    void flush(long key) throws InterruptedException {
+        Shard shard = shard(key);
+        synchronized (shard.emitLock) {
+            Window window;
+            synchronized (shard) {
+                window = shard.remove(key);
+            }
+            if (window != null) {
+                emit(window);
+            }
+        }
+    }
+
+    /**
+     * Inicia a thread que envia as janelas completas.
+     */
+    void start() {
+        long tick = Math.max(10, windowMs / 4);
+        Thread flusher = new Thread(() -> {
+            List<Window> expired = new ArrayList<>();
+            while (true) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(tick);
+                    long openedBefore = System.currentTimeMillis() - windowMs;
+                    for (Shard shard : shards) {
+                        synchronized (shard.emitLock) {
+                            synchronized (shard) {
+                                shard.removeOpenedBefore(openedBefore, expired);
+                            }
+                            for (Window window : expired) {
+                                emit(window);
+                            }
+                        }
+                        expired.clear();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (RuntimeException e) {
+                    expired.clear();
+                    Log.error("Erro ao enviar os resumos do Gateway: {}", e.getMessage());
+                }
+            }
+        }, "agregador-janelas");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Enfileira uma janela já retirada da tabela. Chamado com a trava de envio do shard.
+     */
+    private void emit(Window window) throws InterruptedException {
+        if (window.count == 1) {
+            queue.enqueue(window.lastRecord, window.key, false);
+            return;
+        }
+        Leitura resumo = window.last;
+        resumo.setResumo(window.count, window.firstTimestamp, window.min, window.max, window.atividades);
+        WireFormat format = WireFormat.detect(window.lastRecord, 0, window.lastRecord.length);
+        queue.enqueue(format.encode(resumo), window.key, false);
+        summaries.increment();
+    }
+
+    private int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Janelas abertas de parte dos brincos: endereçamento aberto com chaves long, sem criar
+     * um Long a cada leitura. A tabela é acessada com a trava do próprio shard.
+     */
+    private static final class Shard {
+        final Object emitLock = new Object();
+        private long[] keys = new long[16];
+        private Window[] values = new Window[16];
+        private int size;
+
+        Window get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Insere a janela de um brinco que ainda não tem janela aberta.
+         */
+        Window put(Window window) {
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            insert(window.key, window);
+            size++;
+            return window;
+        }
+
+        Window remove(long key) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (values[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            Window removed = values[i];
+            if (removed == null) {
+                return null;
+            }
+            values[i] = null;
+            size--;
+            // Desloca para trás as chaves seguintes do mesmo agrupamento, para que as buscas não parem no buraco
+            for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                int home = slot(keys[j], mask);
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    values[j] = null;
+                    i = j;
+                }
+            }
+            return removed;
+        }
+
+        /**
+         * Retira as janelas abertas antes do instante, acrescentando-as a {@code into}.
+         */
+        void removeOpenedBefore(long openedBefore, List<Window> into) {
+            int from = into.size();
+            for (Window window : values) {
+                if (window != null && window.openedAt <= openedBefore) {
+                    into.add(window);
+                }
+            }
+            for (int i = from; i < into.size(); i++) {
+                remove(into.get(i).key);
+            }
+        }
+
+        private void insert(long key, Window value) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Window[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Window[oldValues.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    insert(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            return (int) mix(key) & mask;
+        }
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+}